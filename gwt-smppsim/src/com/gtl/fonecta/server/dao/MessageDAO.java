@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
@@ -20,6 +21,9 @@ import com.gtl.fonecta.client.bean.Message;
 public class MessageDAO extends BaseHibernateDAO {
 	private static final Log log = LogFactory.getLog(MessageDAO.class);
 
+	// keep in step with hibernate.jdbc.batch_size in hibernate.cfg.xml
+	private static final int BATCH_SIZE = 50;
+
 	/**
 	 * Method to save the message
 	 * 
@@ -48,6 +52,46 @@ public class MessageDAO extends BaseHibernateDAO {
 		}
 	}
 
+	/**
+	 * Method to save a list of messages in a single transaction. The session
+	 * is flushed and cleared every BATCH_SIZE inserts so that they go to the
+	 * database as JDBC batches (see hibernate.jdbc.batch_size) and the first
+	 * level cache does not grow with the list.
+	 * 
+	 * @param messages
+	 * @throws HibernateException
+	 *             if the transaction could not be committed; it has been
+	 *             rolled back and none of the messages are saved
+	 */
+	public void saveAll(List<Message> messages) {
+		Session session = null;
+		Transaction transaction = null;
+		try {
+			session = getSession();
+			transaction = session.beginTransaction();
+			for (int i = 0; i < messages.size(); i++) {
+				Message message = messages.get(i);
+				message.setMsgId((Integer) session.save(message));
+				if ((i + 1) % BATCH_SIZE == 0) {
+					session.flush();
+					session.clear();
+				}
+			}
+			transaction.commit();
+			log.info("inserted " + messages.size() + " messages");
+		} catch (HibernateException e) {
+			log.error(e);
+			if (transaction != null)
+				transaction.rollback();
+			throw e;
+		} finally {
+			if (session != null) {
+				session.clear();
+				session.close();
+			}
+		}
+	}
+
 	/**
 	 * Method to find list of message having DourceAddress and  DestinationAddress
 	 * 
@@ -14,6 +14,8 @@ public interface MessageService {
 
 	public void insertMtMessage(Message message);
 
+	public void insertMtMessages(List<Message> messages);
+
 	public void deleteAllMessage();
 
 	public List<Message> findAll();
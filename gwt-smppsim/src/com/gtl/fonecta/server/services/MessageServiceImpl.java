@@ -33,6 +33,19 @@ public class MessageServiceImpl implements MessageService {
 		messageDAO.save(message);
 	}
 
+	/**
+	 * Method to insert a batch of MT messages in one transaction.
+	 * 
+	 */
+	@Override
+	public void insertMtMessages(List<Message> messages) {
+		MessageDAO messageDAO = new MessageDAO();
+		for (Message message : messages) {
+			message.setMessageType("MT");
+		}
+		messageDAO.saveAll(messages);
+	}
+
 	/**
 	 * Method to delete all messages.
 	 * 
@@ -0,0 +1,157 @@
+/****************************************************************************
+ * AddressRange.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled BIND_RECEIVER / BIND_TRANSCEIVER address_range.
+ * 
+ * address_range is a regular expression which an address matches if it
+ * matches anywhere within it. Ranges that amount to "everything", "this
+ * exact address" or "addresses starting with this" are recognised so that
+ * ReceiverIndex can look them up without running a regular expression.
+ * Anything else is compiled with java.util.regex, with the POSIX classes
+ * ([:digit:] etc) that Jakarta regexp accepted translated to their
+ * java.util.regex equivalents.
+ */
+public class AddressRange {
+
+	public static final int ALL = 0;
+
+	public static final int EXACT = 1;
+
+	public static final int PREFIX = 2;
+
+	public static final int SUBSTRING = 3;
+
+	public static final int PATTERN = 4;
+
+	private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+	private static final Pattern POSIX_CLASS = Pattern.compile("\\[:(\\w+):\\]");
+
+	private final String range;
+
+	private final int kind;
+
+	// the address, prefix or substring for EXACT, PREFIX and SUBSTRING
+	private final String literal;
+
+	private final Pattern pattern;
+
+	private AddressRange(String range, int kind, String literal,
+			Pattern pattern) {
+		this.range = range;
+		this.kind = kind;
+		this.literal = literal;
+		this.pattern = pattern;
+	}
+
+	public static AddressRange compile(String range)
+			throws PatternSyntaxException {
+		if (range == null || range.equals("") || range.equals("*")
+				|| range.equals(".*") || range.equals("[:alnum:]*"))
+			return new AddressRange(range, ALL, null, null);
+		if (range.startsWith("^")) {
+			String rest = range.substring(1);
+			if (rest.endsWith("$") && isLiteral(rest, rest.length() - 1))
+				return new AddressRange(range, EXACT, rest.substring(0, rest
+						.length() - 1), null);
+			if (isLiteral(rest, rest.length()))
+				return new AddressRange(range, PREFIX, rest, null);
+			if (rest.endsWith(".*") && isLiteral(rest, rest.length() - 2))
+				return new AddressRange(range, PREFIX, rest.substring(0, rest
+						.length() - 2), null);
+		} else if (isLiteral(range, range.length())) {
+			return new AddressRange(range, SUBSTRING, range, null);
+		}
+		return new AddressRange(range, PATTERN, null, Pattern
+				.compile(translatePosixClasses(range)));
+	}
+
+	public boolean matches(String address) {
+		switch (kind) {
+		case ALL:
+			return true;
+		case EXACT:
+			return address.equals(literal);
+		case PREFIX:
+			return address.startsWith(literal);
+		case SUBSTRING:
+			return address.indexOf(literal) != -1;
+		default:
+			return pattern.matcher(address).find();
+		}
+	}
+
+	/**
+	 * @return one of ALL, EXACT, PREFIX, SUBSTRING or PATTERN
+	 */
+	public int getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the address, prefix or substring of an EXACT, PREFIX or
+	 *         SUBSTRING range
+	 */
+	public String getLiteral() {
+		return literal;
+	}
+
+	public String toString() {
+		return range;
+	}
+
+	private static boolean isLiteral(String s, int end) {
+		for (int i = 0; i < end; i++)
+			if (META_CHARACTERS.indexOf(s.charAt(i)) != -1)
+				return false;
+		return true;
+	}
+
+	private static String translatePosixClasses(String range) {
+		Matcher m = POSIX_CLASS.matcher(range);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			String name = m.group(1);
+			String javaName;
+			if (name.equals("xdigit"))
+				javaName = "XDigit";
+			else
+				javaName = Character.toUpperCase(name.charAt(0))
+						+ name.substring(1);
+			m.appendReplacement(sb, Matcher.quoteReplacement("\\p{"
+					+ javaName + "}"));
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+}
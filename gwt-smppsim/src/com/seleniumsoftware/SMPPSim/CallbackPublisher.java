@@ -0,0 +1,335 @@
+/****************************************************************************
+ * CallbackPublisher.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.seleniumsoftware.SMPPSim.util.MpscArrayQueue;
+
+/**
+ * Mirrors PDUs to the callback server in the background.
+ * <p>
+ * Connection threads only frame the PDU (LENGTH(4) TYPE(1) ID(4) PDU) and put
+ * it into a bounded lock-free queue. A single publisher thread takes records
+ * off in batches and writes each batch to the callback connection in one
+ * call, so a slow or unreachable callback server no longer holds up the SMPP
+ * sessions. If the connection fails the publisher reconnects through
+ * CallbackServerConnector and sends the failed batch again; the SMPP sessions
+ * carry on queueing meanwhile.
+ * <p>
+ * When the queue is full, CALLBACK_WHEN_FULL decides what happens: DROP (the
+ * default) discards the record and counts it, BLOCK makes the connection
+ * thread wait for space so that no record is lost.
+ * <p>
+ * At shutdown the publisher thread sends whatever is still queued before it
+ * stops, provided the callback server is connected.
+ */
+public class CallbackPublisher implements Runnable {
+
+	private static CallbackPublisher publisher;
+
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	public static final String WHEN_FULL_DROP = "DROP";
+
+	public static final String WHEN_FULL_BLOCK = "BLOCK";
+
+	private static final int HEADER_LENGTH = 9;
+
+	private static final int BATCH_SIZE = 256;
+
+	// how long shutdown waits for the publisher thread to finish (ms)
+	private static final long DRAIN_TIMEOUT = 5000;
+
+	private MpscArrayQueue<Record> queue;
+
+	private boolean dropWhenFull;
+
+	private byte[] id = new byte[4];
+
+	private OutputStream stream;
+
+	private Thread thread;
+
+	private volatile boolean idle = false;
+
+	private volatile boolean stopping = false;
+
+	// grown as needed, only used by the publisher thread
+	private byte[] buffer = new byte[8192];
+
+	// metrics
+
+	private static AtomicLong queued = new AtomicLong();
+
+	private static AtomicLong dropped = new AtomicLong();
+
+	private static AtomicLong waits = new AtomicLong();
+
+	private static volatile long sent = 0;
+
+	private static volatile long reconnects = 0;
+
+	private static volatile long lag = 0;
+
+	private static class Record {
+		final long time;
+
+		final byte[] data;
+
+		Record(long time, byte[] data) {
+			this.time = time;
+			this.data = data;
+		}
+	}
+
+	public static synchronized CallbackPublisher getInstance() {
+		if (publisher == null)
+			publisher = new CallbackPublisher();
+		return publisher;
+	}
+
+	private CallbackPublisher() {
+		queue = new MpscArrayQueue<Record>(Math.max(1, SMPPSim
+				.getCallbackQueueCapacity()));
+		dropWhenFull = WHEN_FULL_DROP.equalsIgnoreCase(SMPPSim
+				.getCallbackWhenFull());
+		try {
+			byte[] b = SMPPSim.getCallback_id().getBytes("ASCII");
+			System.arraycopy(b, 0, id, 0, Math.min(b.length, id.length));
+		} catch (Exception e) {
+			;
+		}
+	}
+
+	/**
+	 * Mirrors a PDU received from an ESME. The PDU is copied, so the caller
+	 * may reuse the array as soon as this returns.
+	 */
+	public void received(byte[] pdu) {
+		publish(PduCaptureWriter.RECEIVED, pdu);
+	}
+
+	/**
+	 * Mirrors a PDU sent to an ESME. The PDU is copied, so the caller may
+	 * reuse the array as soon as this returns.
+	 */
+	public void sent(byte[] pdu) {
+		publish(PduCaptureWriter.SENT, pdu);
+	}
+
+	private void publish(byte type, byte[] pdu) {
+		if (pdu == null)
+			return;
+		int length = pdu.length + HEADER_LENGTH;
+		byte[] data = new byte[length];
+		data[0] = (byte) (length >>> 24);
+		data[1] = (byte) (length >>> 16);
+		data[2] = (byte) (length >>> 8);
+		data[3] = (byte) length;
+		data[4] = type;
+		System.arraycopy(id, 0, data, 5, 4);
+		System.arraycopy(pdu, 0, data, HEADER_LENGTH, pdu.length);
+		Record record = new Record(System.currentTimeMillis(), data);
+		if (!queue.offer(record)) {
+			if (dropWhenFull) {
+				dropped.incrementAndGet();
+				return;
+			}
+			waits.incrementAndGet();
+			while (!queue.offer(record)) {
+				// nobody will take it once the publisher has stopped
+				if (stopping)
+					return;
+				LockSupport.parkNanos(100000);
+			}
+		}
+		queued.incrementAndGet();
+		if (idle)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Starts the publisher thread.
+	 */
+	public synchronized void start() {
+		thread = new Thread(this, "CALLBACK");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		logger.info("Starting callback publisher....");
+		ArrayList<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+		while (!stopping) {
+			try {
+				if (stream == null) {
+					connect();
+				} else if (!batch.isEmpty()
+						|| queue.drainTo(batch, BATCH_SIZE) > 0) {
+					write(batch);
+					batch.clear();
+				} else {
+					idle = true;
+					if (queue.isEmpty())
+						LockSupport.parkNanos(this, 100000000L);
+					idle = false;
+				}
+			} catch (IOException e) {
+				// keep the batch and send it again once reconnected
+				logger.info("Lost connection to callback server: "
+						+ e.getMessage() + ". Reconnecting");
+				disconnect();
+				reconnects++;
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Exception in callback publisher: "
+						+ e.getMessage(), e);
+				batch.clear();
+			}
+		}
+
+		// stopping: send whatever is still queued
+		if (stream == null)
+			return;
+		try {
+			if (!batch.isEmpty())
+				write(batch);
+			batch.clear();
+			while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+				write(batch);
+				batch.clear();
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Exception draining callback publisher: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Stops the publisher thread once it has sent whatever is still queued,
+	 * and waits for it to finish. Registered as a shutdown hook so that PDUs
+	 * mirrored just before the simulator is stopped reach the callback server.
+	 */
+	public void drain() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		stopping = true;
+		if (t == null)
+			return;
+		LockSupport.unpark(t);
+		try {
+			t.join(DRAIN_TIMEOUT);
+		} catch (InterruptedException e) {
+			// shutting down anyway
+		}
+	}
+
+	private void connect() {
+		Smsc.setCallback_server_online(false);
+		new CallbackServerConnector(new Object()).run();
+		stream = Smsc.getCallback_stream();
+	}
+
+	private void disconnect() {
+		Smsc.setCallback_server_online(false);
+		Socket socket = Smsc.getCallback();
+		try {
+			if (socket != null)
+				socket.close();
+		} catch (IOException e) {
+			;
+		}
+		stream = null;
+	}
+
+	private void write(ArrayList<Record> batch) throws IOException {
+		int length = 0;
+		for (int i = 0; i < batch.size(); i++)
+			length += batch.get(i).data.length;
+		if (length > buffer.length)
+			buffer = new byte[Math.max(length, buffer.length * 2)];
+		int pos = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			byte[] data = batch.get(i).data;
+			System.arraycopy(data, 0, buffer, pos, data.length);
+			pos += data.length;
+		}
+		stream.write(buffer, 0, length);
+		stream.flush();
+		sent = sent + batch.size();
+		lag = System.currentTimeMillis() - batch.get(0).time;
+	}
+
+	/**
+	 * @return records waiting to be sent to the callback server
+	 */
+	public static int getQueueSize() {
+		return publisher == null ? 0 : publisher.queue.size();
+	}
+
+	public static long getQueued() {
+		return queued.get();
+	}
+
+	public static long getSent() {
+		return sent;
+	}
+
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of times a connection thread has had to wait for
+	 *         space in the queue
+	 */
+	public static long getWaits() {
+		return waits.get();
+	}
+
+	public static long getReconnects() {
+		return reconnects;
+	}
+
+	/**
+	 * @return how long, in milliseconds, the oldest record in the last batch
+	 *         written had been queued
+	 */
+	public static long getLag() {
+		return lag;
+	}
+}
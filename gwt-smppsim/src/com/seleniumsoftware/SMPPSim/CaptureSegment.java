@@ -0,0 +1,236 @@
+/****************************************************************************
+ * CaptureSegment.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One segment of an indexed PDU capture, held in a memory-mapped file.
+ * <p>
+ * Layout, all integers big endian:
+ * 
+ * <pre>
+ * header   MAGIC(4) VERSION(4) capacity(4) record count(4) end of data(4)
+ *          created(8) reserved(4)
+ * records  time(8) session id(4) direction(1) PDU(command_length)
+ *          ... growing up from HEADER_LENGTH
+ * index    offset of record n-1(4) ... offset of record 0(4)
+ *          growing down from the end of the file
+ * </pre>
+ * 
+ * A record and its index entry are written before the header's record count
+ * is advanced, so a reader never sees a record that is incomplete, even in a
+ * segment that is still being written or was left behind by a crash.
+ * <p>
+ * Segments are written by the PduCaptureWriter when CAPTURE_FORMAT=INDEXED
+ * and read by com.seleniumsoftware.examples.CaptureReplay.
+ */
+public class CaptureSegment {
+
+	public static final int MAGIC = 0x534D5043; // "SMPC"
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_LENGTH = 32;
+
+	public static final int RECORD_HEADER_LENGTH = 13;
+
+	private static final int INDEX_ENTRY_LENGTH = 4;
+
+	private static final int CAPACITY_OFFSET = 8;
+
+	private static final int COUNT_OFFSET = 12;
+
+	private static final int DATA_END_OFFSET = 16;
+
+	private static final int CREATED_OFFSET = 20;
+
+	private final File file;
+
+	private final MappedByteBuffer buffer;
+
+	private final int capacity;
+
+	private int count;
+
+	private int dataEnd;
+
+	private CaptureSegment(File file, MappedByteBuffer buffer) {
+		this.file = file;
+		this.buffer = buffer;
+		this.capacity = buffer.getInt(CAPACITY_OFFSET);
+		this.count = buffer.getInt(COUNT_OFFSET);
+		this.dataEnd = buffer.getInt(DATA_END_OFFSET);
+	}
+
+	/**
+	 * Creates a new, empty segment of the given size, replacing any existing
+	 * file.
+	 */
+	public static CaptureSegment create(File file, int capacity)
+			throws IOException {
+		file.delete();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, capacity);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+			buffer.putInt(COUNT_OFFSET, 0);
+			buffer.putInt(DATA_END_OFFSET, HEADER_LENGTH);
+			buffer.putLong(CREATED_OFFSET, System.currentTimeMillis());
+			return new CaptureSegment(file, buffer);
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps an existing segment for reading.
+	 * 
+	 * @throws IOException
+	 *             if the file is not a capture segment
+	 */
+	public static CaptureSegment open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (raf.length() < HEADER_LENGTH || buffer.getInt(0) != MAGIC)
+				throw new IOException(file + " is not a SMPPSim capture segment");
+			if (buffer.getInt(4) != VERSION)
+				throw new IOException(file
+						+ " has unsupported capture segment version "
+						+ buffer.getInt(4));
+			return new CaptureSegment(file, buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the smallest segment that can hold a PDU of the given length
+	 */
+	public static int minimumCapacity(int pduLength) {
+		return HEADER_LENGTH + RECORD_HEADER_LENGTH + pduLength
+				+ INDEX_ENTRY_LENGTH;
+	}
+
+	/**
+	 * Appends a record.
+	 * 
+	 * @return false if there is no room left in this segment
+	 */
+	public boolean append(long time, int session, byte direction, byte[] pdu) {
+		int recordLength = RECORD_HEADER_LENGTH + pdu.length;
+		int indexStart = capacity - (count + 1) * INDEX_ENTRY_LENGTH;
+		if (dataEnd + recordLength > indexStart)
+			return false;
+		int offset = dataEnd;
+		buffer.putLong(offset, time);
+		buffer.putInt(offset + 8, session);
+		buffer.put(offset + 12, direction);
+		ByteBuffer data = buffer.duplicate();
+		data.position(offset + RECORD_HEADER_LENGTH);
+		data.put(pdu);
+		buffer.putInt(indexStart, offset);
+		dataEnd = offset + recordLength;
+		count++;
+		buffer.putInt(DATA_END_OFFSET, dataEnd);
+		buffer.putInt(COUNT_OFFSET, count);
+		return true;
+	}
+
+	/**
+	 * Writes the segment's changes to the storage device.
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getRecordCount() {
+		return count;
+	}
+
+	public long getCreated() {
+		return buffer.getLong(CREATED_OFFSET);
+	}
+
+	/**
+	 * @return bytes used by records and the index
+	 */
+	public int getSize() {
+		return dataEnd + count * INDEX_ENTRY_LENGTH;
+	}
+
+	public long getTime(int record) {
+		return buffer.getLong(offset(record));
+	}
+
+	public int getSession(int record) {
+		return buffer.getInt(offset(record) + 8);
+	}
+
+	public byte getDirection(int record) {
+		return buffer.get(offset(record) + 12);
+	}
+
+	public int getCommandId(int record) {
+		return buffer.getInt(offset(record) + RECORD_HEADER_LENGTH + 4);
+	}
+
+	/**
+	 * @return the PDU as a read only view of the mapped file. Nothing is
+	 *         copied.
+	 */
+	public ByteBuffer getPdu(int record) {
+		int start = offset(record) + RECORD_HEADER_LENGTH;
+		ByteBuffer pdu = buffer.asReadOnlyBuffer();
+		pdu.limit(start + buffer.getInt(start));
+		pdu.position(start);
+		return pdu.slice();
+	}
+
+	private int offset(int record) {
+		if (record < 0 || record >= count)
+			throw new IndexOutOfBoundsException("Record " + record + " of "
+					+ count);
+		return buffer.getInt(capacity - (record + 1) * INDEX_ENTRY_LENGTH);
+	}
+}
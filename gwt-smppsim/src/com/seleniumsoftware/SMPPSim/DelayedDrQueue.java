@@ -24,33 +24,62 @@
  * http://www.seleniumsoftware.com
  ****************************************************************************
  */
+
 package com.seleniumsoftware.SMPPSim;
 
 import java.util.ArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.exceptions.InboundQueueFullException;
-import com.seleniumsoftware.SMPPSim.pdu.DeliverSM;
 import com.seleniumsoftware.SMPPSim.pdu.DeliveryReceipt;
-import com.seleniumsoftware.SMPPSim.pdu.Pdu;
-
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
+
+/**
+ * Holds delivery receipts until DELAY_DELIVERY_RECEIPTS_BY milliseconds, plus
+ * any jitter, after they were created and then moves them to the inbound
+ * queue.
+ * <p>
+ * Receipts are kept in a DelayQueue ordered by the time they are due, so
+ * adding one costs O(log n) and the service thread sleeps until the earliest
+ * is due rather than rescanning the queue.
+ */
 public class DelayedDrQueue implements Runnable {
 
+	/** Jitter uniformly distributed between 0 and the jitter value */
+	public static final String JITTER_UNIFORM = "UNIFORM";
+
+	/** Exponentially distributed jitter with the jitter value as its mean */
+	public static final String JITTER_EXPONENTIAL = "EXPONENTIAL";
+
+	/**
+	 * Normally distributed jitter with the jitter value as its standard
+	 * deviation, never bringing a receipt forward of the minimum delay
+	 */
+	public static final String JITTER_NORMAL = "NORMAL";
+
 	private static DelayedDrQueue drqueue;
 
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
 
-	private Smsc smsc = Smsc.getInstance();
+	// how long to wait before offering a receipt to a full inbound queue again
+	private static final long RETRY_MS = 100;
 
-	private InboundQueue iqueue = InboundQueue.getInstance();
+	private static final int BATCH_SIZE = 1000;
 
-	ArrayList<DeliveryReceipt> dr_queue_pdus;
+	private InboundQueue iqueue = InboundQueue.getInstance();
 
-	private static final int period = 5000;
+	private DelayQueue<Entry> dr_queue_pdus = new DelayQueue<Entry>();
 
 	private long delay_ms;
 
+	private long jitter_ms;
+
+	private String jitter_distribution;
+
 	public static DelayedDrQueue getInstance() {
 		if (drqueue == null)
 			drqueue = new DelayedDrQueue();
@@ -58,59 +87,101 @@ public class DelayedDrQueue implements Runnable {
 	}
 
 	private DelayedDrQueue() {
-		dr_queue_pdus = new ArrayList<DeliveryReceipt>();
 		delay_ms = SMPPSim.getDelayReceiptsBy();
+		jitter_ms = SMPPSim.getDelayReceiptsJitter();
+		jitter_distribution = SMPPSim.getDelayReceiptsJitterDistribution();
+	}
+
+	public static boolean isValidDistribution(String distribution) {
+		return distribution.equalsIgnoreCase(JITTER_UNIFORM)
+				|| distribution.equalsIgnoreCase(JITTER_EXPONENTIAL)
+				|| distribution.equalsIgnoreCase(JITTER_NORMAL);
 	}
 
 	public void delayDeliveryReceipt(DeliveryReceipt pdu) {
-		synchronized (dr_queue_pdus) {
-			if (!dr_queue_pdus.contains(pdu)) {
-				logger.finest("DelayedDrQueue: adding object to queue<"
-						+ pdu.toString() + ">");
-				dr_queue_pdus.add(pdu);
-			}
-			logger.finest("DelayedDrQueue: now contains "
-					+ dr_queue_pdus.size() + " object(s)");
+		long due_ms = pdu.getCreated() + delay_ms + jitter();
+		long wait_ms = due_ms - System.currentTimeMillis();
+		dr_queue_pdus.add(new Entry(pdu, System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(wait_ms)));
+		logger.finest("DelayedDrQueue: added receipt due in " + wait_ms
+				+ " ms, now contains " + dr_queue_pdus.size()
+				+ " object(s)");
+	}
+
+	public int size() {
+		return dr_queue_pdus.size();
+	}
+
+	private long jitter() {
+		if (jitter_ms <= 0)
+			return 0;
+		double j;
+		if (jitter_distribution.equals(JITTER_EXPONENTIAL)) {
+			j = -Math.log(1.0 - SimRandom.nextDouble()) * jitter_ms;
+		} else if (jitter_distribution.equals(JITTER_NORMAL)) {
+			// Box-Muller, so that a seeded SimRandom still gives repeatable
+			// runs
+			double u = 1.0 - SimRandom.nextDouble();
+			double v = SimRandom.nextDouble();
+			j = Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v)
+					* jitter_ms;
+			j = Math.max(0, j);
+		} else {
+			j = SimRandom.nextDouble() * jitter_ms;
 		}
+		return (long) j;
 	}
 
 	public void run() {
-		// this code periodically processes the contents of the delayed DR
-		// queue, moving
-		// messages that are old enough to the active inbound queue for
-		// attempted delivery.
+		// this code moves receipts to the active inbound queue for attempted
+		// delivery as they become due. Receipts that are due together are
+		// moved in one batch.
 
 		logger.info("Starting DelayedDrQueue service....");
 
+		ArrayList<Entry> batch = new ArrayList<Entry>(BATCH_SIZE);
 		while (true) {
 			try {
-				Thread.sleep(period);
+				batch.add(dr_queue_pdus.take());
 			} catch (InterruptedException e) {
+				continue;
 			}
-			int dcount = dr_queue_pdus.size();
-			logger.finest("Processing " + dcount
-					+ " messages in the delayed DR queue");
-
-			synchronized (dr_queue_pdus) {
-				for (int i = 0; i < dr_queue_pdus.size(); i++) {
-					Pdu mo = dr_queue_pdus.get(i);
-					try {
-						DeliverSM dsm = (DeliverSM) mo;
-						long earliest_delivery_time = (dsm.getCreated() + delay_ms);
-						long now = System.currentTimeMillis();
-						long diff = earliest_delivery_time - now;
-						logger.finest("Considering delivery receipt: "
-								+ (diff / 1000) + " seconds to go");
-						if (earliest_delivery_time < now) {
-							iqueue.addMessage(mo);
-							dr_queue_pdus.remove(mo);
-						}
-					} catch (InboundQueueFullException e) {
-						// try again next time around
-					}
+			dr_queue_pdus.drainTo(batch, BATCH_SIZE - 1);
+			logger.finest("Moving " + batch.size()
+					+ " delivery receipts to the inbound queue");
+			for (Entry entry : batch) {
+				try {
+					iqueue.addMessage(entry.receipt);
+				} catch (InboundQueueFullException e) {
+					// try again shortly
+					entry.due = System.nanoTime()
+							+ TimeUnit.MILLISECONDS.toNanos(RETRY_MS);
+					dr_queue_pdus.add(entry);
 				}
 			}
+			batch.clear();
 		}
 	}
 
-}
\ No newline at end of file
+	private static class Entry implements Delayed {
+
+		private final DeliveryReceipt receipt;
+
+		// System.nanoTime() at which the receipt is due
+		private long due;
+
+		Entry(DeliveryReceipt receipt, long due) {
+			this.receipt = receipt;
+			this.due = due;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed o) {
+			long other = ((Entry) o).due;
+			return (due - other < 0) ? -1 : ((due == other) ? 0 : 1);
+		}
+	}
+}
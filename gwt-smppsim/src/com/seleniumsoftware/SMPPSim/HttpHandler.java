@@ -41,6 +41,7 @@ import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Hashtable;
@@ -52,6 +53,8 @@ import java.util.logging.Logger;
 import com.seleniumsoftware.SMPPSim.exceptions.InvalidHexStringlException;
 import com.seleniumsoftware.SMPPSim.pdu.DeliverSM;
 import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.util.AllocationMonitor;
+import com.seleniumsoftware.SMPPSim.util.LoggingUtilities;
 import com.seleniumsoftware.SMPPSim.util.Utilities;
 
 /**
@@ -111,6 +114,32 @@ public class HttpHandler implements Runnable {
 
 	private static final String PQCOUNT = "$$pqcount$$";
 
+	private static final String DRQCOUNT = "$$drqcount$$";
+
+	private static final String PDUS_PER_FLUSH = "$$pdus_per_flush$$";
+	private static final String POOL_REUSED = "$$pool_reused$$";
+	private static final String POOL_ALLOCATED = "$$pool_allocated$$";
+	private static final String POOL_LEAKED = "$$pool_leaked$$";
+	private static final String ALLOCATED_PER_PDU = "$$allocated_per_pdu$$";
+	private static final String GC_COUNT = "$$gc_count$$";
+	private static final String GC_TIME = "$$gc_time$$";
+	private static final String CALLBACK_QUEUED = "$$callback_queued$$";
+	private static final String CALLBACK_SENT = "$$callback_sent$$";
+	private static final String CALLBACK_DROPPED = "$$callback_dropped$$";
+	private static final String CALLBACK_LAG = "$$callback_lag$$";
+	private static final String CALLBACK_RECONNECTS = "$$callback_reconnects$$";
+
+	private static final String MO_GENERATED = "$$mo_generated$$";
+	private static final String MO_REJECTED = "$$mo_rejected$$";
+	private static final String MO_TARGET_RATE = "$$mo_target_rate$$";
+	private static final String MO_ACHIEVED_RATE = "$$mo_achieved_rate$$";
+
+	private static final String MTPQCOUNT = "$$mtpqcount$$";
+
+	private static final String MT_PERSISTED = "$$mt_persisted$$";
+
+	private static final String MT_NOT_PERSISTED = "$$mt_not_persisted$$";
+
 	private static final String VERSION = "$$version$$";
 
 	private static final String BINDTRANSMITTER_OK = "$$bindtransmitter_ok$$";
@@ -458,6 +487,9 @@ public class HttpHandler implements Runnable {
 			else if (filename.equals("/inject_mo")) {
 				authorisedFile = true;
 				command = "inject";
+			} else if (filename.equals("/trace")) {
+				authorisedFile = true;
+				command = "trace";
 			} else
 				logger.finest("Unauthorised file <" + filename
 						+ "> requested - ignoring request");
@@ -478,6 +510,10 @@ public class HttpHandler implements Runnable {
 			return stats();
 		}
 
+		if (command.equalsIgnoreCase("trace")) {
+			return trace(target);
+		}
+
 		File requestedFile;
 		requestedFile = generateFile(filename);
 
@@ -658,6 +694,50 @@ public class HttpHandler implements Runnable {
 			return Integer.toString(smsc.getInbound_queue_size());
 		if (paramName.equals(PQCOUNT))
 			return Integer.toString(smsc.getPending_queue_size());
+		if (paramName.equals(DRQCOUNT))
+			return Integer.toString(smsc.getDelayed_dr_queue_size());
+		if (paramName.equals(MTPQCOUNT))
+			return Integer.toString(smsc.getMtPersistenceQueue().getQueueSize());
+		if (paramName.equals(MT_PERSISTED))
+			return Long.toString(smsc.getMtPersistenceQueue().getPersisted());
+		if (paramName.equals(MT_NOT_PERSISTED))
+			return Long.toString(smsc.getMtPersistenceQueue().getDiscarded()
+					+ smsc.getMtPersistenceQueue().getFailed());
+		if (paramName.equals(PDUS_PER_FLUSH))
+			return new DecimalFormat("0.00").format(smsc
+					.getAveragePdusPerFlush());
+		if (paramName.equals(POOL_REUSED))
+			return Long.toString(PduPool.getReused());
+		if (paramName.equals(POOL_ALLOCATED))
+			return Long.toString(PduPool.getAllocated());
+		if (paramName.equals(POOL_LEAKED))
+			return Long.toString(PduPool.getLeaked());
+		if (paramName.equals(ALLOCATED_PER_PDU)) {
+			long perPdu = smsc.getAllocatedBytesPerPdu();
+			return (perPdu < 0) ? "N/A" : Long.toString(perPdu);
+		}
+		if (paramName.equals(GC_COUNT))
+			return Long.toString(AllocationMonitor.getGcCount());
+		if (paramName.equals(GC_TIME))
+			return Long.toString(AllocationMonitor.getGcTime());
+		if (paramName.equals(CALLBACK_QUEUED))
+			return Integer.toString(CallbackPublisher.getQueueSize());
+		if (paramName.equals(CALLBACK_SENT))
+			return Long.toString(CallbackPublisher.getSent());
+		if (paramName.equals(CALLBACK_DROPPED))
+			return Long.toString(CallbackPublisher.getDropped());
+		if (paramName.equals(CALLBACK_LAG))
+			return Long.toString(CallbackPublisher.getLag());
+		if (paramName.equals(CALLBACK_RECONNECTS))
+			return Long.toString(CallbackPublisher.getReconnects());
+		if (paramName.equals(MO_GENERATED))
+			return Long.toString(MoService.getGenerated());
+		if (paramName.equals(MO_REJECTED))
+			return Long.toString(MoService.getRejected());
+		if (paramName.equals(MO_TARGET_RATE))
+			return Long.toString(Math.round(MoService.getTargetRate()));
+		if (paramName.equals(MO_ACHIEVED_RATE))
+			return Long.toString(Math.round(MoService.getAchievedRate()));
 		if (paramName.equals(OQCOUNT))
 			return Integer.toString(smsc.getOutbound_queue_size());
 		if (paramName.equals(BINDTRANSMITTER_OK))
@@ -859,6 +939,56 @@ public class HttpHandler implements Runnable {
 
 	}
 
+	/**
+	 * Shows and optionally changes the PDU tracing filters. For example
+	 * /trace?system_ids=smppclient1&command_ids=0x00000004,0x80000004 traces
+	 * only SUBMIT_SM and SUBMIT_SM_RESP for smppclient1. An empty value traces
+	 * everything.
+	 */
+	private byte[] trace(String request) {
+		int qmark = request.indexOf("?");
+		if (qmark > -1) {
+			StringTokenizer st = new StringTokenizer(request
+					.substring(qmark + 1), "&", false);
+			try {
+				while (st.hasMoreTokens()) {
+					String token = st.nextToken();
+					int eq = token.indexOf("=");
+					if (eq < 0)
+						continue;
+					String key = token.substring(0, eq);
+					String value = URLDecoder.decode(token.substring(eq + 1),
+							"UTF-8");
+					if (key.equals("system_ids"))
+						LoggingUtilities.setTraceSystemIds(value);
+					else if (key.equals("command_ids"))
+						LoggingUtilities.setTraceCommandIds(value);
+				}
+			} catch (Exception e) {
+				logger.warning("Invalid trace request: " + e.getMessage());
+				responseOK = false;
+				return http400Response;
+			}
+		}
+
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		try {
+			byte[] headerBytes = createHeaderBytes("HTTP/1.0 200 OK", -1, null);
+			bOut.write(headerBytes);
+			String response = "system_ids="
+					+ LoggingUtilities.getTraceSystemIds() + ",command_ids="
+					+ LoggingUtilities.getTraceCommandIds();
+			bOut.write(response.getBytes());
+			bOut.flush();
+			bOut.close();
+			return bOut.toByteArray();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Exception: " + e.getMessage(), e);
+			responseOK = false;
+			return http500Response;
+		}
+	}
+
 	private DeliverSM parseMoInjectForm(String HTTPmessage) throws Exception {
 
 		DeliverSM smppmsg = new DeliverSM();
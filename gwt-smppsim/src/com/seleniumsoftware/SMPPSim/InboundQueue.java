@@ -28,6 +28,9 @@
 package com.seleniumsoftware.SMPPSim;
 
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,25 +41,40 @@ import com.seleniumsoftware.SMPPSim.pdu.DeliveryReceipt;
 import com.seleniumsoftware.SMPPSim.pdu.Pdu;
 import com.seleniumsoftware.SMPPSim.pdu.PduConstants;
 import com.seleniumsoftware.SMPPSim.util.LoggingUtilities;
+import com.seleniumsoftware.SMPPSim.util.MpscArrayQueue;
 
 public class InboundQueue implements Runnable {
 
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
 
+	// maximum number of messages taken from the queue and written to receivers
+	// before the receivers' output is flushed
+	private static final int DELIVERY_BATCH_SIZE = 256;
+
 	private Smsc smsc = Smsc.getInstance();
 
 	private static InboundQueue iqueue;
 
 	private static DelayedInboundQueue diqueue;
 
-	ArrayList<Pdu> queue;
+	// Messages are added by the MO service, loopback, ESME to ESME routing,
+	// delivery receipt generation, the delayed queues and HTTP injection, and
+	// taken off by the single InboundQueue service thread.
+	MpscArrayQueue<Pdu> queue;
+
+	// The InboundQueue service waits on this when there is nothing it can
+	// deliver. Producers only take the lock to wake it when it is waiting.
+	private final ReentrantLock wakeLock = new ReentrantLock();
+
+	private final Condition wakeup = wakeLock.newCondition();
 
-	// we're waiting for a DELIVER_SM_RESP for each PDU in this queue. Depending
-	// on the command_status we then
-	// either put the message into the delayed_inbound_queue or we simply delete
-	// it.
-	ArrayList<Pdu> response_queue;
+	private volatile boolean consumerWaiting = false;
+
+	// we're waiting for a DELIVER_SM_RESP for each PDU in this queue, keyed by
+	// sequence number. Depending on the command_status we then either put the
+	// message into the delayed_inbound_queue or we simply delete it.
+	ConcurrentHashMap<Integer, Pdu> response_queue;
 
 	// If no receiver session, message goes in the pending queue
 	ArrayList<Pdu> pending_queue = new ArrayList<Pdu>();
@@ -68,74 +86,38 @@ public class InboundQueue implements Runnable {
 	}
 
 	private InboundQueue(int maxsize) {
-		queue = new ArrayList<Pdu>(maxsize);
-		response_queue = new ArrayList<Pdu>(maxsize);
+		queue = new MpscArrayQueue<Pdu>(Math.max(1, maxsize));
+		response_queue = new ConcurrentHashMap<Integer, Pdu>(Math.max(16,
+				maxsize));
 	}
 
 	public void addMessage(Pdu message) throws InboundQueueFullException {
-		synchronized (queue) {
-			if (queue.size() >= smsc.getInbound_queue_capacity())
-				throw new InboundQueueFullException();
-			logger.finest("InboundQueue: adding object to queue<"
-					+ message.toString() + ">");
-			queue.add(message);
-			logger.finest("InboundQueue: now contains " + queue.size()
+		if (!queue.offer(message))
+			throw new InboundQueueFullException();
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("InboundQueue: added object to queue<"
+					+ message.toString() + ">, now contains " + queue.size()
 					+ " object(s)");
-			queue.notifyAll();
 		}
+		wakeConsumer();
 	}
 
 	public void deliveryResult(int seqno, int command_status) {
-		logger.finest("MO message delivery attempted: seqno=" + seqno
-				+ ",status=" + command_status + ",responses pending="
-				+ response_queue.size());
-		synchronized (response_queue) {
-			for (int i = 0; i < response_queue.size(); i++) {
-				Pdu pdu = response_queue.get(i);
-				if (pdu.getSeq_no() == seqno) {
-					if (command_status == PduConstants.ESME_RMSGQFUL) {
-						logger
-								.info("MO message "
-										+ seqno
-										+ " was rejected with queue full so putting in delayed inbound queue for retry");
-						diqueue.retryLater(pdu);
-					} else {
-						diqueue.deliveredOK(pdu);
-					}
-					response_queue.remove(i);
-					break;
-				}
-			}
-		}
-		logger.finest("Awaiting " + response_queue.size() + " responses");
-	}
-
-	public void removeMessage(Pdu m) {
-		removeMessage(m, queue);
-	}
-
-	public void removeMessage(Pdu m, ArrayList<Pdu> queue) {
-		synchronized (queue) {
-			int i = queue.indexOf(m);
-			if (i > -1) {
-				queue.remove(i);
-			} else {
+		Pdu pdu = response_queue.remove(Integer.valueOf(seqno));
+		if (pdu != null) {
+			logger.finest("MO message delivery attempted: seqno=" + seqno
+					+ ",status=" + command_status);
+			if (command_status == PduConstants.ESME_RMSGQFUL) {
 				logger
-						.warning("Attempt to remove non-existent object from InboundQueue: "
-								+ m.toString());
+						.info("MO message "
+								+ seqno
+								+ " was rejected with queue full so putting in delayed inbound queue for retry");
+				diqueue.retryLater(pdu);
+			} else {
+				diqueue.deliveredOK(pdu);
 			}
 		}
-	}
-
-	private Object[] getAllMessages() {
-		synchronized (queue) {
-			Object[] o = queue.toArray();
-			return o;
-		}
-	}
-
-	private boolean isEmpty() {
-		return queue.isEmpty();
+		logger.finest("Awaiting " + response_queue.size() + " responses");
 	}
 
 	public int size() {
@@ -143,14 +125,29 @@ public class InboundQueue implements Runnable {
 	}
 
 	public int pending_size() {
-		return pending_queue.size();
+		synchronized (pending_queue) {
+			return pending_queue.size();
+		}
 	}
 
 	public void notifyReceiverBound() {
-		synchronized (queue) {
-			logger
-					.finest("A receiver bound - will notify InboundQueue service");
-			queue.notifyAll();
+		logger.finest("A receiver bound - will notify InboundQueue service");
+		wakeLock.lock();
+		try {
+			wakeup.signal();
+		} finally {
+			wakeLock.unlock();
+		}
+	}
+
+	private void wakeConsumer() {
+		if (consumerWaiting) {
+			wakeLock.lock();
+			try {
+				wakeup.signal();
+			} finally {
+				wakeLock.unlock();
+			}
 		}
 	}
 
@@ -166,7 +163,7 @@ public class InboundQueue implements Runnable {
 		// there is at least one receiver session
 		// and at least one message in the queue
 		// Then
-		// get all messages from the queue
+		// take a batch of messages from the queue
 		// for each message
 		// see if there is a receiver whose address_range matches the message
 		// and if so, attempt to deliver it and
@@ -183,73 +180,89 @@ public class InboundQueue implements Runnable {
 		Thread t = new Thread(diqueue);
 		t.start();
 
+		ArrayList<Pdu> batch = new ArrayList<Pdu>(DELIVERY_BATCH_SIZE);
 		do // process queue forever
 		{
-			processQueue();
+			processQueue(batch);
 		} while (true);
 	}
 
 	private void addPendingQueue(Pdu mo) {
-		pending_queue.add(mo);
+		synchronized (pending_queue) {
+			pending_queue.add(mo);
+		}
 		if (SMPPSim.isOutbind_enabled() && !smsc.isOutbind_sent()) {
 			smsc.outbind();
 		}
 	}
 
-	private void processQueue() {
-		StandardConnectionHandler receiver = null;
-		Object[] pdus;
-		DeliverSM pdu;
-		byte[] message;
-		byte[] response;
-		String pduName;
-		int pduCount;
+	private int moveQueueToPending() {
+		int pc = 0;
+		Pdu mo;
+		while ((mo = queue.poll()) != null) {
+			addPendingQueue(mo);
+			pc++;
+		}
+		return pc;
+	}
 
-		synchronized (queue) {
-			while (isEmpty() || (smsc.getReceiverBoundCount() == 0)) {
+	private void awaitDeliverableMessages() {
+		wakeLock.lock();
+		try {
+			consumerWaiting = true;
+			while (queue.isEmpty() || (smsc.getReceiverBoundCount() == 0)) {
+				if (queue.isEmpty()) {
+					logger.info("InboundQueue: empty  - waiting");
+				} else {
+					logger
+							.info("InboundQueue: no available receiver sessions - moving message(s) to pending queue");
+					int pc = moveQueueToPending();
+					logger.info("Moved " + pc
+							+ " MO messages to the pending queue");
+				}
 				try {
-					if (isEmpty()) {
-						logger.info("InboundQueue: empty  - waiting");
-					} else {
-						logger
-								.info("InboundQueue: no available receiver sessions - moving message(s) to pending queue");
-						int pc = 0;
-						synchronized (pending_queue) {
-							Object[] active_pdus = queue.toArray();
-							for (int i = 0; i < active_pdus.length; i++) {
-								Pdu mo = (Pdu) active_pdus[i];
-								addPendingQueue(mo);
-								removeMessage(mo);
-								pc++;
-							}
-						}
-						logger.info("Moved " + pc
-								+ " MO messages to the pending queue");
-
-					}
-					queue.wait();
+					wakeup.await();
 				} catch (InterruptedException e) {
 					logger.log(Level.WARNING, "Exception in InboundQueue: "
 							+ e.getMessage(), e);
 				}
 			}
+		} finally {
+			consumerWaiting = false;
+			wakeLock.unlock();
 		}
-		if (smsc.getReceiverBoundCount() != 0) {
-			pdus = getAllMessages();
-			pduCount = pdus.length;
+	}
+
+	private void processQueue(ArrayList<Pdu> batch) {
+		StandardConnectionHandler receiver = null;
+
+		awaitDeliverableMessages();
+
+		// deliver in batches until the queue is empty, flushing the
+		// receivers' output after each batch
+		while (queue.drainTo(batch, DELIVERY_BATCH_SIZE) > 0) {
+			int pduCount = batch.size();
 			logger.finest("Attempting to deliver " + pduCount
 					+ " messages from InboundQueue");
 
 			int i = 0;
 			boolean continuing = true;
 			while (i < pduCount && continuing) {
-				if (pdus[i] instanceof DeliverSM) {
-					continuing = processDeliverSM((DeliverSM) pdus[i], receiver);
+				Pdu pdu = batch.get(i);
+				if (pdu instanceof DeliverSM) {
+					continuing = processDeliverSM((DeliverSM) pdu, receiver);
 				} else {
-					continuing = processDataSM((DataSM) pdus[i], receiver);
+					continuing = processDataSM((DataSM) pdu, receiver);
 				}
 				i++;
 			}
+			// the last receiver went away part way through the batch
+			for (; i < pduCount; i++)
+				addPendingQueue(batch.get(i));
+			batch.clear();
+			smsc.flushOutboundWrites();
+			if (!continuing)
+				break;
 		}
 	}
 
@@ -265,15 +278,12 @@ public class InboundQueue implements Runnable {
 
 		try {
 			message = pdu.marshall();
-			LoggingUtilities.hexDump(pduName, message, message.length);
-			if (Smsc.isDecodePdus())
-				LoggingUtilities.logDecodedPdu(pdu);
-			logger.info(" ");
 			receiver = smsc.selectReceiver(pdu.getDestination_addr());
 			if (receiver == null) {
+				LoggingUtilities.setTraceSession(null);
+				LoggingUtilities.hexDump(pduName, message, message.length);
 				logger
 						.warning("InboundQueue: no active receiver object to deliver message. Application must issue BIND_RECEIVER with approriate address_range. Message has been moved to the pending queue");
-				removeMessage(pdu, queue);
 				addPendingQueue(pdu);
 				if (smsc.getReceiverBoundCount() == 0) {
 					logger
@@ -281,28 +291,38 @@ public class InboundQueue implements Runnable {
 					return false;
 				}
 			} else {
+				/**
+				 * Should only forget the message if we didn't get a response
+				 * of ESME_RMSGQFUL Right now we don't know what the response
+				 * was in this code... so that is triggered asynchronously by
+				 * receipt of a DELIVER_SM_RESP in the protocol handler
+				 * 
+				 * Sequence number matching required of course. The message is
+				 * registered, and counted as outstanding, before it is written
+				 * so that a fast response cannot overtake it.
+				 * 
+				 */
+				LoggingUtilities.setTraceSession(receiver.getSystemId());
+				LoggingUtilities.hexDump(pduName, message, message.length);
+				if (Smsc.isDecodePdus())
+					LoggingUtilities.logDecodedPdu(pdu);
+				logger.info(" ");
+				Integer seqno = Integer.valueOf(pdu.getSeq_no());
+				response_queue.put(seqno, pdu);
+				logger.finest("Added message " + pdu.getSeq_no()
+						+ " to response queue");
+				receiver.deliverSmSent();
 				try {
-					smsc.writeDecodedSmppsim(pdu.toString());
+					smsc.writeDecodedSmppsim(receiver.getSessionId(), pdu);
 					receiver.writeResponse(message);
-					/**
-					 * Should only remove from the queue if we didn't get a
-					 * response of ESME_RMSGQFUL Right now we don't know what
-					 * the response was in this code... so removal needs to be
-					 * triggered asynchronously by receipt of a DELIVER_SM_RESP
-					 * in the protocol handler
-					 * 
-					 * Sequence number matching required of course.
-					 * 
-					 */
-					synchronized (response_queue) {
-						response_queue.add(pdu);
-						logger.finest("Added message " + pdu.getSeq_no()
-								+ " to response queue");
-					}
-					removeMessage(pdu, queue);
 				} catch (Exception e) {
 					logger.log(Level.WARNING, "Exception in InboundQueue: "
-							+ e.getMessage(), e);
+							+ e.getMessage()
+							+ ". Message has been moved to the pending queue",
+							e);
+					response_queue.remove(seqno);
+					receiver.deliverSmResponded();
+					addPendingQueue(pdu);
 				}
 			}
 		} catch (Exception ex) {
@@ -322,25 +342,26 @@ public class InboundQueue implements Runnable {
 
 		try {
 			message = pdu.marshall();
-			LoggingUtilities.hexDump("DATA_SM:", message, message.length);
-			if (Smsc.isDecodePdus())
-				LoggingUtilities.logDecodedPdu(pdu);
-			logger.info(" ");
 			receiver = smsc.selectReceiver(pdu.getDestination_addr());
 			if (receiver == null) {
+				LoggingUtilities.setTraceSession(null);
+				LoggingUtilities.hexDump("DATA_SM:", message, message.length);
 				logger
 						.warning("InboundQueue: no active receiver object to deliver message. Application must issue BIND_RECEIVER with approriate address_range. Message deleted from the inbound queue.");
-				removeMessage(pdu);
 				if (smsc.getReceiverBoundCount() == 0) {
 					logger
 							.info("No receiver sessions bound - suspending InboundQueue processing");
 					return false;
 				}
 			} else {
+				LoggingUtilities.setTraceSession(receiver.getSystemId());
+				LoggingUtilities.hexDump("DATA_SM:", message, message.length);
+				if (Smsc.isDecodePdus())
+					LoggingUtilities.logDecodedPdu(pdu);
+				logger.info(" ");
 				try {
-					smsc.writeDecodedSmppsim(pdu.toString());
+					smsc.writeDecodedSmppsim(receiver.getSessionId(), pdu);
 					receiver.writeResponse(message);
-					removeMessage(pdu);
 					smsc.incDataSmOK();
 				} catch (Exception e) {
 					logger.log(Level.WARNING, "Exception in InboundQueue: "
@@ -364,23 +385,27 @@ public class InboundQueue implements Runnable {
 	 * any MO messages for which a session was not available originally and
 	 * which were set to one side in the pending queue, being delivered if the
 	 * new session is suitable.
-	 * 
+	 * <p>
+	 * The messages are handed back to the InboundQueue service for delivery.
+	 * Any that do not fit in the InboundQueue stay in the pending queue until
+	 * the next bind.
 	 */
 	public void deliverPendingMoMessages() {
-		Object[] messages = null;
+		int moved = 0;
 		synchronized (pending_queue) {
-			messages = pending_queue.toArray();
+			int l = pending_queue.size();
+			while (moved < l && queue.offer(pending_queue.get(moved)))
+				moved++;
+			pending_queue.subList(0, moved).clear();
 		}
-		int l = messages.length;
-
-		for (int i = 0; i < l; i++) {
-			boolean ok = processDeliverSM((DeliverSM) messages[i], null);
-			if (!ok)
-				break;
+		if (moved > 0) {
+			logger.info("Moved " + moved
+					+ " MO messages from the pending queue to the InboundQueue");
+			wakeConsumer();
 		}
 
 		// reset the outbind flag ready for the next time
 		smsc.setOutbind_sent(false);
 
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+/****************************************************************************
+ * LeastOutstandingReceiverSelector.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+/**
+ * Delivers to the receiver with the fewest DELIVER_SMs still awaiting a
+ * DELIVER_SM_RESP, so a receiver that is slow to respond is given less
+ * traffic.
+ */
+public class LeastOutstandingReceiverSelector extends ReceiverSelector {
+
+	public StandardConnectionHandler select(
+			StandardConnectionHandler[] eligible) {
+		int start = nextStart();
+		StandardConnectionHandler best = null;
+		int fewest = Integer.MAX_VALUE;
+		for (int i = 0; i < eligible.length; i++) {
+			StandardConnectionHandler receiver = eligible[(start + i)
+					% eligible.length];
+			if (!isUsable(receiver))
+				continue;
+			int outstanding = receiver.getOutstandingDeliverSms();
+			if (outstanding < fewest) {
+				best = receiver;
+				fewest = outstanding;
+				if (outstanding == 0)
+					break;
+			}
+		}
+		return best;
+	}
+}
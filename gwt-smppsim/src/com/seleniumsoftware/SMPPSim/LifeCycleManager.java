@@ -31,6 +31,7 @@ import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.pdu.PduConstants;
 import com.seleniumsoftware.SMPPSim.pdu.SubmitSM;
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
 
 public class LifeCycleManager {
 
@@ -45,8 +46,6 @@ public class LifeCycleManager {
 	private double enrouteThreshold;
 	private int maxTimeEnroute;
 	private int discardThreshold;
-	private double transition;
-	private double stateChoice;
 
 	public LifeCycleManager() {
 		double a = (double) SMPPSim.getPercentageThatTransition() + 1.0;
@@ -80,11 +79,13 @@ public class LifeCycleManager {
 		if (isTerminalState(m.getState()))
 			return m;
 		byte currentState = m.getState();
-		transition = Math.random();
+		// setState may be called by several lifecycle worker threads at once
+		// so the random draws must be local
+		double transition = random();
 		if ((transition < transitionThreshold)
 				|| ((System.currentTimeMillis() - m.getSubmit_time()) > maxTimeEnroute)) {
 			// so which transition should it be?
-			stateChoice = Math.random();
+			double stateChoice = random();
 			if (stateChoice < deliveredThreshold) {
 				m.setState(PduConstants.DELIVERED);
 				logger.finest("State set to DELIVERED");
@@ -115,6 +116,17 @@ public class LifeCycleManager {
 		return m;
 	}
 
+	/**
+	 * Random number used to decide whether and how a message changes state.
+	 * Drawn from the calling thread's own generator, seeded from RANDOM_SEED
+	 * when that is set.
+	 * 
+	 * @return a value between 0.0 (inclusive) and 1.0 (exclusive)
+	 */
+	protected double random() {
+		return SimRandom.nextDouble();
+	}
+
 	public boolean isTerminalState(byte state) {
 		if ((state == PduConstants.DELIVERED)
 				|| (state == PduConstants.EXPIRED)
@@ -127,6 +139,23 @@ public class LifeCycleManager {
 			return false;
 	}
 
+	/**
+	 * Tells the Lifecycle Service when it next needs to look at a message,
+	 * having just called setState() on it. Messages which are still in a
+	 * non-final state are looked at again after MESSAGE_STATE_CHECK_FREQUENCY
+	 * so that they may transition; those in a final state are left alone
+	 * until they become due for discard. Subclasses which change the
+	 * transition or discard rules should override this to match.
+	 * 
+	 * @return time in milliseconds at which the message should next be passed
+	 *         to messageShouldBeDiscarded() and setState()
+	 */
+	public long nextCheckTime(MessageState m, long now) {
+		if (isTerminalState(m.getState()))
+			return m.getSubmit_time() + discardThreshold + 1;
+		return now + SMPPSim.getMessageStateCheckFrequency();
+	}
+
 	public boolean messageShouldBeDiscarded(MessageState m) {
 		long now = System.currentTimeMillis();
 		long age = now - m.getSubmit_time();
@@ -85,22 +85,14 @@ public class MessageState {
 			else {
 				logger
 						.info("Validity period is not set: defaulting to 5 minutes from now");
-				long now = System.currentTimeMillis() + 300000;
-				String st = SmppTime.dateToSMPPString(new Date(now));
-				validity_period = new SmppTime(st);
-				logger.info("Generated default validity period=" + st);
+				validity_period = new SmppTime(submit_time + 300000);
+				logger.info("Generated default validity period="
+						+ validity_period);
 			}
 		} catch (ParseException e) {
 			logger
 					.warning("Could not parse validity period : using default of 5 minutes");
-			long vtime = System.currentTimeMillis() + 300000;
-			Date vdate = new Date(vtime);
-			try {
-				validity_period = new SmppTime(SmppTime.dateToSMPPString(vdate));
-			} catch (ParseException e2) {
-				logger
-						.severe("Internal error: could not set default validity period due to parse error");
-			}
+			validity_period = new SmppTime(submit_time + 300000);
 		}
 	}
 
@@ -120,16 +112,13 @@ public class MessageState {
 	}
 
 	public int hashCode() {
-		// An int derived from message_id plus the last 3 digits of source_addr
-		// should surely always be unique. Shouldn't it?
-		int sal = source_addr.length();
-		String key = message_id + source_addr.substring(sal - 3, sal);
-		byte[] bytearray = key.getBytes();
-		int l = bytearray.length;
-		int h = 0;
-		for (int i = 0; i < l; i++) {
-			h = h + bytearray[i] * 31 ^ (l - (i + 1));
-		}
+		// Combines every field that equals() compares, so that equal keys
+		// always hash alike whatever the length of source_addr
+		int h = 17;
+		h = 31 * h + (message_id == null ? 0 : message_id.hashCode());
+		h = 31 * h + source_addr_ton;
+		h = 31 * h + source_addr_npi;
+		h = 31 * h + (source_addr == null ? 0 : source_addr.hashCode());
 		return h;
 	}
 
@@ -276,13 +265,7 @@ public class MessageState {
 	 */
 	public void setFinal_time(long l) {
 		final_time = l;
-		String stime = SmppTime.dateToSMPPString(new Date(l));
-		try {
-			finalDate = new SmppTime(stime);
-		} catch (ParseException e) {
-			logger.warning("ParseException - this should be impossible");
-			finalDate = null;
-		}
+		finalDate = new SmppTime(l);
 	}
 
 	/**
@@ -29,131 +29,188 @@ package com.seleniumsoftware.SMPPSim;
 
 import com.seleniumsoftware.SMPPSim.exceptions.InvalidHexStringlException;
 import com.seleniumsoftware.SMPPSim.pdu.*;
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
 import com.seleniumsoftware.SMPPSim.util.Utilities;
 
 import java.util.*;
 import java.util.logging.*;
 import java.io.*;
-
-public class MoMessagePool {
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The messages the MO service chooses from, one per line of the delivery
+ * messages file in the form source_addr,destination_addr,short_message.
+ * <p>
+ * The file is memory mapped rather than read onto the heap. Loading it only
+ * notes where each valid record starts; a record is turned into a DeliverSM
+ * each time it is chosen. A file of millions of records therefore costs eight
+ * bytes of heap per record and is ready as soon as it has been scanned once.
+ */
+public class MoMessagePool implements MoMessageSource {
 
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
 
-	private Vector<DeliverSM> messages;
-
-	private BufferedReader messagesReader;
+	// A MappedByteBuffer is limited to 2GB, so larger files are mapped in
+	// segments, each ending at a line break
+	private static final int SEGMENT_SIZE = 1 << 30;
 
-	private String source_addr;
+	private static final int OFFSET_BITS = 31;
 
-	private String destination_addr;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
 
-	private byte[] short_message;
+	private MappedByteBuffer[] segments;
 
-	private int data_coding = 0;
+	// segment number << OFFSET_BITS | offset within the segment, for each
+	// valid record. Read only once loaded, so shared by the generator threads
+	// without locking.
+	private long[] index = new long[1024];
 
 	private int recno = 0;
 
-	public MoMessagePool() {
-	}
+	private int lineno = 0;
 
-	public MoMessagePool(String filename) {
-		String record = null;
-		DeliverSM msg;
-		messages = new Vector<DeliverSM>();
+	public MoMessagePool(String filename) throws IOException {
+		ArrayList<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+		RandomAccessFile file;
 		try {
-			messagesReader = new BufferedReader(new FileReader(filename));
+			file = new RandomAccessFile(filename, "r");
 		} catch (FileNotFoundException fnfe) {
 			logger.warning("MoMessagePool: file not found: " + filename);
-			fnfe.printStackTrace();
+			throw fnfe;
 		}
-
-		do {
-			try {
-				record = messagesReader.readLine();
-				String therecord;
-				if (record == null)
-					therecord = "null";
-				else
-					therecord = record;
-				logger.finest("Read from file:<" + therecord + ">");
-				if (record != null) {
-					msg = new DeliverSM();
-					try {
-						getMessageAttributes(record);
-					} catch (Exception e) {
-						logger
-								.warning("Error processing delivery_messages file, record number"
-										+ (recno + 1));
-						logger.warning(e.getMessage());
-						e.printStackTrace();
-						continue;
-					}
-					msg.setSource_addr(source_addr);
-					msg.setDestination_addr(destination_addr);
-					msg.setShort_message(short_message);
-					msg.setData_coding(data_coding);
-					messages.add(msg);
-					recno++;
-					logger.finest("Added delivery_message: " + source_addr
-							+ "," + destination_addr + "," + short_message);
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			long start = 0;
+			while (start < size) {
+				long length = Math.min(SEGMENT_SIZE, size - start);
+				MappedByteBuffer segment = channel.map(
+						FileChannel.MapMode.READ_ONLY, start, length);
+				int end = (int) length;
+				if (start + length < size) {
+					while (end > 0 && segment.get(end - 1) != '\n')
+						end--;
+					if (end == 0)
+						throw new IOException("Record longer than "
+								+ SEGMENT_SIZE + " bytes in " + filename);
 				}
-			} catch (Exception e) {
-				logger.warning("Error processing delivery_messages file");
-				logger.info(e.getMessage());
-				e.printStackTrace();
+				segment.limit(end);
+				indexSegment(segment, mapped.size());
+				mapped.add(segment);
+				start = start + end;
 			}
-		} while (record != null);
+		} finally {
+			// the mappings remain valid once the file is closed
+			file.close();
+		}
+		segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
 		logger.finest("loaded " + recno + " delivery messages");
 	}
 
-	private void getMessageAttributes(String rec) throws Exception {
-		int commaIX1;
-		int commaIX2;
-		String msg = "";
-		commaIX1 = rec.indexOf(",");
-		if (commaIX1 != -1) {
-			source_addr = rec.substring(0, commaIX1);
-			commaIX2 = rec.indexOf(",", commaIX1 + 1);
-			if (commaIX2 != -1) {
-				destination_addr = rec.substring(commaIX1 + 1, commaIX2);
-				msg = rec.substring(commaIX2 + 1, rec.length());
-				data_coding = 0;
-				if (!msg.startsWith("0x"))
-					short_message = msg.getBytes();
-				else {
-					try {
-						short_message = Utilities.makeBinaryMessage(msg
-								.substring(2));
-						data_coding = 4; // binary
-					} catch (InvalidHexStringlException e) {
-						logger
-								.warning("Invalid hex string in MO service input file: <"
-										+ msg
-										+ ">. Used as plain text instead.");
-						short_message = msg.getBytes();
-					}
-				}
-			} else {
-				throw new Exception(
-						"Invalid delivery message file format: record "
-								+ (recno + 1));
+	private void indexSegment(MappedByteBuffer segment, int segmentNo) {
+		int end = segment.limit();
+		int lineStart = 0;
+		for (int i = 0; i < end; i++) {
+			if (segment.get(i) == '\n') {
+				indexRecord(segment, segmentNo, lineStart, i);
+				lineStart = i + 1;
 			}
-		} else {
-			throw new Exception("Invalid delivery message file format: record "
-					+ recno);
 		}
+		if (lineStart < end)
+			indexRecord(segment, segmentNo, lineStart, end);
+	}
 
+	private void indexRecord(MappedByteBuffer segment, int segmentNo,
+			int start, int end) {
+		lineno++;
+		int comma1 = indexOf(segment, ',', start, end);
+		int comma2 = comma1 == -1 ? -1 : indexOf(segment, ',', comma1 + 1,
+				end);
+		if (comma2 == -1) {
+			logger
+					.warning("Error processing delivery_messages file, record number "
+							+ lineno);
+			logger.warning("Invalid delivery message file format: record "
+					+ lineno);
+			return;
+		}
+		if (end - comma2 > 2 && segment.get(comma2 + 1) == '0'
+				&& segment.get(comma2 + 2) == 'x') {
+			String msg = readString(segment, comma2 + 1, end);
+			try {
+				Utilities.makeBinaryMessage(msg.substring(2));
+			} catch (InvalidHexStringlException e) {
+				logger.warning("Invalid hex string in MO service input file: <"
+						+ msg + ">. Used as plain text instead.");
+			}
+		}
+		if (recno == index.length) {
+			long[] grown = new long[recno * 2];
+			System.arraycopy(index, 0, grown, 0, recno);
+			index = grown;
+		}
+		index[recno++] = ((long) segmentNo << OFFSET_BITS) | start;
+		logger.finest("Indexed delivery_message at line " + lineno);
+	}
+
+	private static int indexOf(MappedByteBuffer segment, char c, int start,
+			int end) {
+		for (int i = start; i < end; i++)
+			if (segment.get(i) == c)
+				return i;
+		return -1;
+	}
+
+	// decoded as FileReader would have, with any trailing carriage return
+	// removed as BufferedReader.readLine would have
+	private static String readString(MappedByteBuffer segment, int start,
+			int end) {
+		if (end > start && segment.get(end - 1) == '\r')
+			end--;
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = segment.get(start + i);
+		return new String(bytes);
 	}
 
-	protected DeliverSM getMessage() {
-		int messageIX = (int) (Math.random() * recno);
+	public DeliverSM getMessage() {
+		int messageIX = SimRandom.nextInt(recno);
 		logger.finest("Selected delivery_message #" + messageIX);
+		long entry = index[messageIX];
+		MappedByteBuffer segment = segments[(int) (entry >>> OFFSET_BITS)];
+		int start = (int) (entry & OFFSET_MASK);
+		int end = indexOf(segment, '\n', start, segment.limit());
+		if (end == -1)
+			end = segment.limit();
+		String rec = readString(segment, start, end);
+
+		int commaIX1 = rec.indexOf(",");
+		int commaIX2 = rec.indexOf(",", commaIX1 + 1);
+		String msg = rec.substring(commaIX2 + 1, rec.length());
 		DeliverSM dsm = new DeliverSM();
-		DeliverSM selected = messages.elementAt(messageIX);
-		;
-		dsm = (DeliverSM) selected.clone();
+		dsm.setSource_addr(rec.substring(0, commaIX1));
+		dsm.setDestination_addr(rec.substring(commaIX1 + 1, commaIX2));
+		dsm.setData_coding(0);
+		if (!msg.startsWith("0x"))
+			dsm.setShort_message(msg.getBytes());
+		else {
+			try {
+				dsm.setShort_message(Utilities.makeBinaryMessage(msg
+						.substring(2)));
+				dsm.setData_coding(4); // binary
+			} catch (InvalidHexStringlException e) {
+				// already reported when the file was loaded
+				dsm.setShort_message(msg.getBytes());
+			}
+		}
+		dsm.setSm_length(dsm.getShort_message().length);
 		return dsm;
 	}
 
-}
\ No newline at end of file
+	public int size() {
+		return recno;
+	}
+
+}
@@ -0,0 +1,109 @@
+/****************************************************************************
+ * MoRateProfile.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
+
+/**
+ * The rate at which the MO service generates messages, as it changes over
+ * time since the service started.
+ */
+public class MoRateProfile {
+
+	/** The target rate throughout */
+	public static final String CONSTANT = "CONSTANT";
+
+	/** Rises linearly to the target over the ramp period */
+	public static final String RAMP = "RAMP";
+
+	/** Rises to the target in equal steps */
+	public static final String STEP = "STEP";
+
+	/** The target rate on average, with exponentially distributed gaps */
+	public static final String POISSON = "POISSON";
+
+	// messages per second, so that a ramp or step always makes progress
+	private static final double MIN_RATE = 1.0;
+
+	private static final double NANOS_PER_SECOND = 1000000000.0;
+
+	private final String kind;
+
+	// target, in messages per second
+	private final double rate;
+
+	private final long rampNanos;
+
+	private final long stepNanos;
+
+	private final int steps;
+
+	public MoRateProfile(String kind, int messagesPerMin, int rampSeconds,
+			int stepSeconds, int steps) {
+		this.kind = kind.toUpperCase();
+		this.rate = messagesPerMin / 60.0;
+		this.rampNanos = Math.max(1, rampSeconds) * 1000000000L;
+		this.stepNanos = Math.max(1, stepSeconds) * 1000000000L;
+		this.steps = Math.max(1, steps);
+	}
+
+	public static boolean isValid(String kind) {
+		return kind.equalsIgnoreCase(CONSTANT) || kind.equalsIgnoreCase(RAMP)
+				|| kind.equalsIgnoreCase(STEP) || kind.equalsIgnoreCase(POISSON);
+	}
+
+	/**
+	 * @return the rate, in messages per second, elapsedNanos after the
+	 *         service started
+	 */
+	public double getRate(long elapsedNanos) {
+		double r = rate;
+		if (kind.equals(RAMP)) {
+			if (elapsedNanos < rampNanos)
+				r = rate * elapsedNanos / rampNanos;
+		} else if (kind.equals(STEP)) {
+			long step = Math.min(steps, elapsedNanos / stepNanos + 1);
+			r = rate * step / steps;
+		}
+		return Math.max(Math.min(rate, MIN_RATE), r);
+	}
+
+	/**
+	 * @return the time, in nanoseconds, from the message about to be sent to
+	 *         the next one
+	 */
+	public long nextInterval(long elapsedNanos) {
+		double seconds = 1.0 / getRate(elapsedNanos);
+		if (kind.equals(POISSON))
+			seconds = seconds * -Math.log(1.0 - SimRandom.nextDouble());
+		return (long) (seconds * NANOS_PER_SECOND);
+	}
+
+	public String toString() {
+		return kind;
+	}
+}
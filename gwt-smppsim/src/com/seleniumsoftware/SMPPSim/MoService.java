@@ -26,26 +26,71 @@
  ****************************************************************************
  */
 
+
 package com.seleniumsoftware.SMPPSim;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import com.seleniumsoftware.SMPPSim.exceptions.InboundQueueFullException;
 import com.seleniumsoftware.SMPPSim.pdu.DeliverSM;
-
+import com.seleniumsoftware.SMPPSim.util.TokenBucket;
+
+/**
+ * Generates MO messages from the delivery messages file and places them in
+ * the inbound queue.
+ * <p>
+ * Messages are paced by a token bucket on the nanosecond clock rather than by
+ * sleeping between messages, so that the rate holds up at thousands of
+ * messages a second. The rate follows the configured MoRateProfile and the
+ * work may be shared by several generator threads.
+ */
 public class MoService implements Runnable {
 
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
 
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private static final long NANOS_PER_MINUTE = 60 * NANOS_PER_SECOND;
+
+	// Metrics
+
+	private static final AtomicLong generated = new AtomicLong();
+
+	private static final AtomicLong rejected = new AtomicLong();
+
+	private static final AtomicLong sampledAt = new AtomicLong();
+
+	private static volatile long sampledCount;
+
+	private static volatile long loggedAt;
+
+	private static volatile long loggedCount;
+
+	private static volatile double achievedRate;
+
+	private static volatile double targetRate;
+
 	private Smsc smsc = Smsc.getInstance();
 
 	private int messagesPerMin;
 
-	boolean moServiceRunning = false;
+	volatile boolean moServiceRunning = false;
+
+	// bumped each time the service starts so that generators left over from
+	// an earlier run stop even if the service is restarted straight away
+	private volatile int generation;
 
 	String deliveryFile;
 
-	MoMessagePool messages;
+	MoMessageSource messages;
+
+	private MoRateProfile profile;
+
+	private TokenBucket bucket;
+
+	private long startedAt;
 
 	public MoService(String filename, int deliverMessagesPerMin) {
 		deliveryFile = filename;
@@ -54,60 +99,140 @@ public class MoService implements Runnable {
 
 	public void run() {
 		logger.info("Starting MO Service....");
+		int gen = ++generation;
+		// loaded afresh each time the service starts, so that changes to the
+		// file take effect when a receiver next binds
+		String templatesFile = SMPPSim.getMoTemplatesFile();
+		String source = (templatesFile != null) ? templatesFile : deliveryFile;
+		MoMessageSource loaded = null;
 		try {
-			messages = new MoMessagePool(deliveryFile);
+			if (templatesFile != null)
+				loaded = new MoTemplateSource(templatesFile);
+			else
+				loaded = new MoMessagePool(deliveryFile);
 		} catch (Exception e) {
-			logger.warning("Exception creating MoMessagePool. "
-					+ e.getMessage());
+			logger.warning("Exception loading MO messages from " + source
+					+ ". " + e.getMessage());
 			e.printStackTrace();
 		}
+		if (loaded == null || loaded.size() == 0) {
+			logger.warning("No MO messages loaded from " + source
+					+ ". MO Service not started");
+			return;
+		}
+		messages = loaded;
+
+		profile = new MoRateProfile(SMPPSim.getMoRateProfile(),
+				messagesPerMin, SMPPSim.getMoRampSeconds(), SMPPSim
+						.getMoStepSeconds(), SMPPSim.getMoStepCount());
+		bucket = new TokenBucket(SMPPSim.getMoBurstSize());
+		startedAt = System.nanoTime();
+		sampledAt.set(startedAt);
+		sampledCount = generated.get();
+		loggedAt = startedAt;
+		loggedCount = sampledCount;
+
+		int threads = SMPPSim.getMoGeneratorThreads();
+		for (int i = 1; i < threads; i++) {
+			Thread t = new Thread(new Generator(gen), "MO-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		new Generator(gen).run();
+	}
 
-		try {
-			runMoService();
-		} catch (Exception e) {
-			logger.warning("MO Service threw an Exception:" + e.getMessage()
-					+ ". It's game over");
+	private class Generator implements Runnable {
+
+		private final int gen;
+
+		Generator(int gen) {
+			this.gen = gen;
+		}
+
+		public void run() {
+			try {
+				runMoService(gen);
+			} catch (Exception e) {
+				logger.warning("MO Service threw an Exception:"
+						+ e.getMessage() + ". It's game over");
+			}
 		}
 	}
 
-	private void runMoService() throws Exception {
-		long timer = 0;
-		long actualTime = 0;
-		int sleepMS;
-		sleepMS = (int) (60000 / messagesPerMin);
-		int count = 0;
-		int minCount = 0;
+	private void runMoService(int gen) throws Exception {
 		DeliverSM newMessage;
 
-		timer = System.currentTimeMillis();
-
-		while (moServiceRunning) {
+		while (moServiceRunning && gen == generation) {
+			long elapsed = System.nanoTime() - startedAt;
+			targetRate = profile.getRate(elapsed);
+			bucket.acquire(profile.nextInterval(elapsed));
+			if (!moServiceRunning || gen != generation)
+				break;
 			newMessage = messages.getMessage();
-			newMessage.setSm_length(newMessage.getShort_message().length);
 			newMessage.setSeq_no(Smsc.getNextSequence_No());
 			logger.finest("MoService: DeliverSM object:"
 					+ newMessage.toString());
-			smsc.getIq().addMessage(newMessage);
-			count++;
-			minCount++;
-			if (minCount == messagesPerMin) {
-				actualTime = System.currentTimeMillis() - timer;
-				logger.info(count + " MO messages inserted in InboundQueue. "
-						+ minCount + " per minute target, actual time "
-						+ actualTime + " ms");
-				logger.info("drift = " + (actualTime - 60000));
-				timer = System.currentTimeMillis();
-				minCount = 0;
-			}
 			try {
-				logger.finest("MO Service is sleeping for " + sleepMS
-						+ " milliseconds");
-				Thread.sleep(sleepMS);
-			} catch (Exception e) {
-				e.printStackTrace();
+				smsc.getIq().addMessage(newMessage);
+				generated.incrementAndGet();
+			} catch (InboundQueueFullException e) {
+				rejected.incrementAndGet();
 			}
-
+			sample();
 		} // while loop
 	}
 
+	// Once a second, one of the generators works out the rate achieved since
+	// the last sample. Once a minute it also logs it against the target.
+	private void sample() {
+		long now = System.nanoTime();
+		long last = sampledAt.get();
+		if (now - last < NANOS_PER_SECOND || !sampledAt.compareAndSet(last, now))
+			return;
+		long count = generated.get();
+		achievedRate = (double) (count - sampledCount) * NANOS_PER_SECOND
+				/ (now - last);
+		sampledCount = count;
+		if (now - loggedAt >= NANOS_PER_MINUTE) {
+			logger.info((count - loggedCount)
+					+ " MO messages inserted in InboundQueue in "
+					+ ((now - loggedAt) / 1000000) + " ms. Target rate "
+					+ Math.round(targetRate * 60) + " per minute, "
+					+ rejected.get() + " rejected in total");
+			loggedAt = now;
+			loggedCount = count;
+		}
+	}
+
+	/**
+	 * @return the number of MO messages placed in the inbound queue
+	 */
+	public static long getGenerated() {
+		return generated.get();
+	}
+
+	/**
+	 * @return the number of MO messages refused because the inbound queue was
+	 *         full
+	 */
+	public static long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the MO messages per second placed in the inbound queue over the
+	 *         last second or so, or 0 if none have been lately
+	 */
+	public static double getAchievedRate() {
+		if (System.nanoTime() - sampledAt.get() > 2 * NANOS_PER_SECOND)
+			return 0;
+		return achievedRate;
+	}
+
+	/**
+	 * @return the MO messages per second the service is currently aiming for
+	 */
+	public static double getTargetRate() {
+		return targetRate;
+	}
 }
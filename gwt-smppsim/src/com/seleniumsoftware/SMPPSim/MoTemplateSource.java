@@ -0,0 +1,441 @@
+/****************************************************************************
+ * MoTemplateSource.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.seleniumsoftware.SMPPSim.exceptions.InvalidHexStringlException;
+import com.seleniumsoftware.SMPPSim.pdu.DeliverSM;
+import com.seleniumsoftware.SMPPSim.pdu.PreparedDeliverSM;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
+import com.seleniumsoftware.SMPPSim.util.Utilities;
+
+/**
+ * Generates MO messages from templates, so that large numbers of distinct
+ * addresses and messages can be produced from a short file.
+ * <p>
+ * Each line of the templates file is source_addr,destination_addr,short_message
+ * as in the delivery messages file, except that any of the three may contain
+ * placeholders:
+ * <ul>
+ * <li>{seq:FROM-TO} counts from FROM to TO and then starts again</li>
+ * <li>{rand:FROM-TO} is a random number from FROM to TO</li>
+ * <li>{pick:A|B|C} is one of the alternatives, chosen at random</li>
+ * </ul>
+ * Numbers are zero padded to the number of digits in TO, so 447700000000-447700999999
+ * gives a block of a million twelve digit MSISDNs. A short_message starting
+ * with 0x is binary as before and may not contain placeholders; one starting
+ * with ucs2: is sent as UCS2 with data_coding 8. Blank lines and lines
+ * starting with # are ignored. Addresses must be ASCII and no longer than 20
+ * characters once expanded; templates that break these rules are reported
+ * and skipped when the file is loaded.
+ * <p>
+ * Each template is marshalled once for every combination of its pick
+ * alternatives when the file is loaded. Generating a message then copies one
+ * of those frames and writes the digits of each number into it.
+ */
+public class MoTemplateSource implements MoMessageSource {
+
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	private static final String SEQ = "{seq:";
+
+	private static final String RAND = "{rand:";
+
+	private static final String PICK = "{pick:";
+
+	private static final String UCS2 = "ucs2:";
+
+	private static final int DC_DEFAULT = 0;
+
+	private static final int DC_BINARY = 4;
+
+	private static final int DC_UCS2 = 8;
+
+	// frames compiled for any one template
+	private static final int MAX_VARIANTS = 4096;
+
+	private static final int MAX_SM_LENGTH = 254;
+
+	// source_addr and destination_addr are C-Octet Strings of at most 21
+	// octets including the terminator
+	private static final int MAX_ADDR_LENGTH = 20;
+
+	// random numbers are drawn as two 30 bit halves, enough for 18 digits
+	private static final int HALF_BITS = 30;
+
+	private Template[] templates;
+
+	public MoTemplateSource(String filename) throws IOException {
+		ArrayList<Template> loaded = new ArrayList<Template>();
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String record;
+			int lineno = 0;
+			while ((record = reader.readLine()) != null) {
+				lineno++;
+				if (record.trim().length() == 0 || record.startsWith("#"))
+					continue;
+				try {
+					loaded.add(new Template(record));
+				} catch (Exception e) {
+					logger.warning("Error processing MO templates file, line "
+							+ lineno + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		templates = loaded.toArray(new Template[loaded.size()]);
+		logger.info("Loaded " + templates.length + " MO templates from "
+				+ filename);
+	}
+
+	public DeliverSM getMessage() {
+		return templates[SimRandom.nextInt(templates.length)].generate();
+	}
+
+	public int size() {
+		return templates.length;
+	}
+
+	/*
+	 * A number placeholder, with its own position in the sequence.
+	 */
+	private static class Number {
+
+		private final boolean sequential;
+
+		private final long from;
+
+		private final long span;
+
+		private final int width;
+
+		private final AtomicLong next = new AtomicLong();
+
+		Number(boolean sequential, String range) throws Exception {
+			int dash = range.indexOf('-');
+			if (dash < 1)
+				throw new Exception("Invalid number range <" + range + ">");
+			String to = range.substring(dash + 1);
+			from = Long.parseLong(range.substring(0, dash));
+			long last = Long.parseLong(to);
+			if (from < 0 || last < from || to.length() > 18)
+				throw new Exception("Invalid number range <" + range + ">");
+			this.sequential = sequential;
+			span = last - from + 1;
+			width = to.length();
+		}
+
+		long next() {
+			if (sequential)
+				return from + next.getAndIncrement() % span;
+			if (span <= Integer.MAX_VALUE)
+				return from + SimRandom.nextInt((int) span);
+			// a double has too few bits for the low digits of a long span,
+			// so use 60 random bits, rejecting the uneven tail
+			long limit = ((1L << (2 * HALF_BITS)) / span) * span;
+			long r;
+			do {
+				r = ((long) SimRandom.nextInt(1 << HALF_BITS) << HALF_BITS)
+						| SimRandom.nextInt(1 << HALF_BITS);
+			} while (r >= limit);
+			return from + r % span;
+		}
+	}
+
+	/*
+	 * One line of the templates file. Each field is a list of parts: literal
+	 * Strings, Numbers and String[] pick alternatives.
+	 */
+	private static class Template {
+
+		private final ArrayList<Number> numbers = new ArrayList<Number>();
+
+		private final ArrayList<String[]> picks = new ArrayList<String[]>();
+
+		private final Object[][] fields = new Object[3][];
+
+		private byte[] binary;
+
+		private int data_coding = DC_DEFAULT;
+
+		// one per combination of pick alternatives, numbered in mixed radix
+		private final Frame[] frames;
+
+		Template(String record) throws Exception {
+			int comma1 = record.indexOf(',');
+			int comma2 = comma1 == -1 ? -1 : record.indexOf(',', comma1 + 1);
+			if (comma2 == -1)
+				throw new Exception("Invalid MO template format");
+			fields[0] = parse(record.substring(0, comma1));
+			fields[1] = parse(record.substring(comma1 + 1, comma2));
+			String msg = record.substring(comma2 + 1);
+			if (msg.startsWith("0x")) {
+				try {
+					binary = Utilities.makeBinaryMessage(msg.substring(2));
+				} catch (InvalidHexStringlException e) {
+					throw new Exception("Invalid hex string <" + msg + ">");
+				}
+				data_coding = DC_BINARY;
+				fields[2] = new Object[0];
+			} else {
+				if (msg.startsWith(UCS2)) {
+					msg = msg.substring(UCS2.length());
+					data_coding = DC_UCS2;
+				}
+				fields[2] = parse(msg);
+			}
+
+			int variants = 1;
+			for (String[] pick : picks) {
+				variants = variants * pick.length;
+				if (variants > MAX_VARIANTS)
+					throw new Exception("More than " + MAX_VARIANTS
+							+ " combinations of {pick:} alternatives");
+			}
+			frames = new Frame[variants];
+			for (int i = 0; i < variants; i++)
+				frames[i] = new Frame(this, i);
+		}
+
+		private Object[] parse(String field) throws Exception {
+			ArrayList<Object> parts = new ArrayList<Object>();
+			int start = 0;
+			while (start < field.length()) {
+				int open = nextPlaceholder(field, start);
+				if (open == -1) {
+					parts.add(field.substring(start));
+					break;
+				}
+				int close = field.indexOf('}', open);
+				if (close == -1)
+					throw new Exception("Unterminated placeholder in <"
+							+ field + ">");
+				if (open > start)
+					parts.add(field.substring(start, open));
+				if (field.startsWith(PICK, open)) {
+					String[] pick = field.substring(open + PICK.length(),
+							close).split("\\|", -1);
+					picks.add(pick);
+					parts.add(pick);
+				} else {
+					boolean seq = field.startsWith(SEQ, open);
+					Number n = new Number(seq, field.substring(open
+							+ (seq ? SEQ : RAND).length(), close));
+					numbers.add(n);
+					parts.add(n);
+				}
+				start = close + 1;
+			}
+			return parts.toArray();
+		}
+
+		private static int nextPlaceholder(String field, int from) {
+			int open = field.indexOf('{', from);
+			while (open != -1 && !field.startsWith(SEQ, open)
+					&& !field.startsWith(RAND, open)
+					&& !field.startsWith(PICK, open))
+				open = field.indexOf('{', open + 1);
+			return open;
+		}
+
+		DeliverSM generate() {
+			int variant = 0;
+			for (String[] pick : picks)
+				variant = variant * pick.length
+						+ SimRandom.nextInt(pick.length);
+			return frames[variant].generate(this);
+		}
+	}
+
+	/*
+	 * A template marshalled for one combination of pick alternatives, with
+	 * every number written as zeros, and where each number goes.
+	 */
+	private static class Frame {
+
+		private final byte[] pdu;
+
+		// into pdu, for each of the template's numbers
+		private final int[] offsets;
+
+		// 2 for a number in a UCS2 short message, otherwise 1
+		private final int[] steps;
+
+		private final int sourceOffset;
+
+		private final int sourceLength;
+
+		private final int destOffset;
+
+		private final int destLength;
+
+		private final int smOffset;
+
+		private final int smLength;
+
+		Frame(Template t, int variant) throws Exception {
+			// the alternative chosen from each pick, last pick varying fastest
+			int[] chosen = new int[t.picks.size()];
+			for (int i = chosen.length - 1; i >= 0; i--) {
+				int n = t.picks.get(i).length;
+				chosen[i] = variant % n;
+				variant = variant / n;
+			}
+			offsets = new int[t.numbers.size()];
+			steps = new int[offsets.length];
+			int[] at = new int[offsets.length];
+			Arrays.fill(at, -1);
+			String source = render(t, t.fields[0], chosen, at);
+			String dest = render(t, t.fields[1], chosen, at);
+			checkAddress("source_addr", source);
+			checkAddress("destination_addr", dest);
+			int[] smAt = new int[offsets.length];
+			String text = render(t, t.fields[2], chosen, smAt);
+
+			byte[] sm;
+			if (t.binary != null)
+				sm = t.binary;
+			else if (t.data_coding == DC_UCS2)
+				sm = text.getBytes("UTF-16BE");
+			else
+				sm = text.getBytes();
+			if (sm.length > MAX_SM_LENGTH)
+				throw new Exception("short_message longer than "
+						+ MAX_SM_LENGTH + " bytes");
+
+			DeliverSM dsm = new DeliverSM();
+			dsm.setSource_addr(source);
+			dsm.setDestination_addr(dest);
+			dsm.setData_coding(t.data_coding);
+			dsm.setShort_message(sm);
+			dsm.setSm_length(sm.length);
+			pdu = dsm.marshall();
+
+			// as laid out by DeliverSM.marshallBody, with an empty
+			// service_type and ten single byte fields between
+			// destination_addr and short_message
+			sourceOffset = PduWriter.HEADER_LENGTH + PduWriter.sizeOf("") + 2;
+			sourceLength = source.length();
+			destOffset = sourceOffset + PduWriter.sizeOf(source) + 2;
+			destLength = dest.length();
+			smOffset = destOffset + PduWriter.sizeOf(dest) + 10;
+			smLength = sm.length;
+
+			int sourceNumbers = count(t.fields[0]);
+			for (int i = 0; i < offsets.length; i++) {
+				if (at[i] >= 0) {
+					offsets[i] = (i < sourceNumbers ? sourceOffset
+							: destOffset)
+							+ at[i];
+					steps[i] = 1;
+				} else if (t.data_coding == DC_UCS2) {
+					offsets[i] = smOffset + 2 * smAt[i];
+					steps[i] = 2;
+				} else {
+					offsets[i] = smOffset
+							+ text.substring(0, smAt[i]).getBytes().length;
+					steps[i] = 1;
+				}
+			}
+		}
+
+		/*
+		 * Addresses are written a character to a byte, so the offsets of their
+		 * numbers are character indices. That only holds for ASCII.
+		 */
+		private static void checkAddress(String name, String addr)
+				throws Exception {
+			if (addr.length() > MAX_ADDR_LENGTH)
+				throw new Exception(name + " <" + addr + "> longer than "
+						+ MAX_ADDR_LENGTH + " characters");
+			for (int i = 0; i < addr.length(); i++)
+				if (addr.charAt(i) > 0x7f)
+					throw new Exception(name + " <" + addr
+							+ "> is not ASCII");
+		}
+
+		private static int count(Object[] parts) {
+			int n = 0;
+			for (Object part : parts)
+				if (part instanceof Number)
+					n++;
+			return n;
+		}
+
+		/*
+		 * Writes the field with its numbers as zeros, noting in at where
+		 * within it each number starts. Numbers not in this field are left
+		 * at -1.
+		 */
+		private static String render(Template t, Object[] parts,
+				int[] chosen, int[] at) {
+			StringBuilder sb = new StringBuilder();
+			for (Object part : parts) {
+				if (part instanceof String) {
+					sb.append((String) part);
+				} else if (part instanceof Number) {
+					Number n = (Number) part;
+					at[t.numbers.indexOf(n)] = sb.length();
+					for (int i = 0; i < n.width; i++)
+						sb.append('0');
+				} else {
+					sb.append(((String[]) part)[chosen[t.picks.indexOf(part)]]);
+				}
+			}
+			return sb.toString();
+		}
+
+		DeliverSM generate(Template t) {
+			byte[] b = pdu.clone();
+			for (int i = 0; i < offsets.length; i++) {
+				Number n = t.numbers.get(i);
+				long value = n.next();
+				int step = steps[i];
+				int p = offsets[i] + n.width * step - 1;
+				for (int d = 0; d < n.width; d++) {
+					b[p] = (byte) ('0' + value % 10);
+					value = value / 10;
+					p = p - step;
+				}
+			}
+			return new PreparedDeliverSM(b, new String(b, sourceOffset,
+					sourceLength), new String(b, destOffset, destLength),
+					t.data_coding, smOffset, smLength);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/****************************************************************************
+ * MtPersistenceQueue.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.gtl.fonecta.client.bean.Message;
+import com.gtl.fonecta.server.services.MessageService;
+import com.gtl.fonecta.server.services.MessageServiceImpl;
+
+/**
+ * Writes MT messages to the database in the background so that SUBMIT_SM
+ * processing never waits for a commit.
+ * 
+ * Messages are held in a bounded queue and inserted by a single writer thread,
+ * one transaction per batch. A batch is written as soon as
+ * MT_PERSISTENCE_BATCH_SIZE messages are waiting or
+ * MT_PERSISTENCE_BATCH_INTERVAL milliseconds after its first message arrived,
+ * whichever comes first.
+ * 
+ * If the queue fills because the database cannot keep up,
+ * MT_PERSISTENCE_OVERFLOW_POLICY decides what happens: BLOCK makes the
+ * submitting session wait for space, DISCARD drops the message and counts it.
+ * 
+ * At shutdown the writer finishes the batch it holds and writes the rest of
+ * the queue before it stops.
+ */
+public class MtPersistenceQueue implements Runnable {
+
+	private static MtPersistenceQueue mtqueue;
+
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	public static final String OVERFLOW_BLOCK = "BLOCK";
+
+	public static final String OVERFLOW_DISCARD = "DISCARD";
+
+	// how often a waiting writer checks whether it should stop
+	private static final long STOP_CHECK_INTERVAL = 100;
+
+	// longest time shutdown waits for the queue to reach the database
+	private static final long DRAIN_TIMEOUT = 30000;
+
+	private ArrayBlockingQueue<Message> queue;
+
+	private int batchSize;
+
+	private long batchInterval;
+
+	private boolean discardOnOverflow;
+
+	private MessageService messageService = new MessageServiceImpl();
+
+	private Thread thread;
+
+	private volatile boolean stopping = false;
+
+	// metrics
+
+	private long queued = 0;
+
+	private long persisted = 0;
+
+	private long discarded = 0;
+
+	private long failed = 0;
+
+	private long batches = 0;
+
+	public static MtPersistenceQueue getInstance() {
+		if (mtqueue == null)
+			mtqueue = new MtPersistenceQueue();
+		return mtqueue;
+	}
+
+	private MtPersistenceQueue() {
+		queue = new ArrayBlockingQueue<Message>(SMPPSim
+				.getMtPersistenceQueueCapacity());
+		batchSize = SMPPSim.getMtPersistenceBatchSize();
+		batchInterval = SMPPSim.getMtPersistenceBatchInterval();
+		discardOnOverflow = OVERFLOW_DISCARD.equalsIgnoreCase(SMPPSim
+				.getMtPersistenceOverflowPolicy());
+	}
+
+	/**
+	 * Queues a message for insertion. Returns without touching the database.
+	 */
+	public void addMessage(Message message) {
+		if (discardOnOverflow) {
+			if (!queue.offer(message)) {
+				synchronized (this) {
+					discarded++;
+				}
+				logger.finest("MT persistence queue full: message discarded");
+				return;
+			}
+		} else {
+			try {
+				queue.put(message);
+			} catch (InterruptedException e) {
+				logger.warning("Interrupted whilst waiting for space in the "
+						+ "MT persistence queue: message discarded");
+				synchronized (this) {
+					discarded++;
+				}
+				return;
+			}
+		}
+		synchronized (this) {
+			queued++;
+		}
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public synchronized void start() {
+		thread = new Thread(this, "MTPERSIST");
+		thread.start();
+	}
+
+	public void run() {
+		logger.info("Starting MT persistence service....");
+		ArrayList<Message> batch = new ArrayList<Message>(batchSize);
+		while (!stopping) {
+			try {
+				Message first = queue.poll(STOP_CHECK_INTERVAL,
+						TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+				long deadline = System.currentTimeMillis() + batchInterval;
+				// a batch in hand is written straight away once stopping
+				while (batch.size() < batchSize && !stopping) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.size() >= batchSize || wait <= 0)
+						break;
+					Message m = queue.poll(Math.min(wait, STOP_CHECK_INTERVAL),
+							TimeUnit.MILLISECONDS);
+					if (m != null)
+						batch.add(m);
+				}
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				logger.log(Level.WARNING, "Exception in MT persistence service: "
+						+ e.getMessage(), e);
+				if (!batch.isEmpty())
+					writeBatch(batch);
+			}
+			batch.clear();
+		}
+
+		// stopping: write whatever is still queued
+		while (queue.drainTo(batch, batchSize) > 0) {
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Stops the writer thread once it has written the batch it holds and
+	 * whatever is still queued, and waits for it to finish. Registered as a
+	 * shutdown hook so that messages accepted just before the simulator is
+	 * stopped are not lost.
+	 */
+	public void drain() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		stopping = true;
+		if (t == null)
+			return;
+		try {
+			t.join(DRAIN_TIMEOUT);
+		} catch (InterruptedException e) {
+			// shutting down anyway
+		}
+		if (t.isAlive())
+			logger.warning("MT persistence: gave up waiting for "
+					+ queue.size() + " queued message(s) to be written");
+	}
+
+	private void writeBatch(ArrayList<Message> batch) {
+		try {
+			messageService.insertMtMessages(batch);
+			synchronized (this) {
+				persisted = persisted + batch.size();
+				batches++;
+			}
+			logger.finest("MT persistence: wrote batch of " + batch.size()
+					+ " message(s)");
+		} catch (Exception e) {
+			synchronized (this) {
+				failed = failed + batch.size();
+			}
+			logger.log(Level.WARNING, "MT persistence: failed to write batch of "
+					+ batch.size() + " message(s): " + e.getMessage(), e);
+		}
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public synchronized long getQueued() {
+		return queued;
+	}
+
+	public synchronized long getPersisted() {
+		return persisted;
+	}
+
+	public synchronized long getDiscarded() {
+		return discarded;
+	}
+
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	public synchronized long getBatches() {
+		return batches;
+	}
+}
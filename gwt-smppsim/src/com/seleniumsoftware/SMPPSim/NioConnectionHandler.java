@@ -0,0 +1,328 @@
+/****************************************************************************
+ * NioConnectionHandler.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection handler for use with the non-blocking SMPP connection engine.
+ * 
+ * Unlike StandardConnectionHandler, an NioConnectionHandler does not own a
+ * thread. Instances are pre-allocated by Smsc and bound to accepted
+ * SocketChannels by NioSmppServer. All reads and PDU processing for a given
+ * connection take place on the NioWorker thread whose Selector the channel is
+ * registered with. Writes may be requested from any thread (e.g. the
+ * InboundQueue service delivering DELIVER_SM PDUs) and are queued until the
+ * channel can accept them.
+ * 
+ * Responses generated on the worker thread are not written one at a time:
+ * they are queued while the PDUs from the current read are processed and then
+ * sent with a single gathering write at the end of that turn of the worker
+ * loop. Writes from other threads wake the worker, which flushes them on its
+ * next turn. In either case a queue that has been waiting longer than
+ * OUTBOUND_FLUSH_MAX_LATENCY milliseconds is flushed at once by the next
+ * write.
+ * 
+ * Select this engine with
+ * CONNECTION_HANDLER_CLASS=com.seleniumsoftware.SMPPSim.NioConnectionHandler
+ */
+public class NioConnectionHandler extends StandardConnectionHandler {
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+
+	private Smsc smsc = Smsc.getInstance();
+
+	private SocketChannel channel;
+
+	private NioWorker worker;
+
+	private SelectionKey key;
+
+	private ByteBuffer readBuffer = ByteBuffer
+			.allocate(INITIAL_READ_BUFFER_SIZE);
+
+	private LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+	private long firstQueuedAt = 0;
+
+	private boolean closeWhenFlushed = false;
+
+	private String remoteAddress = "";
+
+	public NioConnectionHandler() {
+	}
+
+	public void run() {
+		logger
+				.warning("NioConnectionHandler has no thread of its own. Connections are driven by NioSmppServer");
+	}
+
+	/**
+	 * Binds this handler to a newly accepted channel and hands it to an I/O
+	 * worker. Called by NioSmppServer on the acceptor thread.
+	 */
+	void open(SocketChannel sc, NioWorker useThisWorker) throws Exception {
+		channel = sc;
+		worker = useThisWorker;
+		remoteAddress = String.valueOf(sc.socket().getRemoteSocketAddress());
+		readBuffer.clear();
+		synchronized (writeQueue) {
+			writeQueue.clear();
+			closeWhenFlushed = false;
+		}
+		Class c = Class.forName(SMPPSim.getProtocolHandlerClassName());
+		StandardProtocolHandler handler = (StandardProtocolHandler) c
+				.newInstance();
+		handler.setConnection(this);
+		setHandler(handler);
+		setPool(newPool());
+		setConnected(true);
+		logger.info("NioConnectionHandler accepted a connection from "
+				+ remoteAddress + ". Protocol handler is of type "
+				+ handler.getName());
+		worker.register(this);
+	}
+
+	void setKey(SelectionKey k) {
+		key = k;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Called by the owning NioWorker when the channel is readable. Reads
+	 * whatever is available and dispatches every complete PDU, framed by its
+	 * command_length, to the protocol handler.
+	 */
+	void readReady() {
+		int n;
+		try {
+			n = channel.read(readBuffer);
+		} catch (IOException e) {
+			connectionLost("Socket exception: probably connection closed by client without UNBIND ("
+					+ e.getMessage() + ")");
+			return;
+		}
+		if (n == -1) {
+			connectionLost("Connection from " + remoteAddress
+					+ " closed by client");
+			return;
+		}
+		readBuffer.flip();
+		while (readBuffer.remaining() >= 4) {
+			int len = readBuffer.getInt(readBuffer.position());
+			if (len < PduFrameReader.MIN_PDU_LENGTH
+					|| len > PduFrameReader.MAX_PDU_LENGTH) {
+				connectionLost("Invalid command_length " + len + " from "
+						+ remoteAddress + ": closing connection");
+				return;
+			}
+			if (readBuffer.remaining() < len)
+				break;
+			PduPool pool = getPool();
+			if (pool != null && pool.isPoolingFrames()) {
+				ByteBuffer frame = pool.getBuffer(len);
+				readBuffer.get(frame.array());
+				dispatch(frame.array());
+				pool.release(frame);
+			} else {
+				byte[] message = new byte[len];
+				readBuffer.get(message);
+				dispatch(message);
+			}
+			if (pool != null)
+				pool.checkLeaks();
+			if (!isConnected())
+				return;
+		}
+		readBuffer.compact();
+		ensureReadCapacity();
+		// end of this turn: send everything the PDUs just read gave rise to
+		writeReady();
+	}
+
+	private void ensureReadCapacity() {
+		// readBuffer is in write mode here; grow it if the PDU whose header we
+		// already hold will not fit
+		if (readBuffer.position() < 4)
+			return;
+		int len = readBuffer.getInt(0);
+		if (len > readBuffer.capacity()) {
+			ByteBuffer bigger = ByteBuffer.allocate(len);
+			readBuffer.flip();
+			bigger.put(readBuffer);
+			readBuffer = bigger;
+		}
+	}
+
+	private void dispatch(byte[] message) {
+		try {
+			logger.finest("read packet");
+			smsc.writeBinarySme(getSessionId(), message);
+			getHandler().processMessage(message);
+		} catch (Exception exception) {
+			logger.log(Level.INFO, "Exception processing PDU from "
+					+ remoteAddress + ": " + exception.getMessage(), exception);
+			connectionLost("Closing connection following exception");
+		}
+	}
+
+	// Responses are queued and written later, so their arrays cannot be reused
+	protected boolean copiesResponses() {
+		return false;
+	}
+
+	protected void writeResponse(byte[] response) throws IOException {
+		if (!isConnected())
+			throw new IOException("Connection to " + remoteAddress
+					+ " is closed");
+		long now = System.currentTimeMillis();
+		synchronized (writeQueue) {
+			boolean wasEmpty = writeQueue.isEmpty();
+			if (wasEmpty)
+				firstQueuedAt = now;
+			writeQueue.add(ByteBuffer.wrap(response));
+			if (now - firstQueuedAt >= SMPPSim.getOutboundFlushMaxLatency()) {
+				flushWriteQueue();
+			} else if (wasEmpty && !worker.isWorkerThread()) {
+				worker.requestWrite(this);
+			}
+		}
+		smsc.writeBinarySmppsim(getSessionId(), response);
+		if (SMPPSim.isCallback())
+			smsc.sent(response);
+	}
+
+	/**
+	 * Writes as much of the queue as the socket will take without blocking,
+	 * using one gathering write. If anything is left over, the worker is
+	 * asked to tell us when the channel is writable again.
+	 */
+	private void flushWriteQueue() throws IOException {
+		synchronized (writeQueue) {
+			if (writeQueue.isEmpty())
+				return;
+			ByteBuffer[] buffers = writeQueue
+					.toArray(new ByteBuffer[writeQueue.size()]);
+			channel.write(buffers);
+			int written = 0;
+			while (!writeQueue.isEmpty()
+					&& !writeQueue.getFirst().hasRemaining()) {
+				writeQueue.removeFirst();
+				written++;
+			}
+			if (written > 0)
+				smsc.recordOutboundFlush(written);
+			if (!writeQueue.isEmpty()) {
+				if (worker.isWorkerThread())
+					enableWriteInterest();
+				else
+					worker.requestWrite(this);
+			}
+		}
+	}
+
+	/**
+	 * Called by the owning NioWorker when the channel is writable, when
+	 * another thread has queued a write, and at the end of each read.
+	 */
+	void writeReady() {
+		if (!isConnected())
+			return;
+		try {
+			synchronized (writeQueue) {
+				flushWriteQueue();
+				if (writeQueue.isEmpty()) {
+					if (key != null && key.isValid())
+						key.interestOps(key.interestOps()
+								& ~SelectionKey.OP_WRITE);
+					if (closeWhenFlushed)
+						close();
+				}
+			}
+		} catch (IOException e) {
+			connectionLost("Socket exception whilst writing to "
+					+ remoteAddress + " (" + e.getMessage() + ")");
+		}
+	}
+
+	private void enableWriteInterest() {
+		if (key != null && key.isValid())
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	public void closeConnection() throws IOException {
+		// Any response already queued (e.g. UNBIND_RESP) must reach the client
+		// before the channel is closed
+		synchronized (writeQueue) {
+			if (writeQueue.isEmpty()) {
+				close();
+			} else {
+				closeWhenFlushed = true;
+				worker.requestWrite(this);
+			}
+		}
+	}
+
+	private void connectionLost(String reason) {
+		logger.info(reason);
+		StandardProtocolHandler handler = getHandler();
+		if (handler != null && handler.getSession().isBound()) {
+			handler.getSession().setBound(false);
+			if (handler.getSession().isReceiver())
+				smsc.receiverUnbound(this);
+		}
+		close();
+	}
+
+	private void close() {
+		if (key != null)
+			key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warning("Could not close channel: " + e.getMessage());
+		}
+		synchronized (writeQueue) {
+			writeQueue.clear();
+			closeWhenFlushed = false;
+		}
+		key = null;
+		setConnected(false);
+		logger.finest("NioConnectionHandler for " + remoteAddress + " closed");
+	}
+}
@@ -0,0 +1,133 @@
+/****************************************************************************
+ * NioSmppServer.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Acceptor for the non-blocking SMPP connection engine.
+ * 
+ * Accepts connections on the SMPP port, binds each one to a free
+ * NioConnectionHandler from the pool allocated by Smsc and distributes them
+ * round robin across SMPP_IO_THREADS NioWorker threads. The number of
+ * concurrent connections is limited only by SMPP_CONNECTION_HANDLERS, not by
+ * the number of threads.
+ */
+public class NioSmppServer implements Runnable {
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	private static final int ACCEPT_BACKLOG = 128;
+
+	private ServerSocketChannel ssc;
+
+	private StandardConnectionHandler[] connectionHandlers;
+
+	private NioWorker[] workers;
+
+	private int nextWorker = 0;
+
+	public NioSmppServer(int port, StandardConnectionHandler[] handlers,
+			int ioThreads) throws IOException {
+		connectionHandlers = handlers;
+		ssc = ServerSocketChannel.open();
+		ssc.socket().setReuseAddress(true);
+		ssc.socket().bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+		ssc.configureBlocking(true);
+		if (ioThreads < 1)
+			ioThreads = 1;
+		workers = new NioWorker[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			workers[i] = new NioWorker("IO" + i);
+			Thread t = new Thread(workers[i], "IO" + i);
+			t.start();
+		}
+	}
+
+	public void run() {
+		logger.info("NioSmppServer waiting for connections on port "
+				+ ssc.socket().getLocalPort() + " using " + workers.length
+				+ " I/O thread(s)");
+		do {
+			SocketChannel sc = null;
+			try {
+				sc = ssc.accept();
+				NioConnectionHandler ch = allocateHandler();
+				if (ch == null) {
+					logger.warning("All " + connectionHandlers.length
+							+ " SMPP_CONNECTION_HANDLERS are in use. Rejecting connection from "
+							+ sc.socket().getRemoteSocketAddress());
+					sc.close();
+					continue;
+				}
+				sc.configureBlocking(false);
+				sc.socket().setTcpNoDelay(true);
+				try {
+					ch.open(sc, nextWorker());
+				} catch (Exception e) {
+					ch.setConnected(false);
+					throw e;
+				}
+			} catch (Exception exception) {
+				logger.log(Level.WARNING, "Exception processing connection: "
+						+ exception.getMessage(), exception);
+				try {
+					if (sc != null)
+						sc.close();
+				} catch (Exception e) {
+					logger.warning("Could not close channel following exception");
+				}
+			}
+		} while (true);
+	}
+
+	// Only ever called on the acceptor thread, and a handler is marked as
+	// connected by open() before the next accept, so no locking is needed
+	private NioConnectionHandler allocateHandler() {
+		for (int i = 0; i < connectionHandlers.length; i++) {
+			if (!connectionHandlers[i].isConnected()) {
+				return (NioConnectionHandler) connectionHandlers[i];
+			}
+		}
+		return null;
+	}
+
+	private NioWorker nextWorker() {
+		NioWorker w = workers[nextWorker];
+		nextWorker = (nextWorker + 1) % workers.length;
+		return w;
+	}
+
+	public ServerSocketChannel getServerSocketChannel() {
+		return ssc;
+	}
+}
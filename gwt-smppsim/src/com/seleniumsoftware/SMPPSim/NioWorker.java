@@ -0,0 +1,136 @@
+/****************************************************************************
+ * NioWorker.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One I/O thread of the non-blocking SMPP connection engine. Each NioWorker
+ * owns a Selector and services any number of NioConnectionHandler objects.
+ * 
+ * Other threads never touch the Selector or SelectionKeys directly; they post
+ * registration and write requests which the worker applies at the top of its
+ * loop.
+ */
+public class NioWorker implements Runnable {
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	private Selector selector;
+
+	private ConcurrentLinkedQueue<NioConnectionHandler> registrations = new ConcurrentLinkedQueue<NioConnectionHandler>();
+
+	private ConcurrentLinkedQueue<NioConnectionHandler> writeRequests = new ConcurrentLinkedQueue<NioConnectionHandler>();
+
+	private String name;
+
+	private volatile Thread thread;
+
+	public NioWorker(String name) throws IOException {
+		this.name = name;
+		selector = Selector.open();
+	}
+
+	void register(NioConnectionHandler ch) {
+		registrations.add(ch);
+		selector.wakeup();
+	}
+
+	void requestWrite(NioConnectionHandler ch) {
+		writeRequests.add(ch);
+		selector.wakeup();
+	}
+
+	boolean isWorkerThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	public void run() {
+		thread = Thread.currentThread();
+		logger.info("Starting SMPP I/O worker " + name);
+		do {
+			try {
+				selector.select();
+				processRegistrations();
+				processWriteRequests();
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					NioConnectionHandler ch = (NioConnectionHandler) key
+							.attachment();
+					if (key.isValid() && key.isWritable())
+						ch.writeReady();
+					if (key.isValid() && key.isReadable())
+						ch.readReady();
+				}
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Exception in SMPP I/O worker "
+						+ name + ": " + e.getMessage(), e);
+			}
+		} while (true);
+	}
+
+	private void processRegistrations() {
+		NioConnectionHandler ch;
+		while ((ch = registrations.poll()) != null) {
+			try {
+				SelectionKey key = ch.getChannel().register(selector,
+						SelectionKey.OP_READ, ch);
+				ch.setKey(key);
+			} catch (IOException e) {
+				logger.warning("Could not register connection with I/O worker "
+						+ name + ": " + e.getMessage());
+				try {
+					ch.getChannel().close();
+				} catch (IOException e2) {
+					logger.warning("Could not close channel: "
+							+ e2.getMessage());
+				}
+				ch.setConnected(false);
+			}
+		}
+	}
+
+	private void processWriteRequests() {
+		NioConnectionHandler ch;
+		while ((ch = writeRequests.poll()) != null) {
+			ch.writeReady();
+		}
+	}
+
+	public int getConnectionCount() {
+		return selector.keys().size();
+	}
+}
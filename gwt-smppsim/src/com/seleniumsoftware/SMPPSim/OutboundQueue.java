@@ -30,12 +30,16 @@ package com.seleniumsoftware.SMPPSim;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.gtl.fonecta.client.bean.Message;
-import com.gtl.fonecta.server.services.MessageService;
-import com.gtl.fonecta.server.services.MessageServiceImpl;
 import com.seleniumsoftware.SMPPSim.exceptions.MessageStateNotFoundException;
 import com.seleniumsoftware.SMPPSim.exceptions.OutboundQueueFullException;
 import com.seleniumsoftware.SMPPSim.pdu.SubmitSM;
@@ -45,25 +49,61 @@ import com.seleniumsoftware.SMPPSim.pdu.SubmitSM;
  * 
  *         Queue of MessageState objects
  * 
- *         Processed by the State Lifecycle Service
+ *         Processed by the State Lifecycle Service, which does not sweep the
+ *         whole queue. Once its SUBMIT_SM_RESP has been sent each MessageState
+ *         is scheduled for its next lifecycle check (see
+ *         LifeCycleManager.nextCheckTime) and the service only ever touches
+ *         messages whose check has fallen due.
+ * 
+ *         The schedule is split into LIFECYCLE_SERVICE_THREADS shards, each
+ *         with its own worker thread. A message always hashes to the same
+ *         shard so its checks are never run concurrently.
+ * 
+ *         MessageStates are held in a map keyed on themselves, i.e. on
+ *         message_id, source_addr_ton, source_addr_npi and source_addr, so
+ *         that QUERY_SM, CANCEL_SM and REPLACE_SM lookups and lifecycle
+ *         removals take constant time. The capacity limit is enforced with a
+ *         counter, so no operation takes a lock.
+ * 
+ *         A secondary index groups MessageStates by the source and destination
+ *         addresses of their SUBMIT_SM so that CANCEL_SM requests without a
+ *         message_id only examine messages sent on that route. The index is
+ *         updated after the map and may briefly hold a MessageState that has
+ *         just been removed, so lookups resolve each entry against the map
+ *         and return only MessageStates that are still queued.
  */
-public class OutboundQueue implements Runnable {
+public class OutboundQueue {
 
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
 	private Smsc smsc = Smsc.getInstance();
 	private LifeCycleManager lcm = smsc.getLcm();
 
-	ArrayList<MessageState> queue;
+	ConcurrentHashMap<MessageState, MessageState> queue;
+
+	// lifecycle checks, one queue per shard, each ordered by due time
+	private List<DelayQueue<LifecycleCheck>> schedules;
+
+	// number of MessageStates in queue
+	private AtomicInteger count = new AtomicInteger();
+
+	// secondary index, keyed as queue is within each route
+	private ConcurrentHashMap<Route, ConcurrentHashMap<MessageState, Boolean>> byRoute = new ConcurrentHashMap<Route, ConcurrentHashMap<MessageState, Boolean>>();
 
 	public OutboundQueue(int maxsize) {
-		queue = new ArrayList<MessageState>(maxsize);
+		int shards = Math.max(1, SMPPSim.getLifecycleServiceThreads());
+		queue = new ConcurrentHashMap<MessageState, MessageState>(Math.min(
+				maxsize, 65536), 0.75f, Math.max(16, shards));
+		schedules = new ArrayList<DelayQueue<LifecycleCheck>>(shards);
+		for (int i = 0; i < shards; i++)
+			schedules.add(new DelayQueue<LifecycleCheck>());
 	}
 
-	public synchronized void addMessageState(MessageState message)
+	public void addMessageState(MessageState message)
 			throws OutboundQueueFullException {
 		/* Start Changes */
-		
+
+		// persistence is asynchronous and happens outside the queue lock
 		Message message2 = new Message();
 		message2.setDestAddr(Long.parseLong(message.getPdu()
 				.getDestination_addr().toString().replace("+", "")));
@@ -76,15 +116,21 @@ public class OutboundQueue implements Runnable {
 						.getSeconds(), 0);
 		message2.setSendTime(sendTime);
 
-		MessageService messageService = new MessageServiceImpl();
-		messageService.insertMtMessage(message2);
+		smsc.getMtPersistenceQueue().addMessage(message2);
 
 		// message2.setSend_time();
 		/* End Changes */
+		addToQueue(message);
+	}
+
+	private void addToQueue(MessageState message)
+			throws OutboundQueueFullException {
 		logger.finest("OutboundQueue: adding object to queue<"
 				+ message.toString() + ">");
-		if (queue.size() < smsc.getOutbound_queue_capacity()) {
-			queue.add(message);
+		if (count.incrementAndGet() <= smsc.getOutbound_queue_capacity()) {
+			if (queue.put(message, message) != null)
+				count.decrementAndGet();
+			index(message);
 			logger.fine("Added object to OutboundQueue. Queue now contains "
 					+ queue.size() + " object(s)");
 			if (message.isIntermediate_notification_requested()) {
@@ -95,40 +141,56 @@ public class OutboundQueue implements Runnable {
 				smsc.prepareDeliveryReceipt(p, message.getMessage_id(), message
 						.getState(), 1, 1);
 			}
-			notifyAll();
-		} else
+		} else {
+			count.decrementAndGet();
 			throw new OutboundQueueFullException(
 					"Request to add to OutboundQueue rejected as to do so would exceed max size of "
 							+ smsc.getOutbound_queue_capacity());
+		}
 	}
 
-	public synchronized void setResponseSent(MessageState m)
+	public void setResponseSent(MessageState m)
 			throws MessageStateNotFoundException {
 		m.setResponseSent(true);
 		updateMessageState(m);
+		// first check on the next MESSAGE_STATE_CHECK_FREQUENCY boundary, as
+		// the old periodic sweep would have done
+		long period = SMPPSim.getMessageStateCheckFrequency();
+		long now = System.currentTimeMillis();
+		schedule(m, (now / period + 1) * period);
 	}
 
-	public synchronized MessageState getMessageState(MessageState m)
+	private void schedule(MessageState m, long due) {
+		int shard = (m.hashCode() & 0x7fffffff) % schedules.size();
+		schedules.get(shard).add(new LifecycleCheck(m, due));
+	}
+
+	public MessageState getMessageState(MessageState m)
 			throws MessageStateNotFoundException {
 		// logger.info("getMessageState:"+m.keyToString());
-		int i = queue.indexOf(m);
-		// logger.info("queue pos="+i);
-		if (i > -1) {
-			MessageState message = queue.get(i);
+		MessageState message = queue.get(m);
+		if (message != null) {
 			return message;
 		} else {
 			throw new MessageStateNotFoundException();
 		}
 	}
 
-	public synchronized void updateMessageState(MessageState newMs)
+	public void updateMessageState(MessageState newMs)
 			throws MessageStateNotFoundException {
-		int i = queue.indexOf(newMs);
-		if (i > -1) {
-			queue.set(i, newMs);
-		} else {
+		MessageState old = queue.replace(newMs, newMs);
+		if (old == null) {
 			throw new MessageStateNotFoundException();
 		}
+		if (old == newMs)
+			return;
+		// entries are keyed as in queue, so the index only changes if the
+		// route does
+		Route from = new Route(old.getPdu());
+		if (!from.equals(new Route(newMs.getPdu()))) {
+			index(newMs);
+			unindex(old, from);
+		}
 	}
 
 	public MessageState queryMessageState(String message_id, int ton, int npi,
@@ -141,108 +203,228 @@ public class OutboundQueue implements Runnable {
 		return getMessageState(m);
 	}
 
-	public synchronized void removeMessageState(MessageState m) {
-		int i = queue.indexOf(m);
-		if (i > -1) {
-			MessageState message = queue.remove(i);
+	/**
+	 * @return true if the MessageState was queued and has been removed
+	 */
+	public boolean removeMessageState(MessageState m) {
+		MessageState removed = queue.remove(m);
+		if (removed != null) {
+			count.decrementAndGet();
+			unindex(removed, new Route(removed.getPdu()));
 			logger
 					.fine("Removed object from OutboundQueue. Queue now contains "
 							+ queue.size() + " object(s)");
+			return true;
 		} else {
 			logger
 					.warning("Attempt to remove non-existent object from OutboundQueue: "
 							+ m.toString());
+			return false;
 		}
 	}
 
-	public synchronized Object[] getAllMessageStates() {
-		return (Object[]) queue.toArray();
+	public Object[] getAllMessageStates() {
+		return queue.values().toArray();
 	}
 
-	protected synchronized boolean isEmpty() {
-		return queue.isEmpty();
+	/**
+	 * @return the MessageStates whose SUBMIT_SM was sent from the given
+	 *         source address to the given destination address
+	 */
+	public Object[] getMessageStatesByRoute(int source_addr_ton,
+			int source_addr_npi, String source_addr, int dest_addr_ton,
+			int dest_addr_npi, String destination_addr) {
+		Route r = new Route(source_addr_ton, source_addr_npi, source_addr,
+				dest_addr_ton, dest_addr_npi, destination_addr);
+		ConcurrentHashMap<MessageState, Boolean> s = byRoute.get(r);
+		if (s == null)
+			return new Object[0];
+		ArrayList<MessageState> queued = new ArrayList<MessageState>(s.size());
+		for (MessageState key : s.keySet()) {
+			MessageState m = queue.get(key);
+			if (m != null)
+				queued.add(m);
+		}
+		return queued.toArray();
 	}
 
-	public void run() {
-		// This code processes the contents of the OutboundQueue
-		// Each object in the queue is a MessageState object and the purpose of
-		// the OutboundQueue is to support QUERY_SM and REPLACE_SM operations.
-		//
-		// This code is termed the Lifecycle Manager Service.
-
-		logger.info("Starting Lifecycle Service (OutboundQueue)");
-		do // process queue forever
-		{
-			processQueue();
-		} while (true);
-	}
-
-	private void processQueue() {
-		Object[] messages;
-		int count;
-		MessageState m;
-		int oldState;
-		long start;
-		long finish;
-		long duration;
-		long sleeptime;
-		synchronized (this) {
-			while (isEmpty()) {
-				try {
-					logger
-							.info("Lifecycle Service: OutboundQueue is empty  - waiting");
-					wait();
-				} catch (InterruptedException e) {
-					logger.log(Level.WARNING, "Exception in OutboundQueue: "
-							+ e.getMessage(), e);
-				}
-			}
-			start = System.currentTimeMillis();
-			messages = getAllMessageStates();
-			// Can allow other threads to compete for lock now since working on
-			// array from this point
-			notifyAll();
-		}
-		count = messages.length;
-		logger.info("Assessing state of " + count
-				+ " messages in the OutboundQueue");
-		for (int i = 0; i < count; i++) {
-			m = (MessageState) messages[i];
-			if (!m.responseSent()) {
-				logger
-						.finest("Response not yet sent so ignoring this MessageState object for now");
-				continue;
-			}
-			if (lcm.messageShouldBeDiscarded(m)) {
-				logger
-						.finest("Disarding OutboundQueue message "
-								+ m.toString());
-				removeMessageState(m);
-			} else {
-				byte currentState = m.getState();
-				m = lcm.setState(m);
+	private void index(MessageState m) {
+		Route r = new Route(m.getPdu());
+		while (true) {
+			ConcurrentHashMap<MessageState, Boolean> s = byRoute.get(r);
+			if (s == null) {
+				s = new ConcurrentHashMap<MessageState, Boolean>(4, 0.75f, 1);
+				ConcurrentHashMap<MessageState, Boolean> existing = byRoute
+						.putIfAbsent(r, s);
+				if (existing != null)
+					s = existing;
 			}
+			s.put(m, Boolean.TRUE);
+			// unindex may have dropped the set as empty before the put
+			if (byRoute.get(r) == s)
+				break;
+		}
+		// a concurrent removal may have unindexed before the put
+		if (!queue.containsKey(m))
+			unindex(m, r);
+	}
+
+	private void unindex(MessageState m, Route r) {
+		ConcurrentHashMap<MessageState, Boolean> s = byRoute.get(r);
+		if (s == null)
+			return;
+		s.remove(m);
+		if (s.isEmpty() && byRoute.remove(r, s)) {
+			// an index may have added to the set after the isEmpty check
+			for (MessageState key : s.keySet())
+				if (queue.containsKey(key))
+					index(key);
 		}
-		finish = System.currentTimeMillis();
-		duration = finish - start;
-		sleeptime = SMPPSim.getMessageStateCheckFrequency() - duration;
-		if (sleeptime > 0) {
-			try {
-				logger.finest("Lifecycle Service sleeping for " + sleeptime
-						+ " milliseconds");
-				Thread.sleep(sleeptime);
-			} catch (InterruptedException e) {
-				logger
-						.warning("Exception whilst Lifecycle Service was sleeping "
-								+ e.getMessage());
+	}
+
+	protected boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public int getLifecycleShards() {
+		return schedules.size();
+	}
+
+	/**
+	 * @return the Lifecycle Service worker for the given shard. Smsc starts
+	 *         one thread per shard.
+	 */
+	public Runnable getLifecycleWorker(final int shard) {
+		return new Runnable() {
+			public void run() {
+				// This code processes the contents of the OutboundQueue
+				// Each object in the queue is a MessageState object and the
+				// purpose of the OutboundQueue is to support QUERY_SM and
+				// REPLACE_SM operations.
+				//
+				// This code is termed the Lifecycle Manager Service.
+
+				logger.info("Starting Lifecycle Service (OutboundQueue) shard "
+						+ shard);
+				DelayQueue<LifecycleCheck> schedule = schedules.get(shard);
+				do // process queue forever
+				{
+					try {
+						processCheck(schedule.take());
+					} catch (InterruptedException e) {
+						logger.log(Level.WARNING, "Exception in OutboundQueue: "
+								+ e.getMessage(), e);
+					} catch (Exception e) {
+						logger.log(Level.WARNING, "Exception in Lifecycle Service: "
+								+ e.getMessage(), e);
+					}
+				} while (true);
 			}
-		} else {
-			logger
-					.warning("It's taking longer to process the OutboundQueue than MESSAGE_STATE_CHECK_FREQUENCY milliseconds. Recommend this value is increased");
+		};
+	}
+
+	private void processCheck(LifecycleCheck check) {
+		// The message may have been cancelled or replaced since the check was
+		// scheduled; always work on the current MessageState for this key
+		MessageState m = queue.get(check.state);
+		if (m == null)
+			return;
+		if (lcm.messageShouldBeDiscarded(m)) {
+			logger.finest("Disarding OutboundQueue message " + m.toString());
+			removeMessageState(m);
+			return;
 		}
+		m = lcm.setState(m);
+		long now = System.currentTimeMillis();
+		long next = lcm.nextCheckTime(m, now);
+		if (next <= now)
+			next = now + SMPPSim.getMessageStateCheckFrequency();
+		schedule(m, next);
 	}
 
 	public int size() {
 		return queue.size();
 	}
+
+	/**
+	 * A MessageState's next lifecycle check, as held in the schedule
+	 */
+	private static final class LifecycleCheck implements Delayed {
+		private MessageState state;
+
+		private long due;
+
+		LifecycleCheck(MessageState state, long due) {
+			this.state = state;
+			this.due = due;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.currentTimeMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed other) {
+			long otherDue = ((LifecycleCheck) other).due;
+			return (due < otherDue) ? -1 : ((due == otherDue) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Key of the secondary index: source and destination address of a
+	 * SUBMIT_SM
+	 */
+	private static final class Route {
+		private int source_addr_ton;
+
+		private int source_addr_npi;
+
+		private String source_addr;
+
+		private int dest_addr_ton;
+
+		private int dest_addr_npi;
+
+		private String destination_addr;
+
+		Route(SubmitSM pdu) {
+			this(pdu.getSource_addr_ton(), pdu.getSource_addr_npi(), pdu
+					.getSource_addr(), pdu.getDest_addr_ton(), pdu
+					.getDest_addr_npi(), pdu.getDestination_addr());
+		}
+
+		Route(int source_addr_ton, int source_addr_npi, String source_addr,
+				int dest_addr_ton, int dest_addr_npi, String destination_addr) {
+			this.source_addr_ton = source_addr_ton;
+			this.source_addr_npi = source_addr_npi;
+			this.source_addr = (source_addr == null) ? "" : source_addr;
+			this.dest_addr_ton = dest_addr_ton;
+			this.dest_addr_npi = dest_addr_npi;
+			this.destination_addr = (destination_addr == null) ? ""
+					: destination_addr;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Route))
+				return false;
+			Route r = (Route) other;
+			return r.source_addr_ton == source_addr_ton
+					&& r.source_addr_npi == source_addr_npi
+					&& r.dest_addr_ton == dest_addr_ton
+					&& r.dest_addr_npi == dest_addr_npi
+					&& r.source_addr.equals(source_addr)
+					&& r.destination_addr.equals(destination_addr);
+		}
+
+		public int hashCode() {
+			int h = 17;
+			h = 31 * h + source_addr_ton;
+			h = 31 * h + source_addr_npi;
+			h = 31 * h + source_addr.hashCode();
+			h = 31 * h + dest_addr_ton;
+			h = 31 * h + dest_addr_npi;
+			h = 31 * h + destination_addr.hashCode();
+			return h;
+		}
+	}
 }
@@ -0,0 +1,472 @@
+/****************************************************************************
+ * PduCaptureWriter.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.seleniumsoftware.SMPPSim.util.MpscArrayQueue;
+
+/**
+ * Writes the PDU capture files in the background.
+ * <p>
+ * Connection, InboundQueue and lifecycle threads only put a record into a
+ * bounded lock-free queue. A single writer thread takes records off in
+ * batches, appends them to a buffer per capture file and writes each buffer
+ * to its FileChannel in one call, so records from different sessions are
+ * never interleaved and a burst of PDUs costs one write rather than one write
+ * and flush each. The writer wakes every CAPTURE_FLUSH_INTERVAL milliseconds
+ * when idle, which bounds how long a record can wait to reach the file.
+ * <p>
+ * If the queue fills because the disk cannot keep up, the capturing thread
+ * waits for space. Capture never drops a record while the simulator is
+ * running. At shutdown the writer thread itself drains the queue, so that it
+ * remains the queue's only consumer.
+ * <p>
+ * If CAPTURE_RECORD_HEADERS is set, each record is preceded by the time it was
+ * captured, the id of the session it belongs to and its direction. In the
+ * binary files the header is RECORD_HEADER_LENGTH bytes: an 8 byte timestamp
+ * (milliseconds since the epoch), a 4 byte session id and 1 byte direction,
+ * all big endian, followed by the PDU itself. In the decoded files it is a
+ * text prefix on each line.
+ * <p>
+ * Files are rotated when they reach CAPTURE_ROTATE_SIZE megabytes or
+ * CAPTURE_ROTATE_INTERVAL minutes after they were opened. The full file is
+ * renamed to name.1, name.2 and so on and a new file started.
+ * <p>
+ * With CAPTURE_FORMAT=INDEXED the binary captures are instead written as a
+ * series of memory-mapped CaptureSegments named name.000001, name.000002 and
+ * so on, each CAPTURE_ROTATE_SIZE megabytes (64 if not set). Every record in a
+ * segment has the header described above and an entry in the segment's
+ * index, so they can be read back by CaptureReplay.
+ */
+public class PduCaptureWriter implements Runnable {
+
+	private static PduCaptureWriter writer;
+
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	// capture files
+	public static final int SME_BINARY = 0;
+
+	public static final int SMPPSIM_BINARY = 1;
+
+	public static final int SME_DECODED = 2;
+
+	public static final int SMPPSIM_DECODED = 3;
+
+	// directions, as used by the byte stream callback
+	public static final byte RECEIVED = 0x01;
+
+	public static final byte SENT = 0x02;
+
+	public static final int RECORD_HEADER_LENGTH = CaptureSegment.RECORD_HEADER_LENGTH;
+
+	public static final String FORMAT_STREAM = "STREAM";
+
+	public static final String FORMAT_INDEXED = "INDEXED";
+
+	private static final int DEFAULT_SEGMENT_SIZE = 64;
+
+	private static final int BATCH_SIZE = 512;
+
+	private static final int FILE_BUFFER_SIZE = 65536;
+
+	// how long shutdown waits for the writer thread to finish (ms)
+	private static final long DRAIN_TIMEOUT = 5000;
+
+	private MpscArrayQueue<Record> queue;
+
+	private CaptureFile[] files = new CaptureFile[4];
+
+	private boolean recordHeaders;
+
+	private boolean indexed;
+
+	private long flushInterval;
+
+	private long rotateSize;
+
+	private long rotateInterval;
+
+	private Thread thread;
+
+	private volatile boolean stopping = false;
+
+	// metrics
+
+	private volatile long records = 0;
+
+	private volatile long writes = 0;
+
+	private final AtomicLong waits = new AtomicLong();
+
+	private static class Record {
+		final int file;
+
+		final long time;
+
+		final int session;
+
+		final byte[] pdu;
+
+		final String decoded;
+
+		Record(int file, long time, int session, byte[] pdu, String decoded) {
+			this.file = file;
+			this.time = time;
+			this.session = session;
+			this.pdu = pdu;
+			this.decoded = decoded;
+		}
+	}
+
+	public static PduCaptureWriter getInstance() {
+		if (writer == null)
+			writer = new PduCaptureWriter();
+		return writer;
+	}
+
+	private PduCaptureWriter() {
+		queue = new MpscArrayQueue<Record>(Math.max(1, SMPPSim
+				.getCaptureQueueCapacity()));
+		recordHeaders = SMPPSim.isCaptureRecordHeaders();
+		indexed = FORMAT_INDEXED.equalsIgnoreCase(SMPPSim.getCaptureFormat());
+		flushInterval = Math.max(1, SMPPSim.getCaptureFlushInterval());
+		rotateSize = SMPPSim.getCaptureRotateSize() * 1024L * 1024L;
+		rotateInterval = SMPPSim.getCaptureRotateInterval() * 60000L;
+	}
+
+	/**
+	 * Creates (or empties) a capture file. Records for files that have not been
+	 * opened are ignored.
+	 */
+	public void open(int file, String name) throws IOException {
+		if (indexed && (file == SME_BINARY || file == SMPPSIM_BINARY))
+			files[file] = new IndexedCaptureFile(new File(name));
+		else
+			files[file] = new StreamCaptureFile(new File(name));
+	}
+
+	public boolean isOpen(int file) {
+		return files[file] != null;
+	}
+
+	public void captureBinary(int file, int session, byte[] pdu) {
+		if (files[file] != null)
+			add(new Record(file, System.currentTimeMillis(), session, pdu,
+					null));
+	}
+
+	public void captureDecoded(int file, int session, String decoded) {
+		if (files[file] != null)
+			add(new Record(file, System.currentTimeMillis(), session, null,
+					decoded));
+	}
+
+	private void add(Record record) {
+		if (queue.offer(record))
+			return;
+		waits.incrementAndGet();
+		while (!queue.offer(record)) {
+			// nobody will take it once the writer has stopped
+			if (stopping)
+				return;
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public synchronized void start() {
+		thread = new Thread(this, "CAPTURE");
+		thread.start();
+	}
+
+	public void run() {
+		logger.info("Starting PDU capture service....");
+		ArrayList<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+		while (!stopping) {
+			try {
+				if (queue.drainTo(batch, BATCH_SIZE) > 0) {
+					append(batch);
+					batch.clear();
+					if (!queue.isEmpty())
+						continue;
+				}
+				writeAll();
+				LockSupport.parkNanos(flushInterval * 1000000L);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Exception in PDU capture service: "
+						+ e.getMessage(), e);
+				batch.clear();
+			}
+		}
+
+		// stopping: write whatever is still queued
+		batch.clear();
+		try {
+			while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+				append(batch);
+				batch.clear();
+			}
+			writeAll();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Exception draining PDU capture: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Stops the writer thread once it has written whatever is still queued,
+	 * and waits for it to finish. Registered as a shutdown hook so that PDUs
+	 * captured just before the simulator is stopped reach the files.
+	 */
+	public void drain() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		stopping = true;
+		if (t == null)
+			return;
+		LockSupport.unpark(t);
+		try {
+			t.join(DRAIN_TIMEOUT);
+		} catch (InterruptedException e) {
+			// shutting down anyway
+		}
+	}
+
+	// only called by the writer thread
+	private void append(ArrayList<Record> batch)
+			throws IOException {
+		for (int i = 0; i < batch.size(); i++) {
+			Record r = batch.get(i);
+			files[r.file].append(r);
+		}
+		records = records + batch.size();
+	}
+
+	private void writeAll() throws IOException {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i] != null) {
+				files[i].write();
+				files[i].rotateIfDue(now);
+			}
+		}
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public long getWrites() {
+		return writes;
+	}
+
+	public long getWaits() {
+		return waits.get();
+	}
+
+	private static byte direction(Record r) {
+		if (r.file == SME_BINARY || r.file == SME_DECODED)
+			return RECEIVED;
+		return SENT;
+	}
+
+	private abstract class CaptureFile {
+
+		abstract void append(Record r) throws IOException;
+
+		/**
+		 * Writes anything appended since the last call to the file.
+		 */
+		abstract void write() throws IOException;
+
+		abstract void rotateIfDue(long now) throws IOException;
+	}
+
+	private class StreamCaptureFile extends CaptureFile {
+
+		private final File file;
+
+		private FileChannel channel;
+
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
+
+		private long size;
+
+		private long openedAt;
+
+		private int generation = 0;
+
+		// only used by the writer thread
+		private SimpleDateFormat df = new SimpleDateFormat(
+				"yyyy-MM-dd HH:mm:ss.SSS");
+
+		StreamCaptureFile(File file) throws IOException {
+			this.file = file;
+			file.delete();
+			openChannel();
+		}
+
+		private void openChannel() throws IOException {
+			channel = new FileOutputStream(file).getChannel();
+			size = 0;
+			openedAt = System.currentTimeMillis();
+		}
+
+		void append(Record r) throws IOException {
+			byte[] data;
+			if (r.decoded != null) {
+				String line = r.decoded + "\n";
+				if (recordHeaders)
+					line = df.format(new Date(r.time)) + " session="
+							+ r.session + " "
+							+ (direction(r) == RECEIVED ? "RX" : "TX") + " "
+							+ line;
+				data = line.getBytes();
+			} else {
+				data = r.pdu;
+			}
+			int headerLength = (recordHeaders && r.decoded == null) ? RECORD_HEADER_LENGTH
+					: 0;
+			if (buffer.remaining() < headerLength + data.length) {
+				write();
+				rotateIfDue(r.time);
+				if (buffer.capacity() < headerLength + data.length)
+					buffer = ByteBuffer.allocateDirect(headerLength
+							+ data.length);
+			}
+			if (headerLength > 0) {
+				buffer.putLong(r.time);
+				buffer.putInt(r.session);
+				buffer.put(direction(r));
+			}
+			buffer.put(data);
+		}
+
+		void write() throws IOException {
+			if (buffer.position() == 0)
+				return;
+			buffer.flip();
+			while (buffer.hasRemaining())
+				size = size + channel.write(buffer);
+			buffer.clear();
+			writes++;
+		}
+
+		void rotateIfDue(long now) throws IOException {
+			if ((rotateSize > 0 && size >= rotateSize)
+					|| (rotateInterval > 0 && size > 0 && now - openedAt >= rotateInterval)) {
+				channel.close();
+				generation++;
+				File rotated = new File(file.getPath() + "." + generation);
+				rotated.delete();
+				if (!file.renameTo(rotated))
+					logger.warning("Could not rename capture file " + file
+							+ " to " + rotated);
+				logger.info("Rotated capture file " + file + " to " + rotated);
+				openChannel();
+			}
+		}
+	}
+
+	private class IndexedCaptureFile extends CaptureFile {
+
+		private final File file;
+
+		private final int segmentSize;
+
+		private CaptureSegment segment;
+
+		private int generation = 0;
+
+		IndexedCaptureFile(File file) throws IOException {
+			this.file = file;
+			long size = rotateSize > 0 ? rotateSize
+					: DEFAULT_SEGMENT_SIZE * 1024L * 1024L;
+			segmentSize = (int) Math.min(size, Integer.MAX_VALUE);
+			// remove the segments of any previous capture
+			for (int i = 1; segmentFile(i).delete(); i++)
+				;
+			nextSegment(segmentSize);
+		}
+
+		private File segmentFile(int generation) {
+			String suffix = "00000" + generation;
+			return new File(file.getPath() + "."
+					+ suffix.substring(suffix.length() - 6));
+		}
+
+		private void nextSegment(int capacity) throws IOException {
+			generation++;
+			File f = segmentFile(generation);
+			segment = CaptureSegment.create(f, capacity);
+			logger.info("Capturing to segment " + f);
+		}
+
+		void append(Record r) throws IOException {
+			byte direction = direction(r);
+			if (segment.append(r.time, r.session, direction, r.pdu))
+				return;
+			// a PDU bigger than a whole segment gets a segment of its own
+			nextSegment(Math.max(segmentSize, CaptureSegment
+					.minimumCapacity(r.pdu.length)));
+			segment.append(r.time, r.session, direction, r.pdu);
+		}
+
+		void write() {
+			// records are in the mapped file as soon as they are appended
+		}
+
+		void rotateIfDue(long now) throws IOException {
+			if (rotateInterval > 0 && segment.getRecordCount() > 0
+					&& now - segment.getCreated() >= rotateInterval)
+				nextSegment(segmentSize);
+		}
+	}
+}
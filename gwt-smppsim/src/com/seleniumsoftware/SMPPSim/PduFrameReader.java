@@ -0,0 +1,188 @@
+/****************************************************************************
+ * PduFrameReader.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads length-prefixed frames (SMPP PDUs, or callback records which use the
+ * same 4 octet big-endian length prefix) from a blocking InputStream.
+ * <p>
+ * Socket data is pulled into a per-connection buffer in as large chunks as the
+ * stream will supply and frames are then sliced out of that buffer, so a PDU
+ * costs a handful of read() calls rather than one per octet. The buffer is
+ * reused for the life of the connection and only grows when a frame larger
+ * than its current size arrives.
+ * <p>
+ * Not thread safe: one reader per connection, used only by the thread that
+ * services that connection.
+ */
+public class PduFrameReader {
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	// SMPP PDU header is 16 octets; anything shorter cannot be a valid PDU
+	public static final int MIN_PDU_LENGTH = 16;
+
+	// Upper bound on command_length. SMPP 3.4 PDUs are comfortably below this
+	// even with a full message_payload TLV
+	public static final int MAX_PDU_LENGTH = 70000;
+
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	private InputStream is;
+
+	private int minLength;
+
+	private int maxLength;
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	// unconsumed data lies between start (inclusive) and end (exclusive)
+	private int start = 0;
+
+	private int end = 0;
+
+	public PduFrameReader(InputStream is) {
+		this(is, MIN_PDU_LENGTH, MAX_PDU_LENGTH);
+	}
+
+	public PduFrameReader(InputStream is, int minLength, int maxLength) {
+		this.is = is;
+		this.minLength = minLength;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Blocks until a complete frame has been received and returns it, length
+	 * prefix included, in a new array of exactly the frame's length.
+	 * 
+	 * @throws EOFException
+	 *             if the stream ends, whether cleanly between frames or part
+	 *             way through one
+	 * @throws IOException
+	 *             if the length prefix is outside the permitted range, in
+	 *             which case the stream can no longer be framed and the
+	 *             connection should be dropped
+	 */
+	public byte[] readFrame() throws IOException {
+		int len = nextFrameLength();
+		byte[] frame = new byte[len];
+		consume(frame);
+		return frame;
+	}
+
+	/**
+	 * As readFrame(), but the frame is copied into a buffer taken from
+	 * <code>pool</code>, whose backing array is exactly the frame's length.
+	 * The caller releases the buffer once the frame has been processed.
+	 */
+	public ByteBuffer readFrame(PduPool pool) throws IOException {
+		int len = nextFrameLength();
+		ByteBuffer frame = pool.getBuffer(len);
+		consume(frame.array());
+		return frame;
+	}
+
+	/**
+	 * Blocks until the whole of the next frame is buffered and returns its
+	 * length.
+	 */
+	private int nextFrameLength() throws IOException {
+		fill(4);
+		int len = ((buffer[start] & 0xff) << 24)
+				| ((buffer[start + 1] & 0xff) << 16)
+				| ((buffer[start + 2] & 0xff) << 8)
+				| (buffer[start + 3] & 0xff);
+		if (len < minLength || len > maxLength) {
+			throw new IOException("Invalid frame length " + len
+					+ ": must be between " + minLength + " and " + maxLength);
+		}
+		if (logger.isLoggable(Level.FINEST))
+			logger.finest("Reading " + len + " bytes");
+		fill(len);
+		return len;
+	}
+
+	private void consume(byte[] frame) {
+		System.arraycopy(buffer, start, frame, 0, frame.length);
+		start = start + frame.length;
+		if (start == end) {
+			start = 0;
+			end = 0;
+		}
+	}
+
+	/**
+	 * @return the number of bytes that can be read without blocking, counting
+	 *         both data already buffered here and data the stream reports as
+	 *         available. Zero means the next readFrame() would block.
+	 */
+	public int available() throws IOException {
+		return (end - start) + is.available();
+	}
+
+	/**
+	 * Ensures at least <code>needed</code> unconsumed bytes are buffered,
+	 * blocking on the stream as necessary (readFully semantics).
+	 */
+	private void fill(int needed) throws IOException {
+		if (end - start >= needed)
+			return;
+		if (buffer.length < needed) {
+			int size = buffer.length;
+			while (size < needed)
+				size = size * 2;
+			byte[] bigger = new byte[size];
+			System.arraycopy(buffer, start, bigger, 0, end - start);
+			buffer = bigger;
+			end = end - start;
+			start = 0;
+		} else if (buffer.length - start < needed) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end = end - start;
+			start = 0;
+		}
+		while (end - start < needed) {
+			int n = is.read(buffer, end, buffer.length - end);
+			if (n < 0) {
+				if (end == start)
+					throw new EOFException("Connection closed by peer");
+				throw new EOFException("Connection closed part way through a "
+						+ "frame: " + (end - start) + " of " + needed
+						+ " bytes received");
+			}
+			end = end + n;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/****************************************************************************
+ * PduPool.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.seleniumsoftware.SMPPSim.pdu.Response;
+import com.seleniumsoftware.SMPPSim.pdu.SubmitSM;
+import com.seleniumsoftware.SMPPSim.pdu.SubmitSMResp;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+
+/**
+ * Per-connection pool of the objects that a SUBMIT_SM to SUBMIT_SM_RESP round
+ * trip would otherwise allocate afresh: the buffer the request frame is read
+ * into, the SubmitSMResp and the buffer it is marshalled into. Enabled by
+ * POOL_PDUS.
+ * <p>
+ * Buffers are pooled by exact length, since a PDU is passed around as an
+ * array of exactly its own length, and each one's backing array is the PDU.
+ * Load tests tend to send PDUs of a handful of sizes, so a small number of
+ * sizes covers nearly every PDU.
+ * <p>
+ * Anything taken from the pool must be handed back before processing of the
+ * PDU it was taken for is finished. With POOL_DEBUG set, the pool remembers
+ * where each object was taken and checkLeaks() reports any that were not
+ * returned. Releasing an object twice is also reported.
+ * <p>
+ * Not thread safe: a pool belongs to one connection and is only used by the
+ * thread processing that connection's PDUs.
+ */
+public class PduPool {
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.smppsim");
+
+	private static final int MAX_SIZES = 16;
+
+	private static final int MAX_BUFFERS_PER_SIZE = 8;
+
+	private static final int MAX_RESPONSES = 8;
+
+	// totals for all connections
+	private static AtomicLong reused = new AtomicLong();
+
+	private static AtomicLong allocated = new AtomicLong();
+
+	private static AtomicLong leaked = new AtomicLong();
+
+	private boolean poolFrames;
+
+	private boolean poolResponses;
+
+	private boolean debug;
+
+	private int[] sizes = new int[MAX_SIZES];
+
+	private ByteBuffer[][] buffers = new ByteBuffer[MAX_SIZES][MAX_BUFFERS_PER_SIZE];
+
+	private int[] counts = new int[MAX_SIZES];
+
+	private int sizeCount = 0;
+
+	private SubmitSMResp[] submitSMResps = new SubmitSMResp[MAX_RESPONSES];
+
+	private int submitSMRespCount = 0;
+
+	private PduWriter writer;
+
+	// debug only: objects currently taken, with where they were taken
+	private IdentityHashMap<Object, Throwable> outstanding;
+
+	/**
+	 * @param poolFrames
+	 *            whether request frames may be read into pooled buffers
+	 * @param poolResponses
+	 *            whether responses may be marshalled into pooled buffers.
+	 *            Only safe if the connection has finished with a response
+	 *            once it has been written.
+	 */
+	public PduPool(boolean poolFrames, boolean poolResponses, boolean debug) {
+		this.poolFrames = poolFrames;
+		this.poolResponses = poolResponses;
+		this.debug = debug;
+		if (debug)
+			outstanding = new IdentityHashMap<Object, Throwable>();
+	}
+
+	public boolean isPoolingFrames() {
+		return poolFrames;
+	}
+
+	public boolean isPoolingResponses() {
+		return poolResponses;
+	}
+
+	/**
+	 * @return a buffer whose backing array is exactly <code>length</code>
+	 *         octets, positioned at zero
+	 */
+	public ByteBuffer getBuffer(int length) {
+		ByteBuffer b;
+		int i = indexOf(length);
+		if (i >= 0 && counts[i] > 0) {
+			counts[i]--;
+			b = buffers[i][counts[i]];
+			buffers[i][counts[i]] = null;
+			b.clear();
+			reused.incrementAndGet();
+		} else {
+			b = ByteBuffer.allocate(length);
+			allocated.incrementAndGet();
+		}
+		taken(b);
+		return b;
+	}
+
+	public void release(ByteBuffer b) {
+		if (!returned(b))
+			return;
+		int length = b.capacity();
+		int i = indexOf(length);
+		if (i < 0) {
+			if (sizeCount == MAX_SIZES)
+				return;
+			i = sizeCount++;
+			sizes[i] = length;
+		}
+		if (counts[i] < MAX_BUFFERS_PER_SIZE)
+			buffers[i][counts[i]++] = b;
+	}
+
+	/**
+	 * Marshalls the response into a pooled buffer, which the caller must
+	 * release once the response has been written.
+	 */
+	public ByteBuffer marshall(Response response) throws Exception {
+		ByteBuffer b = getBuffer(response.getLength());
+		if (writer == null)
+			writer = new PduWriter(b);
+		else
+			writer.reset(b);
+		response.marshall(writer);
+		return b;
+	}
+
+	public SubmitSMResp getSubmitSMResp(SubmitSM request) {
+		SubmitSMResp resp;
+		if (submitSMRespCount > 0) {
+			submitSMRespCount--;
+			resp = submitSMResps[submitSMRespCount];
+			submitSMResps[submitSMRespCount] = null;
+			resp.reset(request);
+			reused.incrementAndGet();
+		} else {
+			resp = new SubmitSMResp(request);
+			allocated.incrementAndGet();
+		}
+		taken(resp);
+		return resp;
+	}
+
+	public void release(SubmitSMResp resp) {
+		if (!returned(resp))
+			return;
+		if (submitSMRespCount < MAX_RESPONSES)
+			submitSMResps[submitSMRespCount++] = resp;
+	}
+
+	/**
+	 * Called once a PDU has been processed. In debug mode, logs anything
+	 * taken from the pool that has not been handed back, together with where
+	 * it was taken, and forgets it.
+	 */
+	public void checkLeaks() {
+		if (!debug || outstanding.isEmpty())
+			return;
+		Iterator<Map.Entry<Object, Throwable>> it = outstanding.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<Object, Throwable> e = it.next();
+			leaked.incrementAndGet();
+			logger.log(Level.WARNING, "PDU pool: " + describe(e.getKey())
+					+ " was not released after its PDU was processed", e
+					.getValue());
+		}
+		outstanding.clear();
+	}
+
+	private int indexOf(int length) {
+		for (int i = 0; i < sizeCount; i++)
+			if (sizes[i] == length)
+				return i;
+		return -1;
+	}
+
+	private void taken(Object o) {
+		if (debug)
+			outstanding.put(o, new Throwable("Taken from pool here"));
+	}
+
+	private boolean returned(Object o) {
+		if (debug && outstanding.remove(o) == null) {
+			logger.log(Level.WARNING, "PDU pool: " + describe(o)
+					+ " released twice or not taken from this pool",
+					new Throwable("Released here"));
+			return false;
+		}
+		return true;
+	}
+
+	private static String describe(Object o) {
+		if (o instanceof ByteBuffer)
+			return ((ByteBuffer) o).capacity() + " octet buffer";
+		return o.getClass().getName();
+	}
+
+	/**
+	 * @return number of pooled objects handed out again rather than allocated
+	 */
+	public static long getReused() {
+		return reused.get();
+	}
+
+	/**
+	 * @return number of objects the pools had to allocate
+	 */
+	public static long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return number of objects POOL_DEBUG found were never released
+	 */
+	public static long getLeaked() {
+		return leaked.get();
+	}
+}
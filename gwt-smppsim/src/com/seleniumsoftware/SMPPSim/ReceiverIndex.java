@@ -0,0 +1,219 @@
+/****************************************************************************
+ * ReceiverIndex.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The address ranges of the bound receivers, indexed so that finding the
+ * receivers that serve a destination address does not mean matching the
+ * address against every receiver's range in turn.
+ * 
+ * Receivers bound with an exact or prefix range are held in a trie keyed on
+ * the characters of the range; receivers that take every address are held
+ * in a list of their own. Only substring and general regular expression
+ * ranges are matched one by one. Results are kept in a bounded LRU cache of
+ * destination address to eligible receivers, which is cleared whenever a
+ * receiver binds or unbinds.
+ */
+public class ReceiverIndex {
+
+	private static final int CACHE_SIZE = 1024;
+
+	private static final StandardConnectionHandler[] NONE = new StandardConnectionHandler[0];
+
+	private static class Node {
+
+		HashMap<Character, Node> children = new HashMap<Character, Node>();
+
+		ArrayList<StandardConnectionHandler> prefix = new ArrayList<StandardConnectionHandler>();
+
+		ArrayList<StandardConnectionHandler> exact = new ArrayList<StandardConnectionHandler>();
+	}
+
+	private Node root = new Node();
+
+	private HashMap<StandardConnectionHandler, AddressRange> ranges = new HashMap<StandardConnectionHandler, AddressRange>();
+
+	private ArrayList<StandardConnectionHandler> all = new ArrayList<StandardConnectionHandler>();
+
+	// SUBSTRING and PATTERN ranges
+	private ArrayList<StandardConnectionHandler> scanned = new ArrayList<StandardConnectionHandler>();
+
+	private LinkedHashMap<String, StandardConnectionHandler[]> cache = new LinkedHashMap<String, StandardConnectionHandler[]>(
+			16, 0.75f, true) {
+		protected boolean removeEldestEntry(
+				Map.Entry<String, StandardConnectionHandler[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Adds a receiver, replacing its previous range if it was already
+	 * present.
+	 */
+	public synchronized void add(StandardConnectionHandler receiver,
+			AddressRange range) {
+		remove(receiver);
+		ranges.put(receiver, range);
+		switch (range.getKind()) {
+		case AddressRange.ALL:
+			all.add(receiver);
+			break;
+		case AddressRange.EXACT:
+			node(range.getLiteral()).exact.add(receiver);
+			break;
+		case AddressRange.PREFIX:
+			node(range.getLiteral()).prefix.add(receiver);
+			break;
+		default:
+			scanned.add(receiver);
+		}
+		cache.clear();
+	}
+
+	/**
+	 * @return false if the receiver was not present
+	 */
+	public synchronized boolean remove(StandardConnectionHandler receiver) {
+		AddressRange range = ranges.remove(receiver);
+		if (range == null)
+			return false;
+		switch (range.getKind()) {
+		case AddressRange.ALL:
+			all.remove(receiver);
+			break;
+		case AddressRange.EXACT:
+		case AddressRange.PREFIX:
+			removeFromTrie(root, range.getLiteral(), 0, receiver,
+					range.getKind() == AddressRange.EXACT);
+			break;
+		default:
+			scanned.remove(receiver);
+		}
+		cache.clear();
+		return true;
+	}
+
+	/**
+	 * @return the receivers whose address range matches address. The array
+	 *         is shared and must not be modified.
+	 */
+	public synchronized StandardConnectionHandler[] lookup(String address) {
+		StandardConnectionHandler[] receivers = cache.get(address);
+		if (receivers != null)
+			return receivers;
+		ArrayList<StandardConnectionHandler> eligible;
+		if (address.equals("") || address.equals(" ")) {
+			// an empty destination is serviced by every receiver
+			eligible = new ArrayList<StandardConnectionHandler>(ranges
+					.keySet());
+			receivers = eligible.toArray(new StandardConnectionHandler[eligible
+					.size()]);
+			cache.put(address, receivers);
+			return receivers;
+		}
+		eligible = new ArrayList<StandardConnectionHandler>(all);
+		Node node = root;
+		eligible.addAll(node.prefix);
+		for (int i = 0; i < address.length() && node != null; i++) {
+			node = node.children.get(Character.valueOf(address.charAt(i)));
+			if (node != null)
+				eligible.addAll(node.prefix);
+		}
+		if (node != null)
+			eligible.addAll(node.exact);
+		for (int i = 0; i < scanned.size(); i++) {
+			StandardConnectionHandler receiver = scanned.get(i);
+			if (ranges.get(receiver).matches(address))
+				eligible.add(receiver);
+		}
+		receivers = eligible.isEmpty() ? NONE : eligible
+				.toArray(new StandardConnectionHandler[eligible.size()]);
+		cache.put(address, receivers);
+		return receivers;
+	}
+
+	public synchronized int size() {
+		return ranges.size();
+	}
+
+	/**
+	 * @return the number of nodes in the trie, including the root
+	 */
+	synchronized int trieSize() {
+		return count(root);
+	}
+
+	private static int count(Node node) {
+		int n = 1;
+		for (Node child : node.children.values())
+			n += count(child);
+		return n;
+	}
+
+	private Node node(String key) {
+		Node node = root;
+		for (int i = 0; i < key.length(); i++) {
+			Character c = Character.valueOf(key.charAt(i));
+			Node child = node.children.get(c);
+			if (child == null) {
+				child = new Node();
+				node.children.put(c, child);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Removes receiver from the node for key below node, then prunes the nodes
+	 * on the way back up that no longer hold a receiver or lead to one.
+	 * 
+	 * @return true if node itself is now empty
+	 */
+	private static boolean removeFromTrie(Node node, String key, int depth,
+			StandardConnectionHandler receiver, boolean exact) {
+		if (depth == key.length()) {
+			if (exact)
+				node.exact.remove(receiver);
+			else
+				node.prefix.remove(receiver);
+		} else {
+			Character c = Character.valueOf(key.charAt(depth));
+			Node child = node.children.get(c);
+			if (child != null
+					&& removeFromTrie(child, key, depth + 1, receiver, exact))
+				node.children.remove(c);
+		}
+		return node.children.isEmpty() && node.exact.isEmpty()
+				&& node.prefix.isEmpty();
+	}
+}
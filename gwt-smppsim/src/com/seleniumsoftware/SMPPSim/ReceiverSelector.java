@@ -0,0 +1,83 @@
+/****************************************************************************
+ * ReceiverSelector.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses which of the receivers able to take a message it is delivered to.
+ * This default implementation takes them in turn. Set RECEIVER_SELECTOR to a
+ * subclass to balance traffic some other way.
+ */
+public class ReceiverSelector {
+
+	private AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param eligible
+	 *            the bound receivers whose address range matches the
+	 *            destination. Must not be modified.
+	 * @return one of them, or null if none is still bound
+	 */
+	public StandardConnectionHandler select(
+			StandardConnectionHandler[] eligible) {
+		int start = nextStart();
+		for (int i = 0; i < eligible.length; i++) {
+			StandardConnectionHandler receiver = eligible[(start + i)
+					% eligible.length];
+			if (isUsable(receiver))
+				return receiver;
+		}
+		return null;
+	}
+
+	/**
+	 * @return a different starting point for each call, so that ties are not
+	 *         always settled in favour of the same receiver
+	 */
+	protected int nextStart() {
+		return next.getAndIncrement() & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Called when a receiver or transceiver binds, before it becomes
+	 * eligible. Selectors that keep state per receiver should start it
+	 * afresh here, since connection handlers are reused.
+	 */
+	public void receiverBound(StandardConnectionHandler receiver) {
+	}
+
+	/**
+	 * Called when a receiver or transceiver unbinds or its connection is lost.
+	 */
+	public void receiverUnbound(StandardConnectionHandler receiver) {
+	}
+
+	protected boolean isUsable(StandardConnectionHandler receiver) {
+		return receiver.isBound() && receiver.isReceiver();
+	}
+}
@@ -53,6 +53,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.pdu.PduConstants;
+import com.seleniumsoftware.SMPPSim.util.LoggingUtilities;
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
 
 public class SMPPSim {
 	private static final String version = "2.6.3";
@@ -73,11 +75,22 @@ public class SMPPSim {
 	private static boolean esme_to_esme = false;
 	private static int boundReceiverCount = 0;
 
+	// MO service pacing
+	private static String moTemplatesFile;
+	private static String moRateProfile;
+	private static int moRampSeconds;
+	private static int moStepSeconds;
+	private static int moStepCount;
+	private static int moBurstSize;
+	private static int moGeneratorThreads;
+
 	// Byte Stream Callback
 	private static boolean callback = false;
 	private static String callback_target_host;
 	private static int callback_port;
 	private static String callback_id;
+	private static int callbackQueueCapacity;
+	private static String callbackWhenFull;
 
 	// Queue configuration
 	private static int inbound_queue_capacity;
@@ -85,6 +98,7 @@ public class SMPPSim {
 	private static int delayed_iqueue_period = 60;
 	private static int delayed_inbound_queue_max_attempts;
 	private static int messageStateCheckFrequency;
+	private static int lifecycleServiceThreads;
 	private static int maxTimeEnroute;
 	private static int percentageThatTransition;
 	private static int percentageDelivered;
@@ -93,6 +107,15 @@ public class SMPPSim {
 	private static int percentageRejected;
 	private static int discardFromQueueAfter;
 	private static long delayReceiptsBy;
+	private static long delayReceiptsJitter;
+	private static String delayReceiptsJitterDistribution;
+	private static int mtPersistenceQueueCapacity;
+	private static int mtPersistenceBatchSize;
+	private static int mtPersistenceBatchInterval;
+	private static String mtPersistenceOverflowPolicy;
+
+	// Random number generation
+	private static String randomSeed = "";
 
 	// Message ID allocation
 	private static long start_at = 0;
@@ -110,9 +133,14 @@ public class SMPPSim {
 	private static String authorisedFiles;
 	private static String injectMoPage;
 	private static int maxConnectionHandlers;
+	private static int smppIoThreads;
+	private static int outboundFlushMaxLatency;
+	private static boolean poolPdus;
+	private static boolean poolDebug;
 	private static String smscid;
 	private static String[] systemids;
 	private static String[] passwords;
+	private static int[] receiverWeights;
 	private static boolean outbind_enabled;
 	private static String esme_ip_address;
 	private static int esme_port;
@@ -125,6 +153,7 @@ public class SMPPSim {
 	private static String connectionHandlerClassName;
 	private static String protocolHandlerClassName;
 	private static String lifeCycleManagerClassName;
+	private static String receiverSelectorClassName;
 
 	private static int[] messageTypes = { PduConstants.BIND_RECEIVER,
 			PduConstants.BIND_RECEIVER_RESP, PduConstants.BIND_TRANSMITTER,
@@ -147,6 +176,12 @@ public class SMPPSim {
 	private static String captureSmppsimBinaryToFile;
 	private static boolean captureSmeDecoded;
 	private static String captureSmeDecodedToFile;
+	private static boolean captureRecordHeaders;
+	private static String captureFormat;
+	private static int captureQueueCapacity;
+	private static int captureFlushInterval;
+	private static int captureRotateSize;
+	private static int captureRotateInterval;
 	private static boolean captureSmppsimDecoded;
 	private static String captureSmppsimDecodedToFile;
 
@@ -203,8 +238,14 @@ public class SMPPSim {
 		maxConnectionHandlers = Integer.parseInt(props.getProperty("SMPP_CONNECTION_HANDLERS"));
 		smppPort = Integer.parseInt(props.getProperty("SMPP_PORT"));
 		connectionHandlerClassName = props.getProperty("CONNECTION_HANDLER_CLASS");
+		smppIoThreads = getIntProperty(props, "SMPP_IO_THREADS", 2);
+		outboundFlushMaxLatency = getIntProperty(props, "OUTBOUND_FLUSH_MAX_LATENCY", 5);
+		poolPdus = Boolean.valueOf(props.getProperty("POOL_PDUS")).booleanValue();
+		poolDebug = Boolean.valueOf(props.getProperty("POOL_DEBUG")).booleanValue();
 		protocolHandlerClassName = props.getProperty("PROTOCOL_HANDLER_CLASS");
 		lifeCycleManagerClassName = props.getProperty("LIFE_CYCLE_MANAGER");
+		receiverSelectorClassName = props.getProperty("RECEIVER_SELECTOR",
+				"com.seleniumsoftware.SMPPSim.ReceiverSelector");
 		String systemid_list = props.getProperty("SYSTEM_IDS", "");
 		String password_list = props.getProperty("PASSWORDS", "");
 		systemids = systemid_list.split(",");
@@ -215,6 +256,33 @@ public class SMPPSim {
 			throw new Exception(
 					"Number of SYSTEM_IDS elements is not the same as the number of PASSWORDS elements");
 		}
+		receiverWeights = new int[systemids.length];
+		String weight_list = props.getProperty("RECEIVER_WEIGHTS", "");
+		if (weight_list.equals("")) {
+			for (int i = 0; i < receiverWeights.length; i++)
+				receiverWeights[i] = 1;
+		} else {
+			String[] weights = weight_list.split(",");
+			if (weights.length != systemids.length) {
+				logger
+						.severe("Number of RECEIVER_WEIGHTS elements is not the same as the number of SYSTEM_IDS elements");
+				throw new Exception(
+						"Number of RECEIVER_WEIGHTS elements is not the same as the number of SYSTEM_IDS elements");
+			}
+			for (int i = 0; i < weights.length; i++) {
+				try {
+					receiverWeights[i] = Integer.parseInt(weights[i].trim());
+				} catch (NumberFormatException e) {
+					receiverWeights[i] = 0;
+				}
+				if (receiverWeights[i] < 1) {
+					logger.severe("RECEIVER_WEIGHTS element " + weights[i]
+							+ " is not a positive integer");
+					throw new Exception("RECEIVER_WEIGHTS element "
+							+ weights[i] + " is not a positive integer");
+				}
+			}
+		}
 		outbind_enabled = Boolean.valueOf(props.getProperty("OUTBIND_ENABLED"))
 				.booleanValue();
 		if (outbind_enabled) {
@@ -242,13 +310,43 @@ public class SMPPSim {
 				.getProperty("DELIVERY_MESSAGES_PER_MINUTE"));
 		if (deliverMessagesPerMin > 0) {
 			deliverFile = props.getProperty("DELIVER_MESSAGES_FILE");
+			moTemplatesFile = props.getProperty("MO_TEMPLATES_FILE");
+			if (moTemplatesFile != null && moTemplatesFile.trim().length() == 0)
+				moTemplatesFile = null;
 		} else {
 			deliverFile = "N/A";
 		}
+		moRateProfile = props.getProperty("MO_RATE_PROFILE",
+				MoRateProfile.CONSTANT).trim().toUpperCase();
+		if (!MoRateProfile.isValid(moRateProfile)) {
+			logger.severe("MO_RATE_PROFILE must be " + MoRateProfile.CONSTANT
+					+ ", " + MoRateProfile.RAMP + ", " + MoRateProfile.STEP
+					+ " or " + MoRateProfile.POISSON);
+			throw new Exception("Invalid MO_RATE_PROFILE property: "
+					+ moRateProfile);
+		}
+		moRampSeconds = getPositiveIntProperty(props, "MO_RAMP_SECONDS", 60);
+		moStepSeconds = getPositiveIntProperty(props, "MO_STEP_SECONDS", 30);
+		moStepCount = getPositiveIntProperty(props, "MO_STEP_COUNT", 4);
+		moBurstSize = getPositiveIntProperty(props, "MO_BURST_SIZE", 10);
+		moGeneratorThreads = getPositiveIntProperty(props,
+				"MO_GENERATOR_THREADS", 1);
 
 		Smsc.setDecodePdus(Boolean.valueOf(
 				props.getProperty("DECODE_PDUS_IN_LOG")).booleanValue());
 
+		LoggingUtilities.setTraceSystemIds(props
+				.getProperty("PDU_TRACE_SYSTEM_IDS"));
+		try {
+			LoggingUtilities.setTraceCommandIds(props
+					.getProperty("PDU_TRACE_COMMAND_IDS"));
+		} catch (NumberFormatException e) {
+			logger.severe("Invalid PDU_TRACE_COMMAND_IDS property: "
+					+ props.getProperty("PDU_TRACE_COMMAND_IDS"));
+			throw new Exception("Invalid PDU_TRACE_COMMAND_IDS property: "
+					+ props.getProperty("PDU_TRACE_COMMAND_IDS"));
+		}
+
 		setLoopback(Boolean.valueOf(props.getProperty("LOOPBACK"))
 				.booleanValue());
 
@@ -267,9 +365,25 @@ public class SMPPSim {
 				"OUTBOUND_QUEUE_MAX_SIZE", 1000);
 		messageStateCheckFrequency = getIntProperty(props,
 				"MESSAGE_STATE_CHECK_FREQUENCY", 10000);
+		lifecycleServiceThreads = getIntProperty(props,
+				"LIFECYCLE_SERVICE_THREADS", 1);
 		maxTimeEnroute = getIntProperty(props, "MAX_TIME_ENROUTE", 2000);
 		delayReceiptsBy = getLongProperty(props, "DELAY_DELIVERY_RECEIPTS_BY",
 				0);
+		delayReceiptsJitter = getLongProperty(props,
+				"DELAY_DELIVERY_RECEIPTS_JITTER", 0);
+		delayReceiptsJitterDistribution = props.getProperty(
+				"DELAY_DELIVERY_RECEIPTS_JITTER_DISTRIBUTION",
+				DelayedDrQueue.JITTER_UNIFORM).trim().toUpperCase();
+		if (!DelayedDrQueue.isValidDistribution(delayReceiptsJitterDistribution)) {
+			logger.severe("DELAY_DELIVERY_RECEIPTS_JITTER_DISTRIBUTION must be "
+					+ DelayedDrQueue.JITTER_UNIFORM + ", "
+					+ DelayedDrQueue.JITTER_EXPONENTIAL + " or "
+					+ DelayedDrQueue.JITTER_NORMAL);
+			throw new Exception(
+					"Invalid DELAY_DELIVERY_RECEIPTS_JITTER_DISTRIBUTION property: "
+							+ delayReceiptsJitterDistribution);
+		}
 		percentageThatTransition = getIntProperty(props,
 				"PERCENTAGE_THAT_TRANSITION", 75);
 		percentageDelivered = getIntProperty(props, "PERCENTAGE_DELIVERED", 90);
@@ -283,6 +397,25 @@ public class SMPPSim {
 				"DELAYED_INBOUND_QUEUE_PROCESSING_PERIOD", 60);
 		delayed_inbound_queue_max_attempts = getIntProperty(props,
 				"DELAYED_INBOUND_QUEUE_MAX_ATTEMPTS", 10);
+		mtPersistenceQueueCapacity = getIntProperty(props,
+				"MT_PERSISTENCE_QUEUE_MAX_SIZE", 10000);
+		mtPersistenceBatchSize = getIntProperty(props,
+				"MT_PERSISTENCE_BATCH_SIZE", 100);
+		mtPersistenceBatchInterval = getIntProperty(props,
+				"MT_PERSISTENCE_BATCH_INTERVAL", 200);
+		mtPersistenceOverflowPolicy = props.getProperty(
+				"MT_PERSISTENCE_OVERFLOW_POLICY",
+				MtPersistenceQueue.OVERFLOW_BLOCK).trim();
+		if (!mtPersistenceOverflowPolicy
+				.equalsIgnoreCase(MtPersistenceQueue.OVERFLOW_BLOCK)
+				&& !mtPersistenceOverflowPolicy
+						.equalsIgnoreCase(MtPersistenceQueue.OVERFLOW_DISCARD)) {
+			logger.severe("MT_PERSISTENCE_OVERFLOW_POLICY must be "
+					+ MtPersistenceQueue.OVERFLOW_BLOCK + " or "
+					+ MtPersistenceQueue.OVERFLOW_DISCARD);
+			throw new Exception("Invalid MT_PERSISTENCE_OVERFLOW_POLICY property: "
+					+ mtPersistenceOverflowPolicy);
+		}
 
 		setCaptureSmeBinary(Boolean.valueOf(
 				props.getProperty("CAPTURE_SME_BINARY")).booleanValue());
@@ -300,6 +433,28 @@ public class SMPPSim {
 				props.getProperty("CAPTURE_SMPPSIM_DECODED")).booleanValue());
 		setCaptureSmppsimDecodedToFile(props
 				.getProperty("CAPTURE_SMPPSIM_DECODED_TO_FILE"));
+		captureRecordHeaders = Boolean.valueOf(
+				props.getProperty("CAPTURE_RECORD_HEADERS")).booleanValue();
+		captureFormat = props.getProperty("CAPTURE_FORMAT",
+				PduCaptureWriter.FORMAT_STREAM).trim();
+		if (captureFormat.equals(""))
+			captureFormat = PduCaptureWriter.FORMAT_STREAM;
+		if (!captureFormat.equalsIgnoreCase(PduCaptureWriter.FORMAT_STREAM)
+				&& !captureFormat
+						.equalsIgnoreCase(PduCaptureWriter.FORMAT_INDEXED)) {
+			logger.severe("CAPTURE_FORMAT must be "
+					+ PduCaptureWriter.FORMAT_STREAM + " or "
+					+ PduCaptureWriter.FORMAT_INDEXED);
+			throw new Exception("Invalid CAPTURE_FORMAT property: "
+					+ captureFormat);
+		}
+		captureQueueCapacity = getIntProperty(props,
+				"CAPTURE_QUEUE_MAX_SIZE", 10000);
+		captureFlushInterval = getIntProperty(props,
+				"CAPTURE_FLUSH_INTERVAL", 50);
+		captureRotateSize = getIntProperty(props, "CAPTURE_ROTATE_SIZE", 0);
+		captureRotateInterval = getIntProperty(props,
+				"CAPTURE_ROTATE_INTERVAL", 0);
 
 		// Byte stream callbacks
 		callback = Boolean.valueOf(props.getProperty("CALLBACK"))
@@ -309,6 +464,28 @@ public class SMPPSim {
 			callback_port = Integer
 					.parseInt(props.getProperty("CALLBACK_PORT"));
 			callback_id = props.getProperty("CALLBACK_ID");
+			callbackQueueCapacity = getIntProperty(props,
+					"CALLBACK_QUEUE_MAX_SIZE", 10000);
+			callbackWhenFull = props.getProperty("CALLBACK_WHEN_FULL",
+					CallbackPublisher.WHEN_FULL_DROP).trim();
+			if (!callbackWhenFull
+					.equalsIgnoreCase(CallbackPublisher.WHEN_FULL_DROP)
+					&& !callbackWhenFull
+							.equalsIgnoreCase(CallbackPublisher.WHEN_FULL_BLOCK)) {
+				logger.severe("CALLBACK_WHEN_FULL must be "
+						+ CallbackPublisher.WHEN_FULL_DROP + " or "
+						+ CallbackPublisher.WHEN_FULL_BLOCK);
+				throw new Exception("Invalid CALLBACK_WHEN_FULL property: "
+						+ callbackWhenFull);
+			}
+		}
+
+		// Random number generation. Must be seeded before anything draws a
+		// random number, including the random START_MESSAGE_ID_AT below
+		String seed = props.getProperty("RANDOM_SEED", "").trim();
+		if (!seed.equals("")) {
+			randomSeed = seed;
+			SimRandom.setSeed(Long.parseLong(seed));
 		}
 
 		// Message ID allocations
@@ -317,7 +494,7 @@ public class SMPPSim {
 		if (mid_start == null || mid_start.equals(""))
 			mid_start = "0";
 		if (mid_start.equalsIgnoreCase("random")) {
-			start_at = (long) (Math.random() * 10000000);
+			start_at = SimRandom.nextInt(10000000);
 		} else
 			start_at = Long.parseLong(mid_start);
 
@@ -361,22 +538,48 @@ public class SMPPSim {
 				+ maxConnectionHandlers);
 		logger.info("=  CONNECTION_HANDLER_CLASS                :"
 				+ connectionHandlerClassName);
+		logger.info("=  SMPP_IO_THREADS                         :"
+				+ smppIoThreads);
+		logger.info("=  OUTBOUND_FLUSH_MAX_LATENCY              :"
+				+ outboundFlushMaxLatency);
+		logger.info("=  POOL_PDUS                               :"
+				+ poolPdus);
+		logger.info("=  POOL_DEBUG                              :"
+				+ poolDebug);
 		logger.info("=  PROTOCOL_HANDLER_CLASS                  :"
 				+ protocolHandlerClassName);
 		logger.info("=  LIFE_CYCLE_MANAGER                      :"
 				+ lifeCycleManagerClassName);
+		logger.info("=  RECEIVER_SELECTOR                       :"
+				+ receiverSelectorClassName);
 		logger.info("=  SMPP_CONNECTION_HANDLERS                :"
 				+ maxConnectionHandlers);
 		logger.info("=  INBOUND_QUEUE_CAPACITY                  :"
 				+ inbound_queue_capacity);
 		logger.info("=  OUTBOUND_QUEUE_CAPACITY                 :"
 				+ outbound_queue_capacity);
+		logger.info("=  MT_PERSISTENCE_QUEUE_MAX_SIZE           :"
+				+ mtPersistenceQueueCapacity);
+		logger.info("=  MT_PERSISTENCE_BATCH_SIZE               :"
+				+ mtPersistenceBatchSize);
+		logger.info("=  MT_PERSISTENCE_BATCH_INTERVAL           :"
+				+ mtPersistenceBatchInterval);
+		logger.info("=  MT_PERSISTENCE_OVERFLOW_POLICY          :"
+				+ mtPersistenceOverflowPolicy);
 		logger.info("=  MESSAGE_STATE_CHECK_FREQUENCY           :"
 				+ messageStateCheckFrequency);
+		logger.info("=  LIFECYCLE_SERVICE_THREADS               :"
+				+ lifecycleServiceThreads);
 		logger.info("=  MAX_TIME_ENROUTE                        :"
 				+ maxTimeEnroute);
 		logger.info("=  PERCENTAGE_THAT_TRANSITION              :"
 				+ percentageThatTransition);
+		logger.info("=  DELAY_DELIVERY_RECEIPTS_BY              :"
+				+ delayReceiptsBy);
+		logger.info("=  DELAY_DELIVERY_RECEIPTS_JITTER          :"
+				+ delayReceiptsJitter);
+		logger.info("=  DELAY_DELIVERY_RECEIPTS_JITTER_DISTRIBUTION:"
+				+ delayReceiptsJitterDistribution);
 		logger.info("=  PERCENTAGE_DELIVERED                    :"
 				+ percentageDelivered);
 		logger.info("=  PERCENTAGE_UNDELIVERABLE                :"
@@ -387,6 +590,8 @@ public class SMPPSim {
 				+ percentageRejected);
 		logger.info("=  DISCARD_FROM_QUEUE_AFTER                :"
 				+ discardFromQueueAfter);
+		logger.info("=  RANDOM_SEED                             :"
+				+ randomSeed);
 		logger.info("=  OUTBIND_ENABLED                         :"
 				+ outbind_enabled);
 		logger.info("=  OUTBIND_ESME_IP_ADDRESS                 :"
@@ -407,8 +612,26 @@ public class SMPPSim {
 				+ deliverMessagesPerMin);
 		logger.info("=  DELIVER_MESSAGES_FILE                   :"
 				+ deliverFile);
+		logger.info("=  MO_TEMPLATES_FILE                       :"
+				+ (moTemplatesFile == null ? "N/A" : moTemplatesFile));
+		logger.info("=  MO_RATE_PROFILE                         :"
+				+ moRateProfile);
+		logger.info("=  MO_RAMP_SECONDS                         :"
+				+ moRampSeconds);
+		logger.info("=  MO_STEP_SECONDS                         :"
+				+ moStepSeconds);
+		logger.info("=  MO_STEP_COUNT                           :"
+				+ moStepCount);
+		logger.info("=  MO_BURST_SIZE                           :"
+				+ moBurstSize);
+		logger.info("=  MO_GENERATOR_THREADS                    :"
+				+ moGeneratorThreads);
 		logger.info("=  LOOPBACK                                :"
 				+ isLoopback());
+		logger.info("=  PDU_TRACE_SYSTEM_IDS                    :"
+				+ LoggingUtilities.getTraceSystemIds());
+		logger.info("=  PDU_TRACE_COMMAND_IDS                   :"
+				+ LoggingUtilities.getTraceCommandIds());
 		logger.info("=  CAPTURE_REQUESTS_BINARY                 :"
 				+ isCaptureSmeBinary());
 		logger.info("=  CAPTURE_REQUESTS_BINARY_TO_FILE         :"
@@ -425,12 +648,28 @@ public class SMPPSim {
 				+ isCaptureSmppsimDecoded());
 		logger.info("=  CAPTURE_RESPONSES_DECODED_TO_FILE       :"
 				+ captureSmppsimDecodedToFile);
+		logger.info("=  CAPTURE_RECORD_HEADERS                  :"
+				+ captureRecordHeaders);
+		logger.info("=  CAPTURE_FORMAT                          :"
+				+ captureFormat);
+		logger.info("=  CAPTURE_QUEUE_MAX_SIZE                  :"
+				+ captureQueueCapacity);
+		logger.info("=  CAPTURE_FLUSH_INTERVAL                  :"
+				+ captureFlushInterval);
+		logger.info("=  CAPTURE_ROTATE_SIZE                     :"
+				+ captureRotateSize);
+		logger.info("=  CAPTURE_ROTATE_INTERVAL                 :"
+				+ captureRotateInterval);
 		logger.info("=  CALLBACK                                :" + callback);
 		if (callback) {
 			logger.info("=  CALLBACK_TARGET_HOST                    :"
 					+ callback_target_host);
 			logger.info("=  CALLBACK_PORT                           :"
 					+ callback_port);
+			logger.info("=  CALLBACK_QUEUE_MAX_SIZE                 :"
+					+ callbackQueueCapacity);
+			logger.info("=  CALLBACK_WHEN_FULL                      :"
+					+ callbackWhenFull);
 		}
 		logger.info("=  ");
 		logger
@@ -441,6 +680,16 @@ public class SMPPSim {
 	public SMPPSim() {
 	}
 
+	private static int getPositiveIntProperty(Properties props, String name,
+			int defaultValue) throws Exception {
+		int value = getIntProperty(props, name, defaultValue);
+		if (value < 1) {
+			logger.severe(name + " must be at least 1");
+			throw new Exception("Invalid " + name + " property: " + value);
+		}
+		return value;
+	}
+
 	private static int getIntProperty(Properties props, String name,
 			int defaultValue) {
 		String x = props.getProperty(name);
@@ -518,6 +767,55 @@ public class SMPPSim {
 		return deliverMessagesPerMin;
 	}
 
+	/**
+	 * @return the MO templates file, or null to use DELIVER_MESSAGES_FILE
+	 */
+	public static String getMoTemplatesFile() {
+		return moTemplatesFile;
+	}
+
+	/**
+	 * @return
+	 */
+	public static String getMoRateProfile() {
+		return moRateProfile;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMoRampSeconds() {
+		return moRampSeconds;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMoStepSeconds() {
+		return moStepSeconds;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMoStepCount() {
+		return moStepCount;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMoBurstSize() {
+		return moBurstSize;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMoGeneratorThreads() {
+		return moGeneratorThreads;
+	}
+
 	/**
 	 * @return
 	 */
@@ -764,6 +1062,48 @@ public class SMPPSim {
 		maxConnectionHandlers = i;
 	}
 
+	/**
+	 * @return
+	 */
+	public static int getSmppIoThreads() {
+		return smppIoThreads;
+	}
+
+	/**
+	 * @param i
+	 */
+	public static void setSmppIoThreads(int i) {
+		smppIoThreads = i;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getOutboundFlushMaxLatency() {
+		return outboundFlushMaxLatency;
+	}
+
+	/**
+	 * @return
+	 */
+	public static boolean isPoolPdus() {
+		return poolPdus;
+	}
+
+	/**
+	 * @return
+	 */
+	public static boolean isPoolDebug() {
+		return poolDebug;
+	}
+
+	/**
+	 * @param i
+	 */
+	public static void setOutboundFlushMaxLatency(int i) {
+		outboundFlushMaxLatency = i;
+	}
+
 	/**
 	 * @return
 	 */
@@ -778,6 +1118,34 @@ public class SMPPSim {
 		return outbound_queue_capacity;
 	}
 
+	/**
+	 * @return
+	 */
+	public static int getMtPersistenceQueueCapacity() {
+		return mtPersistenceQueueCapacity;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMtPersistenceBatchSize() {
+		return mtPersistenceBatchSize;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getMtPersistenceBatchInterval() {
+		return mtPersistenceBatchInterval;
+	}
+
+	/**
+	 * @return
+	 */
+	public static String getMtPersistenceOverflowPolicy() {
+		return mtPersistenceOverflowPolicy;
+	}
+
 	/**
 	 * @return
 	 */
@@ -785,6 +1153,24 @@ public class SMPPSim {
 		return lifeCycleManagerClassName;
 	}
 
+	/**
+	 * @return
+	 */
+	public static String getReceiverSelectorClassName() {
+		return receiverSelectorClassName;
+	}
+
+	/**
+	 * @return the RECEIVER_WEIGHTS entry for systemid, or 1 if it is not one
+	 *         of the SYSTEM_IDS
+	 */
+	public static int getReceiverWeight(String systemid) {
+		for (int i = 0; i < systemids.length; i++)
+			if (systemids[i].equals(systemid))
+				return receiverWeights[i];
+		return 1;
+	}
+
 	/**
 	 * @return
 	 */
@@ -792,6 +1178,13 @@ public class SMPPSim {
 		return messageStateCheckFrequency;
 	}
 
+	/**
+	 * @return
+	 */
+	public static int getLifecycleServiceThreads() {
+		return lifecycleServiceThreads;
+	}
+
 	/**
 	 * @return
 	 */
@@ -862,6 +1255,62 @@ public class SMPPSim {
 		return docroot;
 	}
 
+	/**
+	 * @return
+	 */
+	public static boolean isCaptureRecordHeaders() {
+		return captureRecordHeaders;
+	}
+
+	/**
+	 * @return
+	 */
+	public static String getCaptureFormat() {
+		return captureFormat;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getCaptureQueueCapacity() {
+		return captureQueueCapacity;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getCallbackQueueCapacity() {
+		return callbackQueueCapacity;
+	}
+
+	/**
+	 * @return
+	 */
+	public static String getCallbackWhenFull() {
+		return callbackWhenFull;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getCaptureFlushInterval() {
+		return captureFlushInterval;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getCaptureRotateSize() {
+		return captureRotateSize;
+	}
+
+	/**
+	 * @return
+	 */
+	public static int getCaptureRotateInterval() {
+		return captureRotateInterval;
+	}
+
 	/**
 	 * @return
 	 */
@@ -1087,6 +1536,14 @@ public class SMPPSim {
 		return delayReceiptsBy;
 	}
 
+	public static long getDelayReceiptsJitter() {
+		return delayReceiptsJitter;
+	}
+
+	public static String getDelayReceiptsJitterDistribution() {
+		return delayReceiptsJitterDistribution;
+	}
+
 	public static boolean isEsme_to_esme() {
 		return esme_to_esme;
 	}
@@ -1118,4 +1575,12 @@ public class SMPPSim {
 		
         return props;
     }
+
+	/**
+	 * @return the RANDOM_SEED setting, or an empty string if unseeded
+	 */
+	public static String getRandomSeed() {
+		return randomSeed;
+	}
+
 }
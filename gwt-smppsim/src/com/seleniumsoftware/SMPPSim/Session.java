@@ -27,10 +27,15 @@
 
 package com.seleniumsoftware.SMPPSim;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Session {
+	private static AtomicInteger lastId = new AtomicInteger();
+	final int id = lastId.incrementAndGet();
 	boolean isBound = false;
 	boolean isReceiver = false;
 	boolean isTransmitter = false;
+	String system_id = null;
 
 	public Session() {
 	}
@@ -77,4 +82,26 @@ public class Session {
 		isTransmitter = b;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * @return a number identifying this session in PDU capture files. Unique
+	 *         for the life of the simulator.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the system_id the session bound with, or null if it has not bound
+	 */
+	public String getSystem_id() {
+		return system_id;
+	}
+
+	/**
+	 * @param string
+	 */
+	public void setSystem_id(String string) {
+		system_id = string;
+	}
+
+}
@@ -28,14 +28,15 @@
 package com.seleniumsoftware.SMPPSim;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.exceptions.InboundQueueFullException;
@@ -47,6 +48,7 @@ import com.seleniumsoftware.SMPPSim.pdu.DataSM;
 import com.seleniumsoftware.SMPPSim.pdu.DeliverSM;
 import com.seleniumsoftware.SMPPSim.pdu.DeliveryReceipt;
 import com.seleniumsoftware.SMPPSim.pdu.Outbind;
+import com.seleniumsoftware.SMPPSim.pdu.Pdu;
 import com.seleniumsoftware.SMPPSim.pdu.PduConstants;
 import com.seleniumsoftware.SMPPSim.pdu.QuerySM;
 import com.seleniumsoftware.SMPPSim.pdu.QuerySMResp;
@@ -54,6 +56,8 @@ import com.seleniumsoftware.SMPPSim.pdu.ReplaceSM;
 import com.seleniumsoftware.SMPPSim.pdu.ReplaceSMResp;
 import com.seleniumsoftware.SMPPSim.pdu.SubmitSM;
 import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.SmppTimeCodec;
+import com.seleniumsoftware.SMPPSim.util.AllocationMonitor;
 import com.seleniumsoftware.SMPPSim.util.LoggingUtilities;
 
 public class Smsc {
@@ -77,7 +81,9 @@ public class Smsc {
 
 	private static boolean decodePdus;
 
-	private int receiverIndex = 0;
+	private ReceiverIndex receivers = new ReceiverIndex();
+
+	private ReceiverSelector receiverSelector;
 
 	private StandardConnectionHandler[] connectionHandlers;
 
@@ -95,11 +101,13 @@ public class Smsc {
 
 	private OutboundQueue oq;
 
+	private MtPersistenceQueue mtpq;
+
 	private DelayedDrQueue drq;
 
 	private LifeCycleManager lcm;
 
-	private Thread lifecycleService;
+	private Thread[] lifecycleServices;
 
 	private Thread inboundQueueService;
 
@@ -109,21 +117,7 @@ public class Smsc {
 
 	// PDU capture
 
-	private File smeBinaryFile;
-
-	private FileOutputStream smeBinary;
-
-	private File smppsimBinaryFile;
-
-	private FileOutputStream smppsimBinary;
-
-	private File smeDecodedFile;
-
-	private FileWriter smeDecoded;
-
-	private File smppsimDecodedFile;
-
-	private FileWriter smppsimDecoded;
+	private PduCaptureWriter capture;
 
 	// Stats
 
@@ -193,6 +187,23 @@ public class Smsc {
 
 	private long outbindERR = 0;
 
+	// socket write coalescing: number of flushes and the PDUs they carried
+
+	private AtomicLong outboundFlushes = new AtomicLong();
+
+	private AtomicLong outboundFlushedPdus = new AtomicLong();
+
+	// connection handlers that have buffered output since they were last
+	// visited by flushOutboundWrites
+	private ConcurrentHashMap<StandardConnectionHandler, Boolean> pendingWrites = new ConcurrentHashMap<StandardConnectionHandler, Boolean>();
+
+	// PDUs received on all sessions, and heap allocated since start, for the
+	// bytes allocated per PDU figure
+
+	private AtomicLong pdusReceived = new AtomicLong();
+
+	private long allocatedAtStart = 0;
+
 	// outbind
 
 	boolean outbind_sent = false;
@@ -211,42 +222,44 @@ public class Smsc {
 		startTime = new Date();
 		SimpleDateFormat df = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss");
 		startTimeString = df.format(startTime);
+		allocatedAtStart = AllocationMonitor.getAllocatedBytes();
 
 		message_id = SMPPSim.getStart_at();
 
 		if (SMPPSim.isCallback()) {
-			connectToCallbackServer(new Object());
-		}
-
-		if (SMPPSim.isCaptureSmeBinary()) {
-			System.out.println("Creating smeBinaryCapture file");
-			smeBinaryFile = new File(SMPPSim.getCaptureSmeBinaryToFile());
-			smeBinaryFile.delete();
-			System.out.println(smeBinaryFile.createNewFile());
-			smeBinary = new FileOutputStream(smeBinaryFile);
+			final CallbackPublisher publisher = CallbackPublisher.getInstance();
+			publisher.start();
+			Runtime.getRuntime().addShutdownHook(
+					new Thread("CALLBACK-DRAIN") {
+						public void run() {
+							publisher.drain();
+						}
+					});
 		}
 
-		if (SMPPSim.isCaptureSmppsimBinary()) {
-			smppsimBinaryFile = new File(SMPPSim
+		capture = PduCaptureWriter.getInstance();
+		if (SMPPSim.isCaptureSmeBinary())
+			capture.open(PduCaptureWriter.SME_BINARY, SMPPSim
+					.getCaptureSmeBinaryToFile());
+		if (SMPPSim.isCaptureSmppsimBinary())
+			capture.open(PduCaptureWriter.SMPPSIM_BINARY, SMPPSim
 					.getCaptureSmppsimBinaryToFile());
-			smppsimBinaryFile.delete();
-			smppsimBinaryFile.createNewFile();
-			smppsimBinary = new FileOutputStream(smppsimBinaryFile);
-		}
-
-		if (SMPPSim.isCaptureSmeDecoded()) {
-			smeDecodedFile = new File(SMPPSim.getCaptureSmeDecodedToFile());
-			smeDecodedFile.delete();
-			smeDecodedFile.createNewFile();
-			smeDecoded = new FileWriter(smeDecodedFile);
-		}
-
-		if (SMPPSim.isCaptureSmppsimDecoded()) {
-			smppsimDecodedFile = new File(SMPPSim
+		if (SMPPSim.isCaptureSmeDecoded())
+			capture.open(PduCaptureWriter.SME_DECODED, SMPPSim
+					.getCaptureSmeDecodedToFile());
+		if (SMPPSim.isCaptureSmppsimDecoded())
+			capture.open(PduCaptureWriter.SMPPSIM_DECODED, SMPPSim
 					.getCaptureSmppsimDecodedToFile());
-			smppsimDecodedFile.delete();
-			smppsimDecodedFile.createNewFile();
-			smppsimDecoded = new FileWriter(smppsimDecodedFile);
+		if (SMPPSim.isCaptureSmeBinary() || SMPPSim.isCaptureSmppsimBinary()
+				|| SMPPSim.isCaptureSmeDecoded()
+				|| SMPPSim.isCaptureSmppsimDecoded()) {
+			capture.start();
+			Runtime.getRuntime().addShutdownHook(
+					new Thread("CAPTURE-DRAIN") {
+						public void run() {
+							capture.drain();
+						}
+					});
 		}
 
 		iq = InboundQueue.getInstance();
@@ -254,29 +267,24 @@ public class Smsc {
 		Class cl = Class.forName(SMPPSim.getLifeCycleManagerClassName());
 		lcm = (LifeCycleManager) cl.newInstance();
 
+		Class rsc = Class.forName(SMPPSim.getReceiverSelectorClassName());
+		receiverSelector = (ReceiverSelector) rsc.newInstance();
+
+		mtpq = MtPersistenceQueue.getInstance();
+		mtpq.start();
+		Runtime.getRuntime().addShutdownHook(new Thread("MTPERSIST-DRAIN") {
+			public void run() {
+				mtpq.drain();
+			}
+		});
+
 		oq = new OutboundQueue(outbound_queue_capacity);
 
-		Thread smppThread[] = new Thread[SMPPSim.getMaxConnectionHandlers()];
-		int threadIndex = 0;
-		connectionHandlers = new StandardConnectionHandler[SMPPSim
-				.getMaxConnectionHandlers()];
-		try {
-			smpp_ss = new ServerSocket(SMPPSim.getSmppPort(), 10);
-		} catch (Exception e) {
-			logger.severe("Exception creating SMPP server: " + e.toString());
-			e.printStackTrace();
-			throw e;
-		}
-		for (int i = 0; i < SMPPSim.getMaxConnectionHandlers(); i++) {
-			Class c = Class.forName(SMPPSim.getConnectionHandlerClassName());
-			StandardConnectionHandler ch = (StandardConnectionHandler) c
-					.newInstance();
-			ch.setSs(smpp_ss);
-			connectionHandlers[threadIndex] = ch;
-			smppThread[threadIndex] = new Thread(
-					connectionHandlers[threadIndex], "CH" + threadIndex);
-			smppThread[threadIndex].start();
-			threadIndex++;
+		Class chc = Class.forName(SMPPSim.getConnectionHandlerClassName());
+		if (NioConnectionHandler.class.isAssignableFrom(chc)) {
+			startNioServer(chc);
+		} else {
+			startConnectionHandlerThreads(chc);
 		}
 
 		try {
@@ -303,8 +311,12 @@ public class Smsc {
 		inboundQueueService.start();
 
 		// LifeCycleService (OutboundQueue) must always be running
-		lifecycleService = new Thread(oq);
-		lifecycleService.start();
+		lifecycleServices = new Thread[oq.getLifecycleShards()];
+		for (int i = 0; i < lifecycleServices.length; i++) {
+			lifecycleServices[i] = new Thread(oq.getLifecycleWorker(i), "LC"
+					+ i);
+			lifecycleServices[i].start();
+		}
 
 		if (SMPPSim.getDelayReceiptsBy() > 0) {
 			logger.info("Starting delivery receipts delay service....");
@@ -314,6 +326,55 @@ public class Smsc {
 		}
 	}
 
+	// Classic model: one thread per connection handler, each blocking in
+	// accept() and then in read() for the life of its connection
+	private void startConnectionHandlerThreads(Class c) throws Exception {
+		Thread smppThread[] = new Thread[SMPPSim.getMaxConnectionHandlers()];
+		int threadIndex = 0;
+		connectionHandlers = new StandardConnectionHandler[SMPPSim
+				.getMaxConnectionHandlers()];
+		try {
+			smpp_ss = new ServerSocket(SMPPSim.getSmppPort(), 10);
+		} catch (Exception e) {
+			logger.severe("Exception creating SMPP server: " + e.toString());
+			e.printStackTrace();
+			throw e;
+		}
+		for (int i = 0; i < SMPPSim.getMaxConnectionHandlers(); i++) {
+			StandardConnectionHandler ch = (StandardConnectionHandler) c
+					.newInstance();
+			ch.setSs(smpp_ss);
+			connectionHandlers[threadIndex] = ch;
+			smppThread[threadIndex] = new Thread(
+					connectionHandlers[threadIndex], "CH" + threadIndex);
+			smppThread[threadIndex].start();
+			threadIndex++;
+		}
+	}
+
+	// Non-blocking model: SMPP_CONNECTION_HANDLERS handler objects with no
+	// threads of their own, serviced by SMPP_IO_THREADS selector threads
+	private void startNioServer(Class c) throws Exception {
+		connectionHandlers = new StandardConnectionHandler[SMPPSim
+				.getMaxConnectionHandlers()];
+		for (int i = 0; i < SMPPSim.getMaxConnectionHandlers(); i++) {
+			connectionHandlers[i] = (StandardConnectionHandler) c
+					.newInstance();
+		}
+		NioSmppServer server;
+		try {
+			server = new NioSmppServer(SMPPSim.getSmppPort(),
+					connectionHandlers, SMPPSim.getSmppIoThreads());
+		} catch (Exception e) {
+			logger.severe("Exception creating SMPP server: " + e.toString());
+			e.printStackTrace();
+			throw e;
+		}
+		smpp_ss = server.getServerSocketChannel().socket();
+		Thread acceptor = new Thread(server, "NIOACCEPT");
+		acceptor.start();
+	}
+
 	public boolean authenticate(String systemid, String password) {
 
 		for (int i = 0; i < SMPPSim.getSystemids().length; i++) {
@@ -335,19 +396,13 @@ public class Smsc {
 		return false;
 	}
 
-	public void connectToCallbackServer(Object mutex) {
-		CallbackServerConnector cbs = new CallbackServerConnector(mutex);
-		Thread cbst = new Thread(cbs);
-		cbst.start();
-	}
-
 	public synchronized static String getMessageID() {
 		long msgID = message_id++;
 		String msgIDstr = SMPPSim.getMid_prefix() + Long.toString(msgID);
 		return msgIDstr;
 	}
 
-	public static int getNextSequence_No() {
+	public synchronized static int getNextSequence_No() {
 		sequence_no++;
 		return sequence_no;
 	}
@@ -411,22 +466,19 @@ public class Smsc {
 			int source_addr_npi, String source_addr, int dest_addr_ton,
 			int dest_addr_npi, String destination_addr) {
 
-		Object[] messages = oq.getAllMessageStates();
+		// only messages on this route are candidates
+		Object[] messages = oq.getMessageStatesByRoute(source_addr_ton,
+				source_addr_npi, source_addr, dest_addr_ton, dest_addr_npi,
+				destination_addr);
 		MessageState m;
 		int s = messages.length;
 		int c = 0;
 		for (int i = 0; i < s; i++) {
 			m = (MessageState) messages[i];
-			if (m.getPdu().getService_type().equals(service_type)
-					&& m.getPdu().getSource_addr_ton() == source_addr_ton
-					&& m.getPdu().getSource_addr_npi() == source_addr_npi
-					&& m.getPdu().getSource_addr().equals(source_addr)
-					&& m.getPdu().getDest_addr_ton() == dest_addr_ton
-					&& m.getPdu().getDest_addr_npi() == dest_addr_npi
-					&& m.getPdu().getDestination_addr()
-							.equals(destination_addr)) {
-				c++;
-				oq.removeMessageState(m);
+			if (m.getPdu().getService_type().equals(service_type)) {
+				// it may have been cancelled or discarded meanwhile
+				if (oq.removeMessageState(m))
+					c++;
 			}
 		}
 		return c;
@@ -435,22 +487,14 @@ public class Smsc {
 	private int cancelMessages(int source_addr_ton, int source_addr_npi,
 			String source_addr, int dest_addr_ton, int dest_addr_npi,
 			String destination_addr) {
-		Object[] messages = oq.getAllMessageStates();
-		MessageState m;
+		Object[] messages = oq.getMessageStatesByRoute(source_addr_ton,
+				source_addr_npi, source_addr, dest_addr_ton, dest_addr_npi,
+				destination_addr);
 		int s = messages.length;
 		int c = 0;
 		for (int i = 0; i < s; i++) {
-			m = (MessageState) messages[i];
-			if (m.getPdu().getSource_addr_ton() == source_addr_ton
-					&& m.getPdu().getSource_addr_npi() == source_addr_npi
-					&& m.getPdu().getSource_addr().equals(source_addr)
-					&& m.getPdu().getDest_addr_ton() == dest_addr_ton
-					&& m.getPdu().getDest_addr_npi() == dest_addr_npi
-					&& m.getPdu().getDestination_addr()
-							.equals(destination_addr)) {
+			if (oq.removeMessageState((MessageState) messages[i]))
 				c++;
-				oq.removeMessageState(m);
-			}
 		}
 		return c;
 	}
@@ -476,7 +520,21 @@ public class Smsc {
 		return r;
 	}
 
-	public synchronized void receiverUnbound() {
+	/**
+	 * Makes a newly bound receiver or transceiver available to selectReceiver
+	 * for messages addressed to its address range.
+	 */
+	public void receiverBound(StandardConnectionHandler receiver,
+			AddressRange range) {
+		receiver.resetReceiverState(SMPPSim.getReceiverWeight(receiver
+				.getSystemId()));
+		receiverSelector.receiverBound(receiver);
+		receivers.add(receiver, range);
+	}
+
+	public synchronized void receiverUnbound(StandardConnectionHandler receiver) {
+		receivers.remove(receiver);
+		receiverSelector.receiverUnbound(receiver);
 		SMPPSim.decrementBoundReceiverCount();
 		SMPPSim.showReceiverCount();
 		if (SMPPSim.getBoundReceiverCount() == 0) {
@@ -488,33 +546,96 @@ public class Smsc {
 		return SMPPSim.getBoundReceiverCount();
 	}
 
+	/**
+	 * Picks one of the bound receivers whose address range matches address,
+	 * as decided by the RECEIVER_SELECTOR.
+	 */
 	public StandardConnectionHandler selectReceiver(String address) {
-		boolean gotReceiver = false;
-		int receiversChecked = 0;
 		logger.finest("Smsc: selectReceiver");
-		do {
-			receiverIndex = getNextReceiverIndex();
-			if ((connectionHandlers[receiverIndex].isBound())
-					&& (connectionHandlers[receiverIndex].isReceiver())
-					&& (connectionHandlers[receiverIndex]
-							.addressIsServicedByReceiver(address))) {
-				gotReceiver = true;
-			} else {
-				receiversChecked++;
-			}
-		} while ((!gotReceiver)
-				&& (receiversChecked <= SMPPSim.getMaxConnectionHandlers()));
-
-		logger.finest("Smsc: Using SMPPReceiver object #" + receiverIndex);
-		if (gotReceiver) {
-			return connectionHandlers[receiverIndex];
-		} else {
+		StandardConnectionHandler[] eligible = receivers.lookup(address);
+		StandardConnectionHandler receiver = null;
+		if (eligible.length > 0)
+			receiver = receiverSelector.select(eligible);
+		if (receiver == null)
 			logger.warning("Smsc: No receiver for message address to "
 					+ address);
-			return null;
+		return receiver;
+	}
+
+	/**
+	 * Flushes any output buffered by the connection handlers. Called by the
+	 * InboundQueue service once it has written a batch of DELIVER_SMs. Only
+	 * the handlers that have reported buffered output are visited.
+	 */
+	public void flushOutboundWrites() {
+		Iterator<StandardConnectionHandler> i = pendingWrites.keySet()
+				.iterator();
+		while (i.hasNext()) {
+			StandardConnectionHandler handler = i.next();
+			// removed first, so output buffered from here on registers again
+			i.remove();
+			if (handler.isConnected()) {
+				try {
+					handler.flushWrites();
+				} catch (IOException e) {
+					logger.warning("Could not flush output to session "
+							+ handler.getSessionId() + ": " + e.getMessage());
+				}
+			}
 		}
 	}
 
+	/**
+	 * Called by a connection handler when it starts buffering output, so
+	 * that flushOutboundWrites will flush it.
+	 */
+	void outboundWritePending(StandardConnectionHandler handler) {
+		pendingWrites.put(handler, Boolean.TRUE);
+	}
+
+	public void recordOutboundFlush(int pdus) {
+		outboundFlushes.incrementAndGet();
+		outboundFlushedPdus.addAndGet(pdus);
+	}
+
+	public long getOutboundFlushes() {
+		return outboundFlushes.get();
+	}
+
+	public long getOutboundFlushedPdus() {
+		return outboundFlushedPdus.get();
+	}
+
+	public void incPdusReceived() {
+		pdusReceived.incrementAndGet();
+	}
+
+	public long getPdusReceived() {
+		return pdusReceived.get();
+	}
+
+	/**
+	 * @return average heap allocation per PDU received since SMPPSim started,
+	 *         by all threads, or -1 if the JVM does not report allocation
+	 */
+	public long getAllocatedBytesPerPdu() {
+		long allocated = AllocationMonitor.getAllocatedBytes();
+		long pdus = pdusReceived.get();
+		if (allocated < 0 || allocatedAtStart < 0 || pdus == 0)
+			return -1;
+		return Math.max(0, allocated - allocatedAtStart) / pdus;
+	}
+
+	/**
+	 * @return average number of PDUs written to the network per socket flush
+	 */
+	public double getAveragePdusPerFlush() {
+		long flushes = outboundFlushes.get();
+		if (flushes == 0)
+			return 0;
+		return (double) outboundFlushedPdus.get() / flushes;
+	}
+
 	public void doLoopback(SubmitSM smppmsg) throws InboundQueueFullException {
 		DeliverSM newMessage = new DeliverSM(smppmsg);
 		iq.addMessage(newMessage);
@@ -540,6 +661,7 @@ public class Smsc {
 			Outbind outbind = new Outbind(SMPPSim.getEsme_systemid(), SMPPSim
 					.getEsme_password());
 			byte[] outbind_bytes = outbind.marshall();
+			LoggingUtilities.setTraceSession(SMPPSim.getEsme_systemid());
 			LoggingUtilities.hexDump(": OUTBIND:", outbind_bytes,
 					outbind_bytes.length);
 			if (Smsc.isDecodePdus())
@@ -564,9 +686,8 @@ public class Smsc {
 		if (state == PduConstants.ENROUTE)
 			esm_class = 32;
 		DeliveryReceipt receipt = new DeliveryReceipt(smppmsg, esm_class);
-		Date rightNow = new Date();
-		SimpleDateFormat df = new SimpleDateFormat("yyMMddHHmm");
-		String dateAsString = df.format(rightNow);
+		String dateAsString = SmppTimeCodec.formatMinutes(System
+				.currentTimeMillis());
 		receipt.setMessage_id(messageID);
 		String s = "000" + sub;
 		int l = s.length();
@@ -596,15 +717,6 @@ public class Smsc {
 		}
 	}
 
-	private synchronized int getNextReceiverIndex() {
-		if (receiverIndex == (SMPPSim.getMaxConnectionHandlers() - 1)) {
-			receiverIndex = 0;
-		} else {
-			receiverIndex++;
-		}
-		return receiverIndex;
-	}
-
 	public byte[] processDeliveryReceipt(DeliveryReceipt smppmsg)
 			throws Exception {
 		byte[] message;
@@ -638,32 +750,30 @@ public class Smsc {
 		// TODO implement stop action
 	}
 
-	public void writeBinarySme(byte[] request) throws IOException {
-		if (SMPPSim.isCaptureSmeBinary()) {
-			smeBinary.write(request);
-			smeBinary.flush();
-		}
+	// PDU capture. The PDUs are queued for the capture writer thread.
+	// Decoded PDUs are only formatted if that capture is enabled.
+
+	public void writeBinarySme(int session, byte[] request) {
+		if (SMPPSim.isCaptureSmeBinary())
+			capture.captureBinary(PduCaptureWriter.SME_BINARY, session, request);
 	}
 
-	public void writeBinarySmppsim(byte[] response) throws IOException {
-		if (SMPPSim.isCaptureSmppsimBinary()) {
-			smppsimBinary.write(response);
-			smppsimBinary.flush();
-		}
+	public void writeBinarySmppsim(int session, byte[] response) {
+		if (SMPPSim.isCaptureSmppsimBinary())
+			capture.captureBinary(PduCaptureWriter.SMPPSIM_BINARY, session,
+					response);
 	}
 
-	public void writeDecodedSme(String request) throws IOException {
-		if (SMPPSim.isCaptureSmeDecoded()) {
-			smeDecoded.write(request + "\n");
-			smeDecoded.flush();
-		}
+	public void writeDecodedSme(int session, Pdu request) {
+		if (SMPPSim.isCaptureSmeDecoded())
+			capture.captureDecoded(PduCaptureWriter.SME_DECODED, session,
+					request.toString());
 	}
 
-	public void writeDecodedSmppsim(String response) throws IOException {
-		if (SMPPSim.isCaptureSmppsimDecoded()) {
-			smppsimDecoded.write(response + "\n");
-			smppsimDecoded.flush();
-		}
+	public void writeDecodedSmppsim(int session, Pdu response) {
+		if (SMPPSim.isCaptureSmppsimDecoded())
+			capture.captureDecoded(PduCaptureWriter.SMPPSIM_DECODED, session,
+					response.toString());
 	}
 
 	/**
@@ -743,6 +853,10 @@ public class Smsc {
 		return oq;
 	}
 
+	public MtPersistenceQueue getMtPersistenceQueue() {
+		return mtpq;
+	}
+
 	/**
 	 * @return
 	 */
@@ -761,6 +875,10 @@ public class Smsc {
 		return iq.pending_size();
 	}
 
+	public int getDelayed_dr_queue_size() {
+		return (drq == null) ? 0 : drq.size();
+	}
+
 	/**
 	 * @return
 	 */
@@ -1144,60 +1262,20 @@ public class Smsc {
 		return unbindOK;
 	}
 
-	public synchronized void sent(byte[] pdu) {
-		byte[] type = PduUtilities.makeByteArrayFromInt(2, 1);
-		callback(pdu, type);
-	}
-
-	public synchronized void received(byte[] pdu) {
-		byte[] type = PduUtilities.makeByteArrayFromInt(1, 1);
-		callback(pdu, type);
+	/**
+	 * Mirrors a PDU sent to an ESME to the callback server. Returns as soon
+	 * as the PDU has been queued; see CallbackPublisher.
+	 */
+	public void sent(byte[] pdu) {
+		CallbackPublisher.getInstance().sent(pdu);
 	}
 
-	private void callback(byte[] pdu, byte[] type) {
-		logger.finest("callback - start of operation");
-		if (pdu == null)
-			return;
-		if (type == null)
-			return;
-		byte[] result = new byte[pdu.length + 9];
-		byte[] id = new byte[4];
-		try {
-			id = SMPPSim.getCallback_id().getBytes("ASCII");
-		} catch (Exception e) {
-			;
-		}
-		byte[] length = PduUtilities.makeByteArrayFromInt(pdu.length + 9, 4);
-		System.arraycopy(length, 0, result, 0, 4);
-		System.arraycopy(type, 0, result, 4, 1);
-		System.arraycopy(id, 0, result, 5, 4);
-		System.arraycopy(pdu, 0, result, 9, pdu.length);
-		try {
-			callback_stream.write(result);
-			logger.info("callback - written stream to callback connection");
-		} catch (IOException ioe) {
-			// assume connection gone
-			logger.info("Reconnecting to callback server");
-			boolean sentOK = false;
-			Object callbackMutex = new Object();
-			connectToCallbackServer(callbackMutex);
-			try {
-				Thread.sleep(500);
-			} catch (Exception e) {
-			}
-			// and send again
-			synchronized (callbackMutex) {
-				while (!sentOK) {
-					try {
-						callback_stream.write(result);
-						sentOK = true;
-					} catch (IOException ioe2) {
-						connectToCallbackServer(callbackMutex);
-					}
-				}
-			}
-		}
-		logger.finest("callback - end of operation");
+	/**
+	 * Mirrors a PDU received from an ESME to the callback server. Returns as
+	 * soon as the PDU has been queued; see CallbackPublisher.
+	 */
+	public void received(byte[] pdu) {
+		CallbackPublisher.getInstance().received(pdu);
 	}
 
 	public static synchronized boolean isCallback_server_online() {
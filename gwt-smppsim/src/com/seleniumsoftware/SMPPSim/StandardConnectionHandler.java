@@ -27,29 +27,44 @@
 
 package com.seleniumsoftware.SMPPSim;
 
-import java.io.EOFException;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class StandardConnectionHandler implements Runnable {
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
+
+	private static final int WRITE_BUFFER_SIZE = 8192;
 	private Smsc smsc = Smsc.getInstance();
 	private StandardProtocolHandler handler;
-	boolean isConnected = false;
+	volatile boolean isConnected = false;
 	byte[] response;
-	byte[] packetLen = new byte[4];
 	byte[] message;
 	private ServerSocket ss;
 	// reference to relevant server socket set up in SMPPSim
 	InputStream is = null;
 	OutputStream os = null;
 	Socket socket = null;
+	PduFrameReader reader = null;
+	// null unless POOL_PDUS is set
+	private PduPool pool = null;
+	// Responses are written into a buffered stream and flushed once the PDUs
+	// that are already waiting to be read have been processed, rather than
+	// after each one. See flushWrites()
+	private Object writeLock = new Object();
+	private int pendingPdus = 0;
+	private long firstPendingAt = 0;
+	// Receiver state used by the ReceiverSelector
+	private AtomicInteger outstandingDeliverSms = new AtomicInteger();
+	private volatile int receiverWeight = 1;
 
 	public StandardConnectionHandler() {
 		// default constructor only included so that configurable
@@ -79,7 +94,13 @@ public class StandardConnectionHandler implements Runnable {
 							.info("StandardConnectionHandler accepted a connection");
 					isConnected = true;
 					is = socket.getInputStream();
-					os = socket.getOutputStream();
+					synchronized (writeLock) {
+						os = new BufferedOutputStream(socket.getOutputStream(),
+								WRITE_BUFFER_SIZE);
+						pendingPdus = 0;
+					}
+					reader = new PduFrameReader(is);
+					pool = newPool();
 					Class c = Class.forName(SMPPSim
 							.getProtocolHandlerClassName());
 					handler = (StandardProtocolHandler) c.newInstance();
@@ -106,20 +127,28 @@ public class StandardConnectionHandler implements Runnable {
 			{
 				try {
 					logger.finest("at start of main loop");
-					readPacketInto(is);
-					smsc.writeBinarySme(message);
-					if (SMPPSim.isCallback() && smsc.isCallback_server_online()) {
-						smsc.sent(response);
-					}
+					ByteBuffer frame = null;
+					if (pool != null && pool.isPoolingFrames()) {
+						frame = reader.readFrame(pool);
+						message = frame.array();
+					} else
+						message = reader.readFrame();
+					smsc.writeBinarySme(handler.getSession().getId(), message);
 					logger.finest("read packet");
 					handler.processMessage(message);
+					if (frame != null)
+						pool.release(frame);
+					if (pool != null)
+						pool.checkLeaks();
+					if (isConnected && reader.available() == 0)
+						flushWrites();
 				} catch (SocketException se) {
 					logger
 							.info("Socket exception: probably connection closed by client without UNBIND");
 					se.printStackTrace();
 					handler.getSession().setBound(false);
 					if (handler.getSession().isReceiver())
-						smsc.receiverUnbound();
+						smsc.receiverUnbound(this);
 					isConnected = false;
 				} catch (Exception exception) {
 					logger.info(exception.getMessage());
@@ -131,6 +160,9 @@ public class StandardConnectionHandler implements Runnable {
 								.warning("Could not close socket following exception");
 						e.printStackTrace();
 					}
+					if (handler.getSession().isBound()
+							&& handler.getSession().isReceiver())
+						smsc.receiverUnbound(this);
 					handler.getSession().setBound(false);
 					isConnected = false;
 				}
@@ -153,6 +185,49 @@ public class StandardConnectionHandler implements Runnable {
 		return handler.getSession().isReceiver();
 	}
 
+	protected String getSystemId() {
+		return handler.getSession().getSystem_id();
+	}
+
+	protected int getSessionId() {
+		return handler.getSession().getId();
+	}
+
+	/**
+	 * @return the number of DELIVER_SMs written to this receiver that have
+	 *         not yet been answered
+	 */
+	public int getOutstandingDeliverSms() {
+		return outstandingDeliverSms.get();
+	}
+
+	void deliverSmSent() {
+		outstandingDeliverSms.incrementAndGet();
+	}
+
+	void deliverSmResponded() {
+		int n;
+		do {
+			n = outstandingDeliverSms.get();
+		} while (n > 0 && !outstandingDeliverSms.compareAndSet(n, n - 1));
+	}
+
+	/**
+	 * @return the RECEIVER_WEIGHTS entry for the system_id this receiver bound
+	 *         with
+	 */
+	public int getReceiverWeight() {
+		return receiverWeight;
+	}
+
+	/**
+	 * Called when the receiver binds.
+	 */
+	void resetReceiverState(int weight) {
+		receiverWeight = weight;
+		outstandingDeliverSms.set(0);
+	}
+
 	// TODO Review why addressIsServicedByReceiver is in the
 	// StandardConnectionHandler class?!
 	protected boolean addressIsServicedByReceiver(String address) {
@@ -163,54 +238,71 @@ public class StandardConnectionHandler implements Runnable {
 		}
 	}
 
-	private static final int getBytesAsInt(byte i_byte) {
-		return i_byte & 0xff;
+	/**
+	 * @return a new PduPool for a connection if POOL_PDUS is set, else null.
+	 *         Buffers that PDU capture or the connection itself still refer
+	 *         to after a PDU has been processed are left out of the pool.
+	 */
+	protected PduPool newPool() {
+		if (!SMPPSim.isPoolPdus())
+			return null;
+		return new PduPool(!SMPPSim.isCaptureSmeBinary(), copiesResponses()
+				&& !SMPPSim.isCaptureSmppsimBinary(), SMPPSim.isPoolDebug());
 	}
 
-	private int readPacketInto(InputStream is) throws IOException {
-		logger.finest("starting readPacketInto");
-		// Read the length of the incoming packet...
-		int len;
+	protected PduPool getPool() {
+		return pool;
+	}
 
-		logger.finest("reading cmd_len");
-		packetLen[0] = (byte) is.read();
-		packetLen[1] = (byte) is.read();
-		packetLen[2] = (byte) is.read();
-		packetLen[3] = (byte) is.read();
-		logger.finest("Got cmd_len");
+	protected void setPool(PduPool pool) {
+		this.pool = pool;
+	}
 
-		// put that into the packet header
-		len = (getBytesAsInt(packetLen[0]) << 24)
-				| (getBytesAsInt(packetLen[1]) << 16)
-				| (getBytesAsInt(packetLen[2]) << 8)
-				| (getBytesAsInt(packetLen[3]));
+	/**
+	 * @return true if writeResponse() has finished with the array it is given
+	 *         by the time it returns, so the array may be reused
+	 */
+	protected boolean copiesResponses() {
+		return true;
+	}
 
-		if (packetLen[3] == -1) {
-			logger.warning("packetLen[3] == -1, throwing EOFException");
-			throw new EOFException();
+	protected void writeResponse(byte[] response) throws IOException {
+		long now = System.currentTimeMillis();
+		synchronized (writeLock) {
+			os.write(response);
+			if (pendingPdus == 0) {
+				firstPendingAt = now;
+				smsc.outboundWritePending(this);
+			}
+			pendingPdus++;
+			if (now - firstPendingAt >= SMPPSim.getOutboundFlushMaxLatency())
+				flushWrites();
 		}
-
-		logger.finest("Reading " + len + " bytes");
-
-		message = new byte[len];
-		message[0] = packetLen[0];
-		message[1] = packetLen[1];
-		message[2] = packetLen[2];
-		message[3] = packetLen[3];
-		for (int i = 4; i < len; i++)
-			message[i] = (byte) is.read();
-		logger.finest("exiting readPacketInto");
-		return len;
+		smsc.writeBinarySmppsim(handler.getSession().getId(), response);
+		if (SMPPSim.isCallback())
+			smsc.sent(response);
 	}
 
-	protected void writeResponse(byte[] response) throws IOException {
-		os.write(response);
-		os.flush();
-		smsc.writeBinarySmppsim(response);
+	/**
+	 * Pushes any buffered responses and DELIVER_SMs onto the socket. Called by
+	 * this handler's own thread when it has run out of PDUs to process and by
+	 * the InboundQueue service at the end of each delivery pass, so output
+	 * never waits for more than one such turn. writeResponse() also flushes
+	 * when the oldest buffered PDU is older than OUTBOUND_FLUSH_MAX_LATENCY.
+	 */
+	public void flushWrites() throws IOException {
+		synchronized (writeLock) {
+			if (pendingPdus > 0) {
+				int flushed = pendingPdus;
+				pendingPdus = 0;
+				os.flush();
+				smsc.recordOutboundFlush(flushed);
+			}
+		}
 	}
 
 	public void closeConnection() throws IOException {
-		os.flush();
+		flushWrites();
 		os.close();
 		socket.close();
 		isConnected = false;
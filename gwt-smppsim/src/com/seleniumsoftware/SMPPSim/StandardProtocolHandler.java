@@ -27,10 +27,10 @@
 
 package com.seleniumsoftware.SMPPSim;
 
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
 
-import org.apache.regexp.RE;
-import org.apache.regexp.RESyntaxException;
 
 import com.seleniumsoftware.SMPPSim.exceptions.InboundQueueFullException;
 import com.seleniumsoftware.SMPPSim.exceptions.MessageStateNotFoundException;
@@ -90,7 +90,7 @@ public class StandardProtocolHandler {
 
 	byte[] message;
 
-	RE address_range_regexp = null;
+	AddressRange addressRange = null;
 
 	public StandardProtocolHandler() {
 	}
@@ -112,7 +112,8 @@ public class StandardProtocolHandler {
 		int len = 0;
 		int cmd = 0;
 		int status = 0;
-		if (SMPPSim.isCallback() && smsc.isCallback_server_online())
+		smsc.incPdusReceived();
+		if (SMPPSim.isCallback())
 			smsc.received(message);
 		len = PduUtilities.getIntegerValue(message, 0, 4);
 		cmd = PduUtilities.getIntegerValue(message, 4, 4);
@@ -121,6 +122,7 @@ public class StandardProtocolHandler {
 		wasBindReceiverRequest = false;
 		wasInvalidBindState = false;
 		failedAuthentication = false;
+		LoggingUtilities.setTraceSession(session.getSystem_id());
 
 		switch (cmd) {
 		case PduConstants.BIND_TRANSMITTER:
@@ -180,6 +182,8 @@ public class StandardProtocolHandler {
 		}
 
 		if (wasBindReceiverRequest()) {
+			if (addressRange != null)
+				smsc.receiverBound(connection, addressRange);
 			smsc.setMoServiceRunning();
 			smsc.getIq().notifyReceiverBound();
 		}
@@ -196,7 +200,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 		// now make the response object
 		BindTransmitterResp smppresp = new BindTransmitterResp(smppmsg,
@@ -211,7 +215,7 @@ public class StandardProtocolHandler {
 			logPdu(": BIND_TRANSMITTER (ESME_RINVBNDSTS):", resp_message,
 					smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incBindTransmitterERR();
 			return;
 		}
@@ -221,6 +225,8 @@ public class StandardProtocolHandler {
 			session.setBound(true);
 			session.setTransmitter(true);
 			session.setReceiver(false);
+			session.setSystem_id(smppmsg.getSystem_id());
+			LoggingUtilities.setTraceSession(session.getSystem_id());
 			failedAuthentication = false;
 			logger.info("New transmitter session bound to SMPPSim");
 		} else {
@@ -253,7 +259,7 @@ public class StandardProtocolHandler {
 
 		logger.info(" ");
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 		if (!failedAuthentication) {
 			smsc.incTxBoundCount();
 			smsc.incBindTransmitterOK();
@@ -268,7 +274,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -284,7 +290,7 @@ public class StandardProtocolHandler {
 			logPdu(": BIND_RECEIVER (ESME_RINVBNDSTS):", resp_message, smppresp);
 			smsc.incBindReceiverERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -293,16 +299,19 @@ public class StandardProtocolHandler {
 			session.setBound(true);
 			session.setTransmitter(false);
 			session.setReceiver(true);
+			session.setSystem_id(smppmsg.getSystem_id());
+			LoggingUtilities.setTraceSession(session.getSystem_id());
 			failedAuthentication = false;
 			wasBindReceiverRequest = true;
 			// As this is a bind_receiver object we need to set the regular
 			// expression attribute
 			try {
 				setAddressRangeRegExp(smppmsg.getAddress_range());
-			} catch (RESyntaxException e) {
+			} catch (PatternSyntaxException e) {
 				logger
-						.warning("Invalid regular expression specified in BIND_RECEIVER address_range attribute");
+						.warning("Invalid regular expression specified in BIND_RECEIVER address_range attribute. No messages will be routed to this session");
 				e.printStackTrace();
+				addressRange = null;
 			}
 			logger.info("New receiver session bound to SMPPSim");
 		} else {
@@ -336,7 +345,7 @@ public class StandardProtocolHandler {
 			LoggingUtilities.logDecodedPdu(smppresp);
 		logger.info(" ");
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 		if (!failedAuthentication)
 			smsc.getIq().deliverPendingMoMessages();
 
@@ -350,7 +359,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -366,7 +375,7 @@ public class StandardProtocolHandler {
 			logPdu(": BIND_TRANSCEIVER (ESME_RINVBNDSTS):", resp_message,
 					smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incBindTransceiverERR();
 			return;
 		}
@@ -376,16 +385,19 @@ public class StandardProtocolHandler {
 			session.setBound(true);
 			session.setTransmitter(true);
 			session.setReceiver(true);
+			session.setSystem_id(smppmsg.getSystem_id());
+			LoggingUtilities.setTraceSession(session.getSystem_id());
 			failedAuthentication = false;
 			wasBindReceiverRequest = true;
 			// As this is a bind_transceiver object we need to set the regular
 			// expression attribute
 			try {
 				setAddressRangeRegExp(smppmsg.getAddress_range());
-			} catch (RESyntaxException e) {
+			} catch (PatternSyntaxException e) {
 				logger
-						.warning("Invalid regular expression specified in BIND_TRANSCEIVER address_range attribute");
+						.warning("Invalid regular expression specified in BIND_TRANSCEIVER address_range attribute. No messages will be routed to this session");
 				e.printStackTrace();
+				addressRange = null;
 			}
 			logger.info("New transceiver session bound to SMPPSim");
 		} else {
@@ -419,7 +431,7 @@ public class StandardProtocolHandler {
 			LoggingUtilities.logDecodedPdu(smppresp);
 		logger.info(" ");
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 		if (!failedAuthentication)
 			smsc.getIq().deliverPendingMoMessages();
 	}
@@ -431,12 +443,17 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
 
-		SubmitSMResp smppresp = new SubmitSMResp(smppmsg);
+		PduPool pool = connection.getPool();
+		SubmitSMResp smppresp;
+		if (pool != null)
+			smppresp = pool.getSubmitSMResp(smppmsg);
+		else
+			smppresp = new SubmitSMResp(smppmsg);
 
 		// Validate session
 		if ((!session.isBound()) || (!session.isTransmitter())) {
@@ -447,8 +464,10 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVBNDSTS, smppresp.getSeq_no());
 			logPdu(":SUBMIT_SM_RESP (ESME_RINVBNDSTS):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incSubmitSmERR();
+			if (pool != null)
+				pool.release(smppresp);
 			return;
 		}
 
@@ -459,7 +478,7 @@ public class StandardProtocolHandler {
 		// PduConstants.ESME_RINVSRCADR, smppresp.getSeq_no());
 		// logPdu(":SUBMIT_SM_RESP (ESME_RINVSRCADR):", resp_message, smppresp);
 		// connection.writeResponse(resp_message);
-		// smsc.writeDecodedSmppsim(smppresp.toString());
+		// smsc.writeDecodedSmppsim(session.getId(), smppresp);
 		// smsc.incSubmitSmERR();
 		// return;
 		// }
@@ -469,8 +488,10 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVDSTADR, smppresp.getSeq_no());
 			logPdu(":SUBMIT_SM_RESP (ESME_RINVDSTADR):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incSubmitSmERR();
+			if (pool != null)
+				pool.release(smppresp);
 			return;
 		}
 
@@ -486,18 +507,30 @@ public class StandardProtocolHandler {
 			logPdu(":SUBMIT_SM_RESP (ESME_RMSGQFUL):", resp_message, smppresp);
 			smsc.incSubmitSmERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
+			if (pool != null)
+				pool.release(smppresp);
 			return;
 		}
 		// ....and turn it back into a byte array
-		resp_message = smppresp.marshall();
+		ByteBuffer resp_buffer = null;
+		if (pool != null && pool.isPoolingResponses()) {
+			resp_buffer = pool.marshall(smppresp);
+			resp_message = resp_buffer.array();
+		} else
+			resp_message = smppresp.marshall();
 
 		logPdu(":SUBMIT_SM_RESP:", resp_message, smppresp);
 		logger.info(" ");
 
 		connection.writeResponse(resp_message);
 		logger.info("SubmitSM processing - response written to connection");
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
+		if (pool != null) {
+			if (resp_buffer != null)
+				pool.release(resp_buffer);
+			pool.release(smppresp);
+		}
 		// set messagestate responsesent = true
 		smsc.getOq().setResponseSent(m);
 		smsc.incSubmitSmOK();
@@ -536,7 +569,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -553,7 +586,7 @@ public class StandardProtocolHandler {
 			logPdu(": Standard SUBMIT_MULTI (ESME_RINVBNDSTS):", resp_message,
 					smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incSubmitMultiERR();
 			return;
 		}
@@ -567,7 +600,7 @@ public class StandardProtocolHandler {
 					smppresp);
 			smsc.incSubmitMultiERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -578,7 +611,7 @@ public class StandardProtocolHandler {
 					resp_message, smppresp);
 			smsc.incSubmitMultiERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -592,7 +625,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incSubmitMultiOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
 	void getUnbindResponse(byte[] message, int len) throws Exception {
@@ -602,7 +635,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 		// now make the response object
 		UnbindResp smppresp = new UnbindResp(smppmsg);
@@ -615,7 +648,7 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVBNDSTS, smppresp.getSeq_no());
 			logPdu(": UNBIND (ESME_RINVBNDSTS):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incUnbindERR();
 			return;
 		}
@@ -625,7 +658,7 @@ public class StandardProtocolHandler {
 		resp_message = smppresp.marshall();
 
 		if (session.isReceiver()) {
-			smsc.receiverUnbound();
+			smsc.receiverUnbound(connection);
 		}
 		logger.finest("Receiver:" + session.isReceiver() + ",Transmitter:"
 				+ session.isTransmitter());
@@ -647,7 +680,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incUnbindOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
 	void getQueryResponse(byte[] message, int len) throws Exception {
@@ -658,7 +691,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -674,7 +707,7 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVBNDSTS, smppresp.getSeq_no());
 			logPdu(": QUERY_SM (ESME_RINVBNDSTS):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incQuerySmERR();
 			return;
 		}
@@ -688,7 +721,7 @@ public class StandardProtocolHandler {
 			logPdu(": QUERY_SM_RESP (ESME_RQUERYFAIL):", resp_message, smppresp);
 			smsc.incQuerySmERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 		// ....and turn it back into a byte array
@@ -702,7 +735,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incQuerySmOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
 	void getCancelSMResponse(byte[] message, int len) throws Exception {
@@ -712,7 +745,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -730,7 +763,7 @@ public class StandardProtocolHandler {
 					smppresp);
 			smsc.incCancelSmERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -744,7 +777,7 @@ public class StandardProtocolHandler {
 					smppresp);
 			smsc.incCancelSmERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -758,7 +791,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incCancelSmOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
 	void getReplaceSMResponse(byte[] message, int len) throws Exception {
@@ -768,7 +801,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -786,7 +819,7 @@ public class StandardProtocolHandler {
 					smppresp);
 			smsc.incReplaceSmERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -801,7 +834,7 @@ public class StandardProtocolHandler {
 					smppresp);
 			smsc.incReplaceSmERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -814,7 +847,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incReplaceSmOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
 	void getEnquireResponse(byte[] message, int len) throws Exception {
@@ -824,7 +857,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 		// now make the response object
 		EnquireLinkResp smppresp = new EnquireLinkResp(smppmsg);
@@ -839,7 +872,7 @@ public class StandardProtocolHandler {
 					smppresp);
 			smsc.incEnquireLinkERR();
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			return;
 		}
 
@@ -853,7 +886,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incEnquireLinkOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
 	void getDataSMResponse(byte[] message, int len) throws Exception {
@@ -863,7 +896,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 
 		// now make the response object
@@ -879,7 +912,7 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVBNDSTS, smppresp.getSeq_no());
 			logPdu(":DATA_SM_RESP (ESME_RINVBNDSTS):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incDataSmERR();
 			return;
 		}
@@ -891,7 +924,7 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVSRCADR, smppresp.getSeq_no());
 			logPdu(":DATA_SM_RESP (ESME_RINVSRCADR):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incDataSmERR();
 			return;
 		}
@@ -901,7 +934,7 @@ public class StandardProtocolHandler {
 					PduConstants.ESME_RINVDSTADR, smppresp.getSeq_no());
 			logPdu(":DATA_SM_RESP (ESME_RINVDSTADR):", resp_message, smppresp);
 			connection.writeResponse(resp_message);
-			smsc.writeDecodedSmppsim(smppresp.toString());
+			smsc.writeDecodedSmppsim(session.getId(), smppresp);
 			smsc.incDataSmERR();
 			return;
 		}
@@ -918,7 +951,7 @@ public class StandardProtocolHandler {
 		// logPdu(":DATA_SM_RESP (ESME_RMSGQFUL):", resp_message, smppresp);
 		// smsc.incDataSmERR();
 		// connection.writeResponse(resp_message);
-		// smsc.writeDecodedSmppsim(smppresp.toString());
+		// smsc.writeDecodedSmppsim(session.getId(), smppresp);
 		// return;
 		// }
 		// ....and turn it back into a byte array
@@ -928,7 +961,7 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 		// set messagestate responsesent = true
 		// smsc.getOq().setResponseSent(m);
 		smsc.incDataSmOK();
@@ -955,7 +988,7 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 		// now make the response object
 		GenericNakResp smppresp = new GenericNakResp(smppmsg);
@@ -973,16 +1006,14 @@ public class StandardProtocolHandler {
 		logger.info(" ");
 		smsc.incEnquireLinkOK();
 		connection.writeResponse(resp_message);
-		smsc.writeDecodedSmppsim(smppresp.toString());
+		smsc.writeDecodedSmppsim(session.getId(), smppresp);
 	}
 
-	void setAddressRangeRegExp(String address_range) throws RESyntaxException {
+	void setAddressRangeRegExp(String address_range)
+			throws PatternSyntaxException {
 		logger.info("StandardProtocolHandler: setting address range to "
 				+ address_range);
-		if (address_range == null || address_range.equals("*")
-				|| address_range.equals(""))
-			address_range = "[:alnum:]*";
-		address_range_regexp = new RE(address_range);
+		addressRange = AddressRange.compile(address_range);
 		logger.info("Made RE for " + address_range);
 	}
 
@@ -993,12 +1024,13 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		if (smppmsg.getCmd_status() == 0)
 			smsc.incDeliverSmOK();
 		else
 			smsc.incDeliverSmERR();
 
+		connection.deliverSmResponded();
 		iqueue.deliveryResult(smppmsg.getSeq_no(), smppmsg.getCmd_status());
 
 		logger.info(" ");
@@ -1011,18 +1043,15 @@ public class StandardProtocolHandler {
 		smppmsg.demarshall(message);
 		if (Smsc.isDecodePdus())
 			LoggingUtilities.logDecodedPdu(smppmsg);
-		smsc.writeDecodedSme(smppmsg.toString());
+		smsc.writeDecodedSme(session.getId(), smppmsg);
 		logger.info(" ");
 	}
 
 	public boolean addressIsServicedByReceiver(String address) {
-		boolean result;
 		if (address.equals("") || address.equals(" ")) {
 			return true;
 		} else {
-			logger.info("addressIsServicedByReceiver(" + address + ")");
-			result = address_range_regexp.match(address);
-			return result;
+			return addressRange != null && addressRange.matches(address);
 		}
 	}
 
@@ -0,0 +1,79 @@
+/****************************************************************************
+ * WeightedReceiverSelector.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Shares deliveries between receivers in proportion to the RECEIVER_WEIGHTS
+ * of the system_ids they bound with, using smooth weighted round robin: each
+ * selection adds every candidate's weight to its credit, picks the candidate
+ * with the most credit and takes the total weight from it. Deliveries to a
+ * receiver are spread out rather than sent in runs.
+ */
+public class WeightedReceiverSelector extends ReceiverSelector {
+
+	// Connection handlers are reused for each new connection, so this holds
+	// at most one entry per handler. It is cleared when the handler binds or
+	// unbinds, so a new session does not inherit the last one's credit.
+	private IdentityHashMap<StandardConnectionHandler, int[]> credits = new IdentityHashMap<StandardConnectionHandler, int[]>();
+
+	public synchronized StandardConnectionHandler select(
+			StandardConnectionHandler[] eligible) {
+		StandardConnectionHandler best = null;
+		int[] bestCredit = null;
+		int total = 0;
+		for (int i = 0; i < eligible.length; i++) {
+			StandardConnectionHandler receiver = eligible[i];
+			if (!isUsable(receiver))
+				continue;
+			int[] credit = credits.get(receiver);
+			if (credit == null) {
+				credit = new int[1];
+				credits.put(receiver, credit);
+			}
+			int weight = receiver.getReceiverWeight();
+			credit[0] += weight;
+			total += weight;
+			if (bestCredit == null || credit[0] > bestCredit[0]) {
+				best = receiver;
+				bestCredit = credit;
+			}
+		}
+		if (best != null)
+			bestCredit[0] -= total;
+		return best;
+	}
+
+	public synchronized void receiverBound(StandardConnectionHandler receiver) {
+		credits.remove(receiver);
+	}
+
+	public synchronized void receiverUnbound(StandardConnectionHandler receiver) {
+		credits.remove(receiver);
+	}
+}
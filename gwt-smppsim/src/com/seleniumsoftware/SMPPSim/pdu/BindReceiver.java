@@ -27,7 +27,7 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduReader;
 
 public class BindReceiver extends Request implements Demarshaller {
 
@@ -50,66 +50,55 @@ public class BindReceiver extends Request implements Demarshaller {
 	public BindReceiver() {
 	}
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 		// now set atributes of this specific PDU type
-		int inx = 16;
 		try {
-			system_id = PduUtilities.getStringValueNullTerminated(request, inx,
-					16, PduConstants.C_OCTET_STRING_TYPE);
+			system_id = reader.getCOctetString(16);
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. system_id is incorrect");
 			throw (e);
 		}
-		inx = inx + system_id.length() + 1;
 		try {
-			password = PduUtilities.getStringValueNullTerminated(request, inx,
-					9, PduConstants.C_OCTET_STRING_TYPE);
+			password = reader.getCOctetString(9);
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. password is incorrect");
 			throw (e);
 		}
-		inx = inx + password.length() + 1;
 		try {
-			system_type = PduUtilities.getStringValueNullTerminated(request,
-					inx, 13, PduConstants.C_OCTET_STRING_TYPE);
+			system_type = reader.getCOctetString(13);
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. system_type is incorrect");
 			throw (e);
 		}
-		inx = inx + system_type.length() + 1;
 		try {
-			interface_version = PduUtilities.getIntegerValue(request, inx, 1);
+			interface_version = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. interface_version is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. addr_ton is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. addr_npi is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			address_range = PduUtilities.getStringValueNullTerminated(request,
-					inx, 41, PduConstants.C_OCTET_STRING_TYPE);
+			address_range = reader.getCOctetString(41);
 		} catch (Exception e) {
 			logger
 					.severe("BIND_RECEIVER PDU is malformed. address_range is incorrect");
@@ -26,7 +26,7 @@
  ****************************************************************************/
 
 package com.seleniumsoftware.SMPPSim.pdu;
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
 
 public class BindTransceiverResp
 	extends Response
@@ -52,14 +52,12 @@ public class BindTransceiverResp
 		system_id = sysid;
 	}
 
-	public byte [] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		out.write(PduUtilities.stringToNullTerminatedByteArray(system_id)); 
-		byte [] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response,l);
-		return response;
+	protected int getBodyLength() {
+		return PduWriter.sizeOf(system_id);
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		writer.putCOctetString(system_id);
 	}
 
 	/**
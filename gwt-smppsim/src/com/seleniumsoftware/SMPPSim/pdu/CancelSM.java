@@ -49,80 +49,67 @@ public class CancelSM extends Request implements Demarshaller {
 
 	private String destination_addr;
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 		// now set atributes of this specific PDU type
-		int inx = 16;
 		try {
-			service_type = PduUtilities.getStringValueNullTerminated(request,
-					inx, 6, PduConstants.C_OCTET_STRING_TYPE);
+			service_type = reader.getCOctetString(6);
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. service_type is incorrect");
 			throw (e);
 		}
-		inx = inx + service_type.length() + 1;
 		try {
-			original_message_id = PduUtilities.getStringValueNullTerminated(
-					request, inx, 65, PduConstants.C_OCTET_STRING_TYPE);
+			original_message_id = reader.getCOctetString(65);
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. original_message_id is incorrect");
 			throw (e);
 		}
-		inx = inx + original_message_id.length() + 1;
 		try {
-			source_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			source_addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. source_addr_ton is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			source_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			source_addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. source_addr_npi is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			source_addr = PduUtilities.getStringValueNullTerminated(request,
-					inx, 21, PduConstants.C_OCTET_STRING_TYPE);
+			source_addr = reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. source_addr is incorrect");
 			throw (e);
 		}
-		inx = inx + source_addr.length() + 1;
 		try {
-			dest_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			dest_addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. dest_addr_ton is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			dest_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			dest_addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. dest_addr_npi is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			destination_addr = PduUtilities.getStringValueNullTerminated(
-					request, inx, 21, PduConstants.C_OCTET_STRING_TYPE);
+			destination_addr = reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger
 					.severe("CANCEL_SM PDU is malformed. destination_addr is incorrect");
 			throw (e);
 		}
-		inx = inx + destination_addr.length() + 1;
 	}
 
 	/**
@@ -1,13 +1,11 @@
 package com.seleniumsoftware.SMPPSim.pdu;
 
-import java.io.ByteArrayOutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
 
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduReader;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+import com.seleniumsoftware.SMPPSim.pdu.util.TlvTable;
 
 /****************************************************************************
  * DataSM
@@ -63,10 +61,7 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 	private int data_coding;
 
 	// Optional PDU attributes
-	private HashMap<Short, Tlv> optionalsByTag = new HashMap<Short, Tlv>();
-
-	// output 
-	ByteArrayOutputStream out;
+	private TlvTable optionals = new TlvTable();
 
 	public DataSM() {
 	}
@@ -91,25 +86,18 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		registered_delivery_flag = msg.getRegistered_delivery_flag();
 		data_coding = msg.getData_coding();
 		// optionnal
-		for (Iterator<Short> it = msg.getOptionnalTags().iterator(); it
-				.hasNext();) {
-			Short tag = it.next();
-			Tlv opt = msg.getOptionnal(tag.shortValue());
-			optionalsByTag.put(tag, opt);
-		}
+		optionals = msg.getOptionals().copy();
 	}
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 
 		// now set mandatory attributes of this specific PDU type
 		// service_type
-		int inx = 16;
 		try {
-			service_type = PduUtilities.getStringValueNullTerminated(request,
-					inx, 6, PduConstants.C_OCTET_STRING_TYPE);
+			service_type = reader.getCOctetString(6);
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. service_type is incorrect");
@@ -117,9 +105,8 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// source_addr_ton
-		inx = inx + service_type.length() + 1;
 		try {
-			source_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			source_addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. source_addr_ton is incorrect");
@@ -127,9 +114,8 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// source_addr_npi
-		inx = inx + 1;
 		try {
-			source_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			source_addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. source_addr_npi is incorrect");
@@ -137,19 +123,16 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// source_addr
-		inx = inx + 1;
 		try {
-			source_addr = PduUtilities.getStringValueNullTerminated(request,
-					inx, 21, PduConstants.C_OCTET_STRING_TYPE);
+			source_addr = reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger.severe("DATA_SM PDU is malformed. source_addr is incorrect");
 			throw (e);
 		}
 
 		// dest_addr_ton
-		inx = inx + source_addr.length() + 1;
 		try {
-			dest_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			dest_addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. dest_addr_ton is incorrect");
@@ -157,9 +140,8 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// dest_addr_npi
-		inx = inx + 1;
 		try {
-			dest_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			dest_addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. dest_addr_npi is incorrect");
@@ -167,10 +149,8 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// dest_addr
-		inx = inx + 1;
 		try {
-			destination_addr = PduUtilities.getStringValueNullTerminated(
-					request, inx, 21, PduConstants.C_OCTET_STRING_TYPE);
+			destination_addr = reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. destination_addr is incorrect");
@@ -178,19 +158,16 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// esm_class
-		inx = inx + destination_addr.length() + 1;
 		try {
-			esm_class = PduUtilities.getIntegerValue(request, inx, 1);
+			esm_class = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger.severe("DATA_SM PDU is malformed. esm_class is incorrect");
 			throw (e);
 		}
 
 		// registered_delivery
-		inx = inx + 1;
 		try {
-			registered_delivery_flag = PduUtilities.getIntegerValue(request,
-					inx, 1);
+			registered_delivery_flag = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("DATA_SM PDU is malformed. registered_delivery_flag is incorrect");
@@ -198,80 +175,50 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 		}
 
 		// data_coding
-		inx = inx + 1;
 		try {
-			data_coding = PduUtilities.getIntegerValue(request, inx, 1);
+			data_coding = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger.severe("DATA_SM PDU is malformed. data_coding is incorrect");
 			throw (e);
 		}
 
 		// Now process optional parameters if there are any
-		inx = inx + 1;
-		short tag;
-		short oplen;
-		byte[] value;
-		while (getCmd_len() > inx) {
-			try {
-				tag = (short) PduUtilities.getIntegerValue(request, inx, 2);
-			} catch (Exception e) {
-				logger.severe("DATA_SM PDU is malformed. TLV tag at position "
-						+ inx + " is incorrect");
-				throw (e);
-			}
-			inx = inx + 2;
-			try {
-				oplen = (short) PduUtilities.getIntegerValue(request, inx, 2);
-			} catch (Exception e) {
-				logger
-						.severe("DATA_SM PDU is malformed. TLV length at position "
-								+ inx + " is incorrect");
-				throw (e);
-			}
-			inx = inx + 2;
-			value = new byte[oplen];
-			for (int i = 0; i < oplen; i++) {
-				value[i] = request[inx];
-				inx++;
-			}
-			Tlv opt = new Tlv(tag, oplen, value);
-			optionalsByTag.put(new Short(tag), opt);
+		try {
+			optionals = TlvTable.read(reader, getCmd_len());
+		} catch (Exception e) {
+			logger.severe("DATA_SM PDU is malformed. TLV at position "
+					+ reader.position() + " is incorrect");
+			throw (e);
 		}
 	}
 
 	public byte[] marshall() throws Exception {
-		out = new ByteArrayOutputStream();
-		out.reset();
-		out.write(PduUtilities.makeByteArrayFromInt(getCmd_len(), 4));
-		out.write(PduUtilities.makeByteArrayFromInt(getCmd_id(), 4));
-		out.write(PduUtilities.makeByteArrayFromInt(getCmd_status(), 4));
-		out.write(PduUtilities.makeByteArrayFromInt(getSeq_no(), 4));
-
-		out.write(PduUtilities.stringToNullTerminatedByteArray(service_type));
-		out.write(PduUtilities.makeByteArrayFromInt(source_addr_ton, 1));
-		out.write(PduUtilities.makeByteArrayFromInt(source_addr_npi, 1));
-		out.write(PduUtilities.stringToNullTerminatedByteArray(source_addr));
-		out.write(PduUtilities.makeByteArrayFromInt(dest_addr_ton, 1));
-		out.write(PduUtilities.makeByteArrayFromInt(dest_addr_npi, 1));
-		out.write(PduUtilities
-				.stringToNullTerminatedByteArray(destination_addr));
-		out.write(PduUtilities.makeByteArrayFromInt(esm_class, 1));
-		out.write(PduUtilities
-				.makeByteArrayFromInt(registered_delivery_flag, 1));
-		out.write(PduUtilities.makeByteArrayFromInt(data_coding, 1));
-
-		for (Iterator<Tlv> it = optionalsByTag.values().iterator(); it
-				.hasNext();) {
-			Tlv opt = it.next();
-			out.write(PduUtilities.makeByteArrayFromInt(opt.getTag(), 2));
-			out.write(PduUtilities.makeByteArrayFromInt(opt.getLen(), 2));
-			out.write(opt.getValue());
-		}
+		int len = PduWriter.HEADER_LENGTH + PduWriter.sizeOf(service_type) + 2
+				+ PduWriter.sizeOf(source_addr) + 2
+				+ PduWriter.sizeOf(destination_addr) + 3
+				+ optionals.getEncodedLength();
+		PduWriter writer = new PduWriter(len);
+		marshall(writer);
+		return writer.toByteArray();
+	}
+
+	public void marshall(PduWriter writer) throws Exception {
+		writer.startPdu(getCmd_id(), getCmd_status(), getSeq_no());
 
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
+		writer.putCOctetString(service_type);
+		writer.putByte(source_addr_ton);
+		writer.putByte(source_addr_npi);
+		writer.putCOctetString(source_addr);
+		writer.putByte(dest_addr_ton);
+		writer.putByte(dest_addr_npi);
+		writer.putCOctetString(destination_addr);
+		writer.putByte(esm_class);
+		writer.putByte(registered_delivery_flag);
+		writer.putByte(data_coding);
+
+		optionals.writeTo(writer);
+
+		writer.endPdu();
 	}
 
 	/**
@@ -345,15 +292,22 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 	}
 
 	public boolean hasOptionnal(short aTag) {
-		return optionalsByTag.containsKey(new Short(aTag));
+		return optionals.contains(aTag);
 	}
 
 	public Tlv getOptionnal(short aTag) {
-		return optionalsByTag.get(new Short(aTag));
+		return optionals.get(aTag);
 	}
 
 	public List<Short> getOptionnalTags() {
-		return new ArrayList<Short>(optionalsByTag.keySet());
+		return optionals.getTags();
+	}
+
+	/**
+	 * @return
+	 */
+	public TlvTable getOptionals() {
+		return optionals;
 	}
 
 	/**
@@ -427,7 +381,7 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 	}
 
 	public void setOptionnal(Tlv opt) {
-		optionalsByTag.put(new Short(opt.getTag()), opt);
+		optionals.put(opt);
 	}
 
 	public String toString() {
@@ -441,12 +395,7 @@ public class DataSM extends Request implements Demarshaller, Marshaller {
 				+ "registered_delivery_flag=" + registered_delivery_flag + ","
 				+ "data_coding=" + data_coding);
 
-		if (optionalsByTag.size() > 0) {
-			for (Iterator<Tlv> it = optionalsByTag.values().iterator(); it
-					.hasNext();) {
-				sb.append(",").append(it.next().toString());
-			}
-		}
+		optionals.appendTo(sb);
 		return sb.toString();
 	}
 }
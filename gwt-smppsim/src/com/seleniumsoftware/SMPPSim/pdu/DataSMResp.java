@@ -1,11 +1,10 @@
 package com.seleniumsoftware.SMPPSim.pdu;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduReader;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+import com.seleniumsoftware.SMPPSim.pdu.util.TlvTable;
 import com.seleniumsoftware.SMPPSim.*;
 
 /****************************************************************************
@@ -40,7 +39,7 @@ public class DataSMResp extends Response implements Marshaller, Demarshaller {
 	String message_id;
   
   // Optional PDU attributes
-  private HashMap<Short, Tlv> optionalsByTag = new HashMap<Short, Tlv>();
+  private TlvTable optionals = new TlvTable();
 
   public DataSMResp() {
   }
@@ -58,40 +57,28 @@ public class DataSMResp extends Response implements Marshaller, Demarshaller {
 		message_id = Smsc.getMessageID();		
 	}
 
-	public byte[] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		out.write(PduUtilities.stringToNullTerminatedByteArray(message_id));
-    
-    for (Iterator<Tlv> it = optionalsByTag.values().iterator(); it.hasNext(); ) {
-      Tlv opt = it.next();
-      out.write(PduUtilities.makeByteArrayFromInt(opt.getTag(), 2));
-      out.write(PduUtilities.makeByteArrayFromInt(opt.getLen(), 2));
-      out.write(opt.getValue());
-    }
-    
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
+	protected int getBodyLength() {
+		return PduWriter.sizeOf(message_id) + optionals.getEncodedLength();
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		writer.putCOctetString(message_id);
+    optionals.writeTo(writer);
 	}
   
 
   public void demarshall(byte[] request) throws Exception {
+    demarshall(new PduReader(request));
+  }
 
+  public void demarshall(PduReader reader) throws Exception {
     // demarshall the header
-    int inx = 0;
-    setCmd_len(PduUtilities.getIntegerValue(request, inx, 4));
-    inx = inx+4;      
-    setCmd_id(PduUtilities.getIntegerValue(request, inx, 4));
-    inx = inx+4;      
-    setCmd_status(PduUtilities.getIntegerValue(request, inx, 4));
-    inx = inx+4;      
-    setSeq_no(PduUtilities.getIntegerValue(request, inx, 4));
-    
+    setCmd_len(reader.getInt());
+    setCmd_id(reader.getInt());
+    setCmd_status(reader.getInt());
+    setSeq_no(reader.getInt());
     // now set mandatory attributes of this specific PDU type
-    inx = inx+4;
-    message_id = PduUtilities.getStringValueNullTerminated(request, inx, 65, PduConstants.C_OCTET_STRING_TYPE);
+    message_id = reader.getCOctetString(65);
   }
   
 	/**
@@ -102,15 +89,15 @@ public class DataSMResp extends Response implements Marshaller, Demarshaller {
 	}
   
   public boolean hasOptionnal(short aTag) {
-    return optionalsByTag.containsKey(new Short(aTag));
+    return optionals.contains(aTag);
   }
   
   public Tlv getOptionnal(short aTag) {
-    return optionalsByTag.get(new Short(aTag));
+    return optionals.get(aTag);
   }
   
   public List<Short> getOptionnalTags() {
-    return new ArrayList<Short>(optionalsByTag.keySet());
+    return optionals.getTags();
   }
 
 	/**
@@ -121,19 +108,14 @@ public class DataSMResp extends Response implements Marshaller, Demarshaller {
 	}
   
   public void setOptionnal(Tlv opt) {
-    optionalsByTag.put(new Short(opt.getTag()), opt);
+    optionals.put(opt);
   }
 	
 	public String toString() {
     StringBuffer sb = new StringBuffer();
 		sb.append(super.toString()).
        append(",message_id=").append(message_id);
-    
-    if (optionalsByTag.size() > 0) {
-      for (Iterator<Tlv> it = optionalsByTag.values().iterator(); it.hasNext(); ) {
-        sb.append(",").append(it.next().toString());
-      }
-    }
+    optionals.appendTo(sb);
     return sb.toString();
 	}
 
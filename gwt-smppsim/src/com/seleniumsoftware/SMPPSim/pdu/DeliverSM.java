@@ -26,11 +26,11 @@
  ****************************************************************************/
  
 package com.seleniumsoftware.SMPPSim.pdu;
-import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.Smsc;
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+import com.seleniumsoftware.SMPPSim.pdu.util.TlvTable;
 
 public class DeliverSM extends Response implements Marshaller, Cloneable {
 
@@ -56,41 +56,9 @@ public class DeliverSM extends Response implements Marshaller, Cloneable {
 	private int sm_length = 0;
 	private byte [] short_message = new byte[160];
 	
-	// optional parameters as strings
-	private String string_user_message_reference = "";
-	private String string_source_port = "";
-	private String string_destination_port = "";
-	private String string_sar_msg_ref_num = "";
-	private String string_sar_total_segments = "";
-	private String string_sar_segment_seqnum = "";
-	private String string_user_response_code = "";
-	private String string_privacy_indicator = "";
-	private String string_payload_type = "";
-	private String string_message_payload = "";
-	private String string_callback_num = "";
-	private String string_source_subaddress = "";
-	private String string_dest_subaddress = "";
-	private String string_language_indicator = "";
-	
-	// optional parameters in correct form
-	private short user_message_reference;
-	private short source_port;
-	private short destination_port;
-	private short sar_msg_ref_num;
-	private short sar_total_segments; // short not byte to avoid sign problems
-	private short sar_segment_seqnum;
-	private short user_response_code;
-	private short privacy_indicator;
-	private short payload_type;
-	private String message_payload;
-	private String callback_num ;
-	private byte [] source_subaddress;
-	private byte [] dest_subaddress;
-	private short language_indicator;
-	
-	// Vendor specific optional parameters
-	
-	private ArrayList <Tlv> vs_ops = new ArrayList<Tlv>();
+	// optional parameters, in the order they were set. Created on first use
+	// since most DELIVER_SMs have none.
+	private TlvTable optionals;
 
 	public DeliverSM() {
 		// message header fields except message length
@@ -164,152 +132,81 @@ public class DeliverSM extends Response implements Marshaller, Cloneable {
 
 	}
 	
-	public byte[] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		logger.finest("Prepared header for marshalling");
-		out.write(PduUtilities.stringToNullTerminatedByteArray(service_type));
-		logger.finest("marshalled service_type");
-		out.write(PduUtilities.makeByteArrayFromInt(source_addr_ton, 1));
-		logger.finest("marshalled source_addr_ton");
-		out.write(PduUtilities.makeByteArrayFromInt(source_addr_npi, 1));
-		logger.finest("marshalled source_addr_npi");
-		out.write(PduUtilities.stringToNullTerminatedByteArray(source_addr));
-		logger.finest("marshalled source_addr");
-		out.write(PduUtilities.makeByteArrayFromInt(dest_addr_ton, 1));
-		logger.finest("marshalled dest_addr_ton");
-		out.write(PduUtilities.makeByteArrayFromInt(dest_addr_npi, 1));
-		logger.finest("marshalled dest_addr_npi");
-		out.write(
-			PduUtilities.stringToNullTerminatedByteArray(destination_addr));
-		logger.finest("marshalled destination_addr");
-		out.write(PduUtilities.makeByteArrayFromInt(esm_class, 1));
-		logger.finest("marshalled esm_class");
-		out.write(PduUtilities.makeByteArrayFromInt(protocol_ID, 1));
-		logger.finest("marshalled protocol_ID");
-		out.write(PduUtilities.makeByteArrayFromInt(priority_flag, 1));
-		logger.finest("marshalled priority_flag");
-		out.write(PduUtilities.stringToNullTerminatedByteArray(""));
-		logger.finest("marshalled schedule_delivery_time");
+	protected int getBodyLength() {
+		int len = PduWriter.sizeOf(service_type) + 2
+				+ PduWriter.sizeOf(source_addr) + 2
+				+ PduWriter.sizeOf(destination_addr) + 10
+				+ PduWriter.sizeOf(short_message);
+		if (optionals != null)
+			len += optionals.getEncodedLength();
+		return len;
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		writer.putCOctetString(service_type);
+		writer.putByte(source_addr_ton);
+		writer.putByte(source_addr_npi);
+		writer.putCOctetString(source_addr);
+		writer.putByte(dest_addr_ton);
+		writer.putByte(dest_addr_npi);
+		writer.putCOctetString(destination_addr);
+		writer.putByte(esm_class);
+		writer.putByte(protocol_ID);
+		writer.putByte(priority_flag);
 		// schedule_delivery_time is null for this PDU
-		out.write(PduUtilities.stringToNullTerminatedByteArray(""));
-		logger.finest("marshalled validity_period");
+		writer.putCOctetString("");
 		// validity_period is null for this PDU
-		out.write(
-			PduUtilities.makeByteArrayFromInt(registered_delivery_flag, 1));
-		logger.finest("marshalled registered_delivery_flag");
-		out.write(PduUtilities.makeByteArrayFromInt(0, 1));
+		writer.putCOctetString("");
+		writer.putByte(registered_delivery_flag);
 		// replace_if_present is null for this PDU
-		logger.finest("marshalled replace_if_present");
-		out.write(PduUtilities.makeByteArrayFromInt(data_coding, 1));
-		logger.finest("marshalled data_coding");
-		out.write(PduUtilities.makeByteArrayFromInt(0, 1));
+		writer.putByte(0);
+		writer.putByte(data_coding);
 		// sm_default_msg_id is null for this PDU
-		logger.finest("marshalled sm_default_msg_id");
-		out.write(PduUtilities.makeByteArrayFromInt(sm_length, 1));
-		logger.finest("marshalled sm_length");
-		out.write(short_message);
-		logger.finest("marshalled short_message");
-		// include optional TLV parameters if there are any
-		if (string_user_message_reference != null && !string_user_message_reference.equals("")) {
-			user_message_reference = Short.parseShort(string_user_message_reference);
-			out.write(PduUtilities.makeShortTLV(PduConstants.USER_MESSAGE_REFERENCE_TAG, user_message_reference));
-		}
-		logger.finest("marshalled user_message_reference");
-		
-		if (string_source_port != null && !string_source_port.equals("")) {
-			source_port = Short.parseShort(string_source_port);
-			out.write(PduUtilities.makeShortTLV(PduConstants.SOURCE_PORT, source_port));
-		}	
-		logger.finest("marshalled source_port");
-		
-		if (string_destination_port != null && !string_destination_port.equals("")) {
-			destination_port = Short.parseShort(string_destination_port);
-			out.write(PduUtilities.makeShortTLV(PduConstants.DESTINATION_PORT, destination_port));
-		}	
-		logger.finest("marshalled destination_port");
-		
-		if (string_sar_msg_ref_num != null && !string_sar_msg_ref_num.equals("")) {
-			sar_msg_ref_num = Short.parseShort(string_sar_msg_ref_num);
-			out.write(PduUtilities.makeShortTLV(PduConstants.SAR_MSG_REF_NUM, sar_msg_ref_num));
-		}	
-		logger.finest("marshalled sar_msg_ref_num");
-		
-		if (string_sar_total_segments != null && !string_sar_total_segments.equals("")) {
-			sar_total_segments = Short.parseShort(string_sar_total_segments);
-			out.write(PduUtilities.makeByteTLV(PduConstants.SAR_TOTAL_SEGMENTS, sar_total_segments));
-		}	
-		logger.finest("marshalled sar_total_segments");
-		
-		if (string_sar_segment_seqnum != null && !string_sar_segment_seqnum.equals("")) {
-			sar_segment_seqnum = Short.parseShort(string_sar_segment_seqnum);
-			out.write(PduUtilities.makeByteTLV(PduConstants.SAR_SEGMENT_SEQNUM, sar_segment_seqnum));
-		}	
-		logger.finest("marshalled sar_segment_seqnum");
-		
-		if (string_user_response_code != null && !string_user_response_code.equals("")) {
-			user_response_code = Short.parseShort(string_user_response_code);
-			out.write(PduUtilities.makeByteTLV(PduConstants.USER_RESPONSE_CODE, user_response_code));
-		}
-		logger.finest("marshalled user_response_code");
-		
-		if (string_privacy_indicator != null && !string_privacy_indicator.equals("")) {
-			privacy_indicator = Short.parseShort(string_privacy_indicator);
-			out.write(PduUtilities.makeByteTLV(PduConstants.PRIVACY_INDICATOR, privacy_indicator));
-		}	
-		logger.finest("marshalled privacy_indicator");
-		
-		if (string_payload_type != null && !string_payload_type.equals("")) {
-			payload_type = Short.parseShort(string_payload_type);
-			out.write(PduUtilities.makeByteTLV(PduConstants.PAYLOAD_TYPE, payload_type));
-		}	
-		logger.finest("marshalled payload_type");
-		if (string_message_payload != null && !string_message_payload.equals("")) {
-			message_payload = string_message_payload;
-			out.write(PduUtilities.makeCOctetStringTLV(PduConstants.MESSAGE_PAYLOAD, message_payload.getBytes()));
-		}	
-		logger.finest("marshalled message_payload");
-		
-		if (string_callback_num != null && !string_callback_num.equals("")) {
-			// min 4 bytes long so pad with spaces if necessary
-			if (string_callback_num.length() < 4)
-				string_callback_num = (string_callback_num + "    ").substring(0,4);
-			callback_num = string_callback_num;
-			out.write(PduUtilities.makeCOctetStringTLV(PduConstants.CALLBACK_NUM, callback_num.getBytes()));
-		}	
-		logger.finest("marshalled callback_num");
-		
-		if (string_source_subaddress != null && !string_source_subaddress.equals("")) {
-			// min 2 chars starting with 128 (only sub_address tag supported at present)
-			source_subaddress = new byte[string_source_subaddress.length() + 1];
-			source_subaddress[0] = (byte) 0x80;
-			System.arraycopy(string_source_subaddress.getBytes(),0,source_subaddress,1,string_source_subaddress.length());
-			out.write(PduUtilities.makeCOctetStringTLV(PduConstants.SOURCE_SUBADDRESS, source_subaddress));
-		}	
-		logger.finest("marshalled source_subaddress");
-		
-		if (string_dest_subaddress != null && !string_dest_subaddress.equals("")) {
-			// min 2 chars starting with 128 (only sub_address tag supported at present)
-			dest_subaddress = new byte[string_dest_subaddress.length() + 1];
-			dest_subaddress[0] = (byte) 0x80;
-			System.arraycopy(string_dest_subaddress.getBytes(),0,dest_subaddress,1,string_dest_subaddress.length());
-			out.write(PduUtilities.makeCOctetStringTLV(PduConstants.DEST_SUBADDRESS, dest_subaddress));
-		}	
-		logger.finest("marshalled dest_subaddress");
-		
-		if (string_language_indicator != null && !string_language_indicator.equals("")) {
-			language_indicator = Short.parseShort(string_language_indicator);
-			out.write(PduUtilities.makeByteTLV(PduConstants.LANGUAGE_INDICATOR, language_indicator));
-		}	
-		logger.finest("marshalled language_indicator");
-
-		for (Tlv t: vs_ops) {
-			out.write(PduUtilities.makeRawTLV(t.getTag(), t.getValue()));
-		}
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
+		writer.putByte(0);
+		writer.putByte(sm_length);
+		writer.putBytes(short_message);
+		if (optionals != null)
+			optionals.writeTo(writer);
+	}
+
+	/**
+	 * @return the optional parameters, in the order they were set
+	 */
+	public TlvTable getOptionals() {
+		if (optionals == null)
+			optionals = new TlvTable();
+		return optionals;
+	}
+
+	private void putShortOptional(short tag, short value) {
+		getOptionals().put(tag, new byte[] { (byte) (value >>> 8), (byte) value });
+	}
+
+	private void putByteOptional(short tag, short value) {
+		getOptionals().put(tag, new byte[] { (byte) value });
+	}
+
+	private void putCOctetStringOptional(short tag, byte[] value) {
+		byte[] terminated = new byte[value.length + 1];
+		System.arraycopy(value, 0, terminated, 0, value.length);
+		getOptionals().put(tag, terminated);
+	}
+
+	private void removeOptional(short tag) {
+		if (optionals != null)
+			optionals.remove(tag);
+	}
+
+	private static boolean isSet(String optional) {
+		return optional != null && !optional.equals("");
+	}
+
+	private static byte[] subaddress(String string_subaddress) {
+		// min 2 chars starting with 128 (only sub_address tag supported at present)
+		byte[] subaddress = new byte[string_subaddress.length() + 1];
+		subaddress[0] = (byte) 0x80;
+		System.arraycopy(string_subaddress.getBytes(), 0, subaddress, 1, string_subaddress.length());
+		return subaddress;
 	}
 
 	/**
@@ -566,7 +463,10 @@ public class DeliverSM extends Response implements Marshaller, Cloneable {
 	
 	public Object clone() {
         try {
-            return super.clone();
+            DeliverSM copy = (DeliverSM) super.clone();
+            if (optionals != null)
+                copy.optionals = optionals.copy();
+            return copy;
         } catch (CloneNotSupportedException e) {
             throw new Error("CloneNotSupportedException!");
         }
@@ -633,58 +533,104 @@ public class DeliverSM extends Response implements Marshaller, Cloneable {
 			+ new String(short_message);
 	}
 	public void setString_callback_num(String string_callback_num) {
-		this.string_callback_num = string_callback_num;
+		if (isSet(string_callback_num)) {
+			// min 4 bytes long so pad with spaces if necessary
+			if (string_callback_num.length() < 4)
+				string_callback_num = (string_callback_num + "    ").substring(0,4);
+			putCOctetStringOptional(PduConstants.CALLBACK_NUM, string_callback_num.getBytes());
+		} else {
+			removeOptional(PduConstants.CALLBACK_NUM);
+		}
 	}
 	public void setString_dest_subaddress(String string_dest_subaddress) {
-		this.string_dest_subaddress = string_dest_subaddress;
+		if (isSet(string_dest_subaddress))
+			putCOctetStringOptional(PduConstants.DEST_SUBADDRESS, subaddress(string_dest_subaddress));
+		else
+			removeOptional(PduConstants.DEST_SUBADDRESS);
 	}
 	public void setString_destination_port(String string_destination_port) {
-		this.string_destination_port = string_destination_port;
+		if (isSet(string_destination_port))
+			putShortOptional(PduConstants.DESTINATION_PORT, Short.parseShort(string_destination_port));
+		else
+			removeOptional(PduConstants.DESTINATION_PORT);
 	}
 	public void setString_language_indicator(String string_language_indicator) {
-		this.string_language_indicator = string_language_indicator;
+		if (isSet(string_language_indicator))
+			putByteOptional(PduConstants.LANGUAGE_INDICATOR, Short.parseShort(string_language_indicator));
+		else
+			removeOptional(PduConstants.LANGUAGE_INDICATOR);
 	}
 	public void setString_message_payload(String string_message_payload) {
-		this.string_message_payload = string_message_payload;
+		if (isSet(string_message_payload))
+			putCOctetStringOptional(PduConstants.MESSAGE_PAYLOAD, string_message_payload.getBytes());
+		else
+			removeOptional(PduConstants.MESSAGE_PAYLOAD);
 	}
 	public void setString_payload_type(String string_payload_type) {
-		this.string_payload_type = string_payload_type;
+		if (isSet(string_payload_type))
+			putByteOptional(PduConstants.PAYLOAD_TYPE, Short.parseShort(string_payload_type));
+		else
+			removeOptional(PduConstants.PAYLOAD_TYPE);
 	}
 	public void setString_privacy_indicator(String string_privacy_indicator) {
-		this.string_privacy_indicator = string_privacy_indicator;
+		if (isSet(string_privacy_indicator))
+			putByteOptional(PduConstants.PRIVACY_INDICATOR, Short.parseShort(string_privacy_indicator));
+		else
+			removeOptional(PduConstants.PRIVACY_INDICATOR);
 	}
 	public void setString_sar_msg_ref_num(String string_sar_msg_ref_num) {
-		this.string_sar_msg_ref_num = string_sar_msg_ref_num;
+		if (isSet(string_sar_msg_ref_num))
+			putShortOptional(PduConstants.SAR_MSG_REF_NUM, Short.parseShort(string_sar_msg_ref_num));
+		else
+			removeOptional(PduConstants.SAR_MSG_REF_NUM);
 	}
 	public void setString_sar_segment_seqnum(String string_sar_segment_seqnum) {
-		this.string_sar_segment_seqnum = string_sar_segment_seqnum;
+		if (isSet(string_sar_segment_seqnum))
+			putByteOptional(PduConstants.SAR_SEGMENT_SEQNUM, Short.parseShort(string_sar_segment_seqnum));
+		else
+			removeOptional(PduConstants.SAR_SEGMENT_SEQNUM);
 	}
 	public void setString_sar_total_segments(String string_sar_total_segments) {
-		this.string_sar_total_segments = string_sar_total_segments;
+		if (isSet(string_sar_total_segments))
+			putByteOptional(PduConstants.SAR_TOTAL_SEGMENTS, Short.parseShort(string_sar_total_segments));
+		else
+			removeOptional(PduConstants.SAR_TOTAL_SEGMENTS);
 	}
 	public void setString_source_port(String string_source_port) {
-		this.string_source_port = string_source_port;
+		if (isSet(string_source_port))
+			putShortOptional(PduConstants.SOURCE_PORT, Short.parseShort(string_source_port));
+		else
+			removeOptional(PduConstants.SOURCE_PORT);
 	}
 	public void setString_source_subaddress(String string_source_subaddress) {
-		this.string_source_subaddress = string_source_subaddress;
+		if (isSet(string_source_subaddress))
+			putCOctetStringOptional(PduConstants.SOURCE_SUBADDRESS, subaddress(string_source_subaddress));
+		else
+			removeOptional(PduConstants.SOURCE_SUBADDRESS);
 	}
 	public void setString_user_message_reference(
 			String string_user_message_reference) {
-		this.string_user_message_reference = string_user_message_reference;
+		if (isSet(string_user_message_reference))
+			setUser_message_reference(Short.parseShort(string_user_message_reference));
+		else
+			removeOptional(PduConstants.USER_MESSAGE_REFERENCE_TAG);
 	}
 	public void setString_user_response_code(String string_user_response_code) {
-		this.string_user_response_code = string_user_response_code;
+		if (isSet(string_user_response_code))
+			setUser_response_code(Short.parseShort(string_user_response_code));
+		else
+			removeOptional(PduConstants.USER_RESPONSE_CODE);
 	}
 	public void setUser_message_reference(short user_message_reference) {
-		this.user_message_reference = user_message_reference;
+		putShortOptional(PduConstants.USER_MESSAGE_REFERENCE_TAG, user_message_reference);
 	}
 	public void setUser_response_code(short user_response_code) {
-		this.user_response_code = user_response_code;
+		putByteOptional(PduConstants.USER_RESPONSE_CODE, user_response_code);
 	}
 	
 	public void addVsop(short tag, short len, byte [] value) {
-		Tlv t = new Tlv(tag,len,value);
-		vs_ops.add(t);
+		// vendor specific parameters are kept even if a tag repeats
+		getOptionals().add(tag, value);
 	}
 	public long getCreated() {
 		return created;
@@ -35,14 +35,13 @@ public class DeliverSMResp extends Request implements Demarshaller {
 
 	private String message_id;
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 		// now set atributes of this specific PDU type
-		int inx = 16;
 		try {
-			message_id = PduUtilities.getStringValueFixedLength(request, inx, 1);
+			message_id = reader.getFixedLengthString(1);
 		} catch (Exception e) {
 			logger.severe("DELIVER_SM_RESP PDU is malformed. message_id is incorrect");
 			throw (e);
@@ -50,7 +50,6 @@ public class DeliveryReceipt extends DeliverSM {
 
 	public void setDeliveryReceiptMessage(byte state) {
 		// id:IIIIIIIIII sub:SSS dlvrd:DDD submit date:YYMMDDhhmm done date:YYMMDDhhmm stat:DDDDDDD err:E Text: . . . . . . . . .
-		Date d = new Date();
 		String id = "id:" + message_id;
 		String sb = " sub:" + sub;
 		String dlv = " dlvrd:" + dlvrd;
@@ -60,7 +59,7 @@ public class DeliveryReceipt extends DeliverSM {
 		String st = " stat:" + stat;
 		String er = " err:" + err;
 		String txt = " Text:" + text;
-		setShort_message(new String(id + sb + dlv + sdate + ddate + st + er + txt).getBytes());
+		setShort_message((id + sb + dlv + sdate + ddate + st + er + txt).getBytes());
 		setSm_length(getShort_message().length);
 	}
 
@@ -25,12 +25,18 @@
  * $Header: /var/cvsroot/SMPPSim2/src/java/com/seleniumsoftware/SMPPSim/pdu/Demarshaller.java,v 1.3 2007/11/23 08:52:25 martin Exp $
  ****************************************************************************/
 package com.seleniumsoftware.SMPPSim.pdu;
+
+import com.seleniumsoftware.SMPPSim.pdu.util.PduReader;
+
 public interface Demarshaller {
 
 /* All request PDUs must implement this interface such that they can populate their
- * own attributes from an input byte array
+ * own attributes from an input byte array. The byte array form simply wraps the
+ * PDU in a PduReader; fields are then read in a single pass from the cursor.
  */
 
 	public void demarshall(byte [] request) throws Exception;
 
+	public void demarshall(PduReader reader) throws Exception;
+
 }
@@ -27,13 +27,15 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 
+import com.seleniumsoftware.SMPPSim.pdu.util.PduReader;
+
 public class GenericNak extends Request implements Demarshaller {
 
 	// PDU attributes
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 	}
 	
 	/**
@@ -25,6 +25,9 @@
  * $Header: /var/cvsroot/SMPPSim2/src/java/com/seleniumsoftware/SMPPSim/pdu/Marshaller.java,v 1.3 2007/11/23 08:52:25 martin Exp $
  ****************************************************************************/
 package com.seleniumsoftware.SMPPSim.pdu;
+
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+
 public interface Marshaller {
 
 /*
@@ -34,4 +37,10 @@ public interface Marshaller {
  */
 	public byte [] marshall() throws Exception;
 
+	/*
+	 * Writes the PDU at the writer's current position, e.g. into a buffer
+	 * supplied by the caller rather than a newly allocated one
+	 */
+	public void marshall(PduWriter writer) throws Exception;
+
 }
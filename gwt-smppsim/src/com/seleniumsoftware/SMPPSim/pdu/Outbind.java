@@ -50,18 +50,13 @@ public class Outbind extends Response implements Marshaller {
 		this.password = password;
 	}
 	
-	public byte[] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		logger.finest("Prepared header for marshalling");
-		out.write(PduUtilities.stringToNullTerminatedByteArray(system_id));
-		logger.finest("marshalled system_id");
-		out.write(PduUtilities.stringToNullTerminatedByteArray(password));
-		logger.finest("marshalled password");
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
+	protected int getBodyLength() {
+		return PduWriter.sizeOf(system_id) + PduWriter.sizeOf(password);
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		writer.putCOctetString(system_id);
+		writer.putCOctetString(password);
 	}
 
 	/**
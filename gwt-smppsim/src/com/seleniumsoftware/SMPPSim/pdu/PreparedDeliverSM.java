@@ -0,0 +1,96 @@
+/****************************************************************************
+ * PreparedDeliverSM.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu;
+
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
+
+/**
+ * A DELIVER_SM whose encoded form was built in advance, such as those the MO
+ * template source produces by patching a pre-marshalled frame. Marshalling it
+ * only writes the current sequence number into the frame. The short message
+ * is taken from the frame when asked for.
+ */
+public class PreparedDeliverSM extends DeliverSM {
+
+	private static final long serialVersionUID = 1L;
+
+	private final byte[] pdu;
+
+	private final int smOffset;
+
+	/**
+	 * @param pdu
+	 *            the complete encoded PDU, owned by this object from now on
+	 * @param smOffset
+	 *            where the short message starts in pdu
+	 * @param smLength
+	 *            length of the short message
+	 */
+	public PreparedDeliverSM(byte[] pdu, String source_addr,
+			String destination_addr, int data_coding, int smOffset,
+			int smLength) {
+		this.pdu = pdu;
+		this.smOffset = smOffset;
+		setSource_addr(source_addr);
+		setDestination_addr(destination_addr);
+		setData_coding(data_coding);
+		setSm_length(smLength);
+		setShort_message(null);
+	}
+
+	public byte[] marshall() throws Exception {
+		int seq_no = getSeq_no();
+		pdu[12] = (byte) (seq_no >>> 24);
+		pdu[13] = (byte) (seq_no >>> 16);
+		pdu[14] = (byte) (seq_no >>> 8);
+		pdu[15] = (byte) seq_no;
+		return pdu;
+	}
+
+	public void marshall(PduWriter writer) throws Exception {
+		writer.putBytes(marshall());
+	}
+
+	public int getLength() {
+		return pdu.length;
+	}
+
+	public byte[] getShort_message() {
+		byte[] sm = super.getShort_message();
+		if (sm == null) {
+			sm = new byte[getSm_length()];
+			System.arraycopy(pdu, smOffset, sm, 0, sm.length);
+			setShort_message(sm);
+		}
+		return sm;
+	}
+
+	public String toString() {
+		getShort_message();
+		return super.toString();
+	}
+}
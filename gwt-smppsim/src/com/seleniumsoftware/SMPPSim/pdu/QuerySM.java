@@ -41,46 +41,39 @@ public class QuerySM extends Request implements Demarshaller {
 
 	private String originating_addr;
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 		// now set atributes of this specific PDU type
-		int inx = 16;
 		try {
-			original_message_id = PduUtilities.getStringValueNullTerminated(
-					request, inx, 65, PduConstants.C_OCTET_STRING_TYPE);
+			original_message_id = reader.getCOctetString(65);
 		} catch (Exception e) {
 			logger
 					.severe("QUERY_SM PDU is malformed. original_message_id is incorrect");
 			throw (e);
 		}
-		inx = inx + original_message_id.length() + 1;
 		try {
-			originating_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			originating_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("QUERY_SM PDU is malformed. originating_ton is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			originating_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			originating_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("QUERY_SM PDU is malformed. originating_npi is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			originating_addr = PduUtilities.getStringValueNullTerminated(
-					request, inx, 21, PduConstants.C_OCTET_STRING_TYPE);
+			originating_addr = reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger
 					.severe("QUERY_SM PDU is malformed. originating_npi is incorrect");
 			throw (e);
 		}
-		inx = inx + originating_addr.length() + 1;
 	}
 
 	/**
@@ -26,7 +26,7 @@
  ****************************************************************************/
 
 package com.seleniumsoftware.SMPPSim.pdu;
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
 
 import java.util.*;
 
@@ -54,17 +54,16 @@ public class QuerySMResp extends Response implements Marshaller {
 
 	}
 
-	public byte[] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		out.write(PduUtilities.stringToNullTerminatedByteArray(original_message_id));
-		out.write(PduUtilities.stringToNullTerminatedByteArray(final_date));
-		out.write(PduUtilities.makeByteArrayFromInt(message_state,1));
-		out.write(PduUtilities.makeByteArrayFromInt(error_code,1));
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
+	protected int getBodyLength() {
+		return PduWriter.sizeOf(original_message_id)
+				+ PduWriter.sizeOf(final_date) + 2;
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		writer.putCOctetString(original_message_id);
+		writer.putCOctetString(final_date);
+		writer.putByte(message_state);
+		writer.putByte(error_code);
 	}
 	/**
 	 * @return
@@ -53,92 +53,76 @@ public class ReplaceSM extends Request implements Demarshaller {
 
 	private byte[] short_message;
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 		// now set atributes of this specific PDU type
-		int inx = 16;
 		try {
-			message_id = PduUtilities.getStringValueNullTerminated(request,
-					inx, 65, PduConstants.C_OCTET_STRING_TYPE);
+			message_id = reader.getCOctetString(65);
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. message_id is incorrect");
 			throw (e);
 		}
-		inx = inx + message_id.length() + 1;
 		try {
-			source_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+			source_addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. source_addr_ton is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			source_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+			source_addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. source_addr_npi is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			source_addr = PduUtilities.getStringValueNullTerminated(request,
-					inx, 21, PduConstants.C_OCTET_STRING_TYPE);
+			source_addr = reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. source_addr is incorrect");
 			throw (e);
 		}
-		inx = inx + source_addr.length() + 1;
 		try {
-			schedule_delivery_time = PduUtilities.getStringValueNullTerminated(
-					request, inx, 17, PduConstants.C_OCTET_STRING_TYPE);
+			schedule_delivery_time = reader.getCOctetString(17);
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. schedule_delivery_time is incorrect");
 			throw (e);
 		}
-		inx = inx + schedule_delivery_time.length() + 1;
 		try {
-			validity_period = PduUtilities.getStringValueNullTerminated(
-					request, inx, 17, PduConstants.C_OCTET_STRING_TYPE);
+			validity_period = reader.getCOctetString(17);
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. validity_period is incorrect");
 			throw (e);
 		}
-		inx = inx + validity_period.length() + 1;
 		try {
-			registered_delivery_flag = PduUtilities.getIntegerValue(request,
-					inx, 1);
+			registered_delivery_flag = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. registered_delivery_flag is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			sm_default_msg_id = PduUtilities.getIntegerValue(request, inx, 1);
+			sm_default_msg_id = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. sm_default_msg_id is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		try {
-			sm_length = PduUtilities.getIntegerValue(request, inx, 1);
+			sm_length = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("REPLACE_SM PDU is malformed. sm_length is incorrect");
 			throw (e);
 		}
-		inx = inx + 1;
 		if (sm_length > 0) {
-			short_message = new byte[sm_length];
-			System.arraycopy(request, inx, short_message, 0, sm_length);
+			short_message = reader.getBytes(sm_length);
 		}
 	}
 
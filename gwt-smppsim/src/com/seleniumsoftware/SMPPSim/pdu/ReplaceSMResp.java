@@ -26,7 +26,6 @@
  ****************************************************************************/
 
 package com.seleniumsoftware.SMPPSim.pdu;
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
 
 public class ReplaceSMResp extends Response implements Marshaller {
 
@@ -41,14 +40,6 @@ public class ReplaceSMResp extends Response implements Marshaller {
 		// message body
 	}
 
-	public byte[] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
-	}
 		
 	/**
 	 * *returns String representation of PDU
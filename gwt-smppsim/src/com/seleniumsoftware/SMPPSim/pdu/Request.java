@@ -27,41 +27,44 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduReader;
 
 abstract public class Request extends Pdu implements Demarshaller {
 
 	public void demarshall(byte[] request) throws Exception {
-		int inx = 0;
+		demarshall(new PduReader(request));
+	}
+
+	/*
+	 * Subclasses override this to read their own attributes, calling super
+	 * first so that the reader is positioned just past the header.
+	 */
+	public void demarshall(PduReader reader) throws Exception {
 		try {
-			setCmd_len(PduUtilities.getIntegerValue(request, inx, 4));
+			setCmd_len(reader.getInt());
 		} catch (Exception e) {
 			logger.severe("SMPP header PDU is malformed. cmd_len is incorrect");
 			throw (e);
 		}
-		inx = inx + 4;
 		try {
-			setCmd_id(PduUtilities.getIntegerValue(request, inx, 4));
+			setCmd_id(reader.getInt());
 		} catch (Exception e) {
 			logger.severe("SMPP header PDU is malformed. cmd_id is incorrect");
 			throw (e);
 		}
-		inx = inx + 4;
 		try {
-			setCmd_status(PduUtilities.getIntegerValue(request, inx, 4));
+			setCmd_status(reader.getInt());
 		} catch (Exception e) {
 			logger
 					.severe("SMPP header PDU is malformed. cmd_status is incorrect");
 			throw (e);
 		}
-		inx = inx + 4;
 		try {
-			setSeq_no(PduUtilities.getIntegerValue(request, inx, 4));
+			setSeq_no(reader.getInt());
 		} catch (Exception e) {
 			logger.severe("SMPP header PDU is malformed. seq_no is incorrect");
 			throw (e);
 		}
-		inx = inx + 4;
 	}
 
 	public String toString() {
@@ -28,29 +28,48 @@
 package com.seleniumsoftware.SMPPSim.pdu;
 import com.seleniumsoftware.SMPPSim.pdu.util.*;
 
-import java.io.*;
-
 abstract public class Response extends Pdu implements Marshaller {
 
-	transient ByteArrayOutputStream out = new ByteArrayOutputStream();
+	public byte [] marshall() throws Exception {
+		PduWriter writer = new PduWriter(getLength());
+		marshall(writer);
+		return writer.toByteArray();
+	}
+
+	public void marshall(PduWriter writer) throws Exception {
+		writer.startPdu(getCmd_id(), getCmd_status(), getSeq_no());
+		marshallBody(writer);
+		writer.endPdu();
+	}
+
+	/**
+	 * @return encoded size of the PDU, header included
+	 */
+	public int getLength() {
+		return PduWriter.HEADER_LENGTH + getBodyLength();
+	}
+
+	/*
+	 * Subclasses with a body return its encoded size here and write it in
+	 * marshallBody; the two must agree since the PDU buffer is sized from
+	 * the former.
+	 */
+	protected int getBodyLength() {
+		return 0;
+	}
 
-	public void prepareHeaderForMarshalling() throws Exception {
-		out.reset();
-		out.write(PduUtilities.makeByteArrayFromInt(getCmd_len(),4));
-		out.write(PduUtilities.makeByteArrayFromInt(getCmd_id(),4));
-		out.write(PduUtilities.makeByteArrayFromInt(getCmd_status(),4));
-		out.write(PduUtilities.makeByteArrayFromInt(getSeq_no(),4));
+	protected void marshallBody(PduWriter writer) throws Exception {
 	}
 	
 	public byte [] errorResponse(int cmd_id, int cmd_status, int seq_no) throws Exception {
-		out.reset();
 		setCmd_len(16);
 		setCmd_id(cmd_id);
 		setCmd_status(cmd_status);
 		setSeq_no(seq_no);
-		prepareHeaderForMarshalling();
-		byte [] response = out.toByteArray();
-		return response;
+		PduWriter writer = new PduWriter(PduWriter.HEADER_LENGTH);
+		writer.startPdu(cmd_id, cmd_status, seq_no);
+		writer.endPdu();
+		return writer.toByteArray();
 	}
 	
 	public String toString() {
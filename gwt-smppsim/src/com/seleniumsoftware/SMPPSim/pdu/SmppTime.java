@@ -27,27 +27,27 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.*;
 
+import com.seleniumsoftware.SMPPSim.pdu.util.SmppTimeCodec;
+
 public class SmppTime {
 
 	private static Logger logger = Logger.getLogger("com.seleniumsoftware.smppsim");
 
-	// SMPP Date components
-	private String YY; // last two digits of the year (00-99)
-	private String MM; // month (01-12)
-	private String DD; // day (01-31)
-	private String hh; // hour (00-23)
-	private String mm; // minute (00-59)
-	private String ss; // second (00-59)
-	private String t; // tenths of second (0-9)
-	private String nn; // Time difference in quarter hours between local
+	// SMPP Date components, held in dateString:
+	// YY last two digits of the year (00-99)
+	// MM month (01-12)
+	// DD day (01-31)
+	// hh hour (00-23)
+	// mm minute (00-59)
+	// ss second (00-59)
+	// t tenths of second (0-9)
+	// nn Time difference in quarter hours between local
 	// time (as expressed in the first 13 octets) and UTC
 	// (Universal Time Constant) time (00-48).
-	private String p;
-	// "+": Local time is in quarter hours advanced in relation
+	// p "+": Local time is in quarter hours advanced in relation
 	// to UTC time.
 	// "-": Local time is in quarter hours retarded in relation
 	// to UTC time.
@@ -56,188 +56,133 @@ public class SmppTime {
 	// Note that SMPPSim currently only supports times with p="+" and nn="00"; Any other values are simply
 	// ignored.
 
-	private String milli;	// t plus "00"
-	
 	private String dateString;	// Whole field with nn and p sanitised if necessary
 	
 	// Equivalent Java date/time
-	private Date datetime;
+	private long time;
 	
 	public SmppTime(String smppTime) throws ParseException {
 		String st = smppTime;
 		// 050219133817000+
-		YY = st.substring(0, 2);
-		MM = st.substring(2, 4);
-		DD = st.substring(4, 6);
-		hh = st.substring(6, 8);
-		mm = st.substring(8, 10);
-		ss = st.substring(10, 12);
-		t = st.substring(12, 13);
-		nn = st.substring(13, 15);
-		if (!nn.equals("00")) {
+		if (st.length() < 16)
+			throw new ParseException("Unparseable SMPP time: \"" + st + "\"",
+					st.length());
+		time = SmppTimeCodec.parse(st);
+		boolean sanitise = false;
+		if (!st.startsWith("00", 13)) {
 			logger.warning("SMPPSim currently only supports time component nn=00. Value replaced with 00");
-			nn = "00";
+			sanitise = true;
 		}
-		p = st.substring(15, 16);
-		if (!p.equals("+")) {
+		if (st.charAt(15) != '+') {
 			logger.warning("SMPPSim currently only supports time component p=+. Value replaced with +");
-			p = "+";
+			sanitise = true;
 		}
-		milli = t + "00";
-		dateString = YY+MM+DD+hh+mm+ss+t+nn+p;
-		SimpleDateFormat formatter = new SimpleDateFormat("yyMMddHHmmssSSS");
-		datetime = formatter.parse(dateString);
+		if (sanitise)
+			dateString = st.substring(0, 13) + "00+";
+		else if (st.length() > 16)
+			dateString = st.substring(0, 16);
+		else
+			dateString = st;
+	}
+
+	/**
+	 * The given time, truncated to the second.
+	 */
+	public SmppTime(long time) {
+		dateString = SmppTimeCodec.format(time);
+		this.time = time - time % 1000;
 	}
 
 	public static String dateToSMPPString(Date date) {
 		//put the date into the format required for SMPP:
 		// YYMMDDhhmmsstnnp where items are as expected and t is tenths of a second, nn is time diff in qtr hours between local
 		// time and UTC. p is "+" or "-" indicating the whether the nn difference is < or > UTC.
-
-		SimpleDateFormat formatter = new SimpleDateFormat("yyMMddHHmmss");
-
-		// now append tenths of a second (hard-coded as zero, UTC diff and UTC sign
-		return (formatter.format(date) + "000+");
+		// tenths of a second are hard-coded as zero, as are the UTC diff and UTC sign
+		return SmppTimeCodec.format(date.getTime());
 	}
 
 	/**
 	 * @return
 	 */
 	public Date getDatetime() {
-		return datetime;
+		return new Date(time);
+	}
+
+	/**
+	 * @return
+	 */
+	public long getTime() {
+		return time;
 	}
 
 	/**
 	 * @return
 	 */
 	public String getDD() {
-		return DD;
+		return dateString.substring(4, 6);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getHh() {
-		return hh;
+		return dateString.substring(6, 8);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getMm() {
-		return mm;
+		return dateString.substring(8, 10);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getMM() {
-		return MM;
+		return dateString.substring(2, 4);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getNn() {
-		return nn;
+		return dateString.substring(13, 15);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getP() {
-		return p;
+		return dateString.substring(15, 16);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getSs() {
-		return ss;
+		return dateString.substring(10, 12);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getT() {
-		return t;
+		return dateString.substring(12, 13);
 	}
 
 	/**
 	 * @return
 	 */
 	public String getYY() {
-		return YY;
+		return dateString.substring(0, 2);
 	}
 
 	/**
 	 * @param date
 	 */
 	public void setDatetime(Date date) {
-		datetime = date;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setDD(String string) {
-		DD = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setHh(String string) {
-		hh = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setMm(String string) {
-		mm = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setMM(String string) {
-		MM = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setNn(String string) {
-		nn = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setP(String string) {
-		p = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setSs(String string) {
-		ss = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setT(String string) {
-		t = string;
-	}
-
-	/**
-	 * @param string
-	 */
-	public void setYY(String string) {
-		YY = string;
+		time = date.getTime();
 	}
 
 	/**
@@ -258,4 +203,4 @@ public class SmppTime {
 		return dateString;
 	}
 
-}
\ No newline at end of file
+}
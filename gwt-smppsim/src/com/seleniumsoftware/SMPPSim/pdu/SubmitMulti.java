@@ -50,191 +50,143 @@ public class SubmitMulti extends Request implements Demarshaller {
 	private int sm_length;
 	private byte [] short_message;
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 		// now set atributes of this specific PDU type
-		int inx = 16;
 		try {
 		service_type =
-			PduUtilities.getStringValueNullTerminated(
-				request,
-				inx,
-				6,
-				PduConstants.C_OCTET_STRING_TYPE);
+			reader.getCOctetString(6);
 		} catch (Exception e) {
 			logger
 					.severe("SUBMIT_MULTI PDU is malformed. service_type is incorrect");
 			throw (e);
 		}	
-		inx = inx + service_type.length() + 1;
 		try {
-		source_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
+		source_addr_ton = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("SUBMIT_MULTI PDU is malformed. source_addr_ton is incorrect");
 			throw (e);
 		}	
-		inx = inx + 1;
 		try {
-		source_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
+		source_addr_npi = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("SUBMIT_MULTI PDU is malformed. source_addr_npi is incorrect");
 			throw (e);
 		}	
-		inx = inx + 1;
 		try {
 		source_addr =
-			PduUtilities.getStringValueNullTerminated(
-				request,
-				inx,
-				21,
-				PduConstants.C_OCTET_STRING_TYPE);
+			reader.getCOctetString(21);
 		} catch (Exception e) {
 			logger
 					.severe("SUBMIT_MULTI PDU is malformed. source_addr is incorrect");
 			throw (e);
 		}	
-		inx = inx + source_addr.length() + 1;
 		try {
-		number_of_dests = PduUtilities.getIntegerValue(request, inx, 1);
+		number_of_dests = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
 					.severe("SUBMIT_MULTI PDU is malformed. number_of_dests is incorrect");
 			throw (e);
 		}	
 		dest_addresses = new DestAddress[number_of_dests];
-		inx = inx + 1;
 		int dest_flag;
 		for (int i = 0; i < number_of_dests; i++) {
 			try {
-			dest_flag = PduUtilities.getIntegerValue(request, inx, 1);
+			dest_flag = reader.getUnsignedByte();
 			} catch (Exception e) {
 				logger
-						.severe("SUBMIT_MULTI PDU is malformed. dest_flag at "+inx+" is incorrect");
+						.severe("SUBMIT_MULTI PDU is malformed. dest_flag at "+reader.position()+" is incorrect");
 				throw (e);
 			}	
-			inx++;
 			if (dest_flag == PduConstants.SME_ADDRESS) {
 				DestAddressSME sme = new DestAddressSME();
 				sme.setDest_flag(dest_flag);
 				try {
-				sme.setSme_ton(PduUtilities.getIntegerValue(request, inx, 1));
+				sme.setSme_ton(reader.getUnsignedByte());
 				} catch (Exception e) {
 					logger
-							.severe("SUBMIT_MULTI PDU is malformed. sme ton at position "+inx+" is incorrect");
+							.severe("SUBMIT_MULTI PDU is malformed. sme ton at position "+reader.position()+" is incorrect");
 					throw (e);
 				}	
-				inx++;
 				try {
-				sme.setSme_npi(PduUtilities.getIntegerValue(request, inx, 1));
+				sme.setSme_npi(reader.getUnsignedByte());
 				} catch (Exception e) {
 					logger
-							.severe("SUBMIT_MULTI PDU is malformed. sme_npi at position "+inx+" is incorrect");
+							.severe("SUBMIT_MULTI PDU is malformed. sme_npi at position "+reader.position()+" is incorrect");
 					throw (e);
 				}	
-				inx++;
 				try {
 				sme.setSme_address(
-					PduUtilities.getStringValueNullTerminated(
-						request,
-						inx,
-						21,
-						PduConstants.C_OCTET_STRING_TYPE));
+					reader.getCOctetString(21));
 				} catch (Exception e) {
 					logger
-							.severe("SUBMIT_MULTI PDU is malformed. sme_address at position "+inx+" is incorrect");
+							.severe("SUBMIT_MULTI PDU is malformed. sme_address at position "+reader.position()+" is incorrect");
 					throw (e);
 				}	
-				inx = inx + sme.getSme_address().length() + 1;
 				dest_addresses[i] = sme;
 			} else if (dest_flag == PduConstants.DISTRIBUTION_LIST_NAME) {
 				DestAddressDL dl = new DestAddressDL();
 				dl.setDest_flag(dest_flag);
 				try {
 				dl.setDl_name(
-					PduUtilities.getStringValueNullTerminated(
-						request,
-						inx,
-						21,
-						PduConstants.C_OCTET_STRING_TYPE));
+					reader.getCOctetString(21));
 				} catch (Exception e) {
 					logger
-							.severe("SUBMIT_MULTI PDU is malformed. dist_list_name at position "+inx+" is incorrect");
+							.severe("SUBMIT_MULTI PDU is malformed. dist_list_name at position "+reader.position()+" is incorrect");
 					throw (e);
 				}	
-				inx = inx + dl.getDl_name().length() + 1;
 				dest_addresses[i] = dl;
 			} else
 				throw new Exception("Invalid dest_flag(" + dest_flag + ")");
 		}
 		try {
-		esm_class = PduUtilities.getIntegerValue(request, inx, 1);
+		esm_class = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
-					.severe("SUBMIT_MULTI PDU is malformed. esm_class at position "+inx+" is incorrect");
+					.severe("SUBMIT_MULTI PDU is malformed. esm_class at position "+reader.position()+" is incorrect");
 			throw (e);
 		}	
-		inx = inx + 1;
 		try {
-		protocol_ID = PduUtilities.getIntegerValue(request, inx, 1);
+		protocol_ID = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
-					.severe("SUBMIT_MULTI PDU is malformed. protocol_id at position "+inx+" is incorrect");
+					.severe("SUBMIT_MULTI PDU is malformed. protocol_id at position "+reader.position()+" is incorrect");
 			throw (e);
 		}	
-		inx = inx + 1;
 		try {
-		priority_flag = PduUtilities.getIntegerValue(request, inx, 1);
+		priority_flag = reader.getUnsignedByte();
 		} catch (Exception e) {
 			logger
-					.severe("SUBMIT_MULTI PDU is malformed. priority_flag at position "+inx+" is incorrect");
+					.severe("SUBMIT_MULTI PDU is malformed. priority_flag at position "+reader.position()+" is incorrect");
 			throw (e);
 		}	
-		inx = inx + 1;
 		try {
 		schedule_delivery_time =
-			PduUtilities.getStringValueNullTerminated(
-				request,
-				inx,
-				17,
-				PduConstants.C_OCTET_STRING_TYPE);
+			reader.getCOctetString(17);
 		} catch (Exception e) {
 			logger
-					.severe("SUBMIT_MULTI PDU is malformed. schedule_delivery_time at position "+inx+" is incorrect");
+					.severe("SUBMIT_MULTI PDU is malformed. schedule_delivery_time at position "+reader.position()+" is incorrect");
 			throw (e);
 		}	
-		inx = inx + schedule_delivery_time.length() + 1;
 		try {
 		validity_period =
-			PduUtilities.getStringValueNullTerminated(
-				request,
-				inx,
-				17,
-				PduConstants.C_OCTET_STRING_TYPE);
+			reader.getCOctetString(17);
 		} catch (Exception e) {
 			logger
-					.severe("SUBMIT_MULTI PDU is malformed. validity_period at position "+inx+" is incorrect");
+					.severe("SUBMIT_MULTI PDU is malformed. validity_period at position "+reader.position()+" is incorrect");
 			throw (e);
 		}	
-		inx = inx + validity_period.length() + 1;
 		registered_delivery_flag =
-			PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		replace_if_present_flag = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		data_coding = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		sm_default_msg_id = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		sm_length = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		short_message = new byte[sm_length];
-		if (sm_length > 0) {
-			System.arraycopy(request, inx,	short_message, 0, sm_length);
-		}
+			reader.getUnsignedByte();
+		replace_if_present_flag = reader.getUnsignedByte();
+		data_coding = reader.getUnsignedByte();
+		sm_default_msg_id = reader.getUnsignedByte();
+		sm_length = reader.getUnsignedByte();
+		short_message = reader.getBytes(sm_length);
 
 	}
 
@@ -27,7 +27,7 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 import com.seleniumsoftware.SMPPSim.*;
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
 
 public class SubmitMultiResp extends Response implements Marshaller {
 
@@ -50,24 +50,24 @@ public class SubmitMultiResp extends Response implements Marshaller {
 		// until we have message state simulator working		
 	}
 
-	public byte[] marshall() throws Exception {
-		out.reset();
-		UnsuccessSME u = new UnsuccessSME();
-		super.prepareHeaderForMarshalling();
-		
-		out.write(PduUtilities.stringToNullTerminatedByteArray(message_id));
-		out.write(PduUtilities.makeByteArrayFromInt(no_unsuccess, 1));
+	protected int getBodyLength() {
+		int len = PduWriter.sizeOf(message_id) + 1;
+		for (int i=0;i<no_unsuccess;i++)
+			len += 6 + PduWriter.sizeOf(unsuccess_smes[i].getDestination_addr());
+		return len;
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		UnsuccessSME u;
+		writer.putCOctetString(message_id);
+		writer.putByte(no_unsuccess);
 		for (int i=0;i<no_unsuccess;i++) {
 			u = unsuccess_smes[i];
-			out.write(PduUtilities.makeByteArrayFromInt(u.getDest_addr_ton(), 1));
-			out.write(PduUtilities.makeByteArrayFromInt(u.getDest_addr_npi(), 1));
-			out.write(PduUtilities.stringToNullTerminatedByteArray(u.getDestination_addr()));
-			out.write(PduUtilities.makeByteArrayFromInt(u.getError_status_code(), 4));
+			writer.putByte(u.getDest_addr_ton());
+			writer.putByte(u.getDest_addr_npi());
+			writer.putCOctetString(u.getDestination_addr());
+			writer.putInt(u.getError_status_code());
 		}
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
 	}
 
 	/**
@@ -27,7 +27,6 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 
-import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.pdu.util.*;
@@ -75,80 +74,42 @@ public class SubmitSM extends Request implements Demarshaller {
 	private byte [] short_message;
 
 	// Optional PDU attributes
-	private ArrayList<Tlv> optionals = new ArrayList<Tlv>();
+	private TlvTable optionals = new TlvTable();
 
-	public void demarshall(byte[] request) throws Exception {
+	public void demarshall(PduReader reader) throws Exception {
 
 		// demarshall the header
-		super.demarshall(request);
+		super.demarshall(reader);
 
 		// now set mandatory attributes of this specific PDU type
-		int inx = 16;
-		service_type = PduUtilities.getStringValueNullTerminated(request, inx,
-				6, PduConstants.C_OCTET_STRING_TYPE);
-		inx = inx + service_type.length() + 1;
-		source_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		source_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		source_addr = PduUtilities.getStringValueNullTerminated(request, inx,
-				21, PduConstants.C_OCTET_STRING_TYPE);
-		inx = inx + source_addr.length() + 1;
-		dest_addr_ton = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		dest_addr_npi = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		destination_addr = PduUtilities.getStringValueNullTerminated(request,
-				inx, 21, PduConstants.C_OCTET_STRING_TYPE);
-		inx = inx + destination_addr.length() + 1;
-		esm_class = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		protocol_ID = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		priority_flag = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		schedule_delivery_time = PduUtilities.getStringValueNullTerminated(
-				request, inx, 17, PduConstants.C_OCTET_STRING_TYPE);
-		inx = inx + schedule_delivery_time.length() + 1;
-		validity_period = PduUtilities.getStringValueNullTerminated(request,
-				inx, 17, PduConstants.C_OCTET_STRING_TYPE);
-		inx = inx + validity_period.length() + 1;
-		registered_delivery_flag = PduUtilities
-				.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		replace_if_present_flag = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		data_coding = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		sm_default_msg_id = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		sm_length = PduUtilities.getIntegerValue(request, inx, 1);
-		inx = inx + 1;
-		short_message = new byte[sm_length];
-		if (sm_length > 0) {
-			System.arraycopy(request, inx,	short_message, 0, sm_length);
-		}
+		service_type = reader.getCOctetString(6);
+		source_addr_ton = reader.getUnsignedByte();
+		source_addr_npi = reader.getUnsignedByte();
+		source_addr = reader.getCOctetString(21);
+		dest_addr_ton = reader.getUnsignedByte();
+		dest_addr_npi = reader.getUnsignedByte();
+		destination_addr = reader.getCOctetString(21);
+		esm_class = reader.getUnsignedByte();
+		protocol_ID = reader.getUnsignedByte();
+		priority_flag = reader.getUnsignedByte();
+		schedule_delivery_time = reader.getCOctetString(17);
+		validity_period = reader.getCOctetString(17);
+		registered_delivery_flag = reader.getUnsignedByte();
+		replace_if_present_flag = reader.getUnsignedByte();
+		data_coding = reader.getUnsignedByte();
+		sm_default_msg_id = reader.getUnsignedByte();
+		sm_length = reader.getUnsignedByte();
+		short_message = reader.getBytes(sm_length);
 
 		// Now process optional parameters if there are any
-		inx = inx + sm_length;
-		short tag;
-		short oplen;
-		byte[] value;
-		while (getCmd_len() > inx) {
-			tag = (short) PduUtilities.getIntegerValue(request, inx, 2);
-			inx = inx + 2;
-			oplen = (short) PduUtilities.getIntegerValue(request, inx, 2);
-			inx = inx + 2;
-			if (oplen > 0) {
-				value = new byte[oplen];
-				for (int i = 0; i < oplen; i++) {
-					value[i] = request[inx];
-					inx++;
-				}
-				optionals.add(new Tlv(tag, oplen, value));
-			} else
-				optionals.add(new  TlvEmpty(tag,oplen));
-		}
+		optionals = TlvTable.read(reader, getCmd_len());
+	}
+
+	/**
+	 * @return
+	 */
+	public TlvTable getOptionals() {
+		return optionals;
 	}
 
 	/**
@@ -421,11 +382,7 @@ public class SubmitSM extends Request implements Demarshaller {
 				+ "sm_length=" + sm_length + "," + "short_message=");
 				if (sm_length > 0)
 				    sb.append(new String(short_message));
-		if (optionals.size() > 0) {
-			for (int i = 0; i < optionals.size(); i++) {
-				sb.append("," + optionals.get(i).toString());
-			}
-		}
+		optionals.appendTo(sb);
 		return sb.toString();
 	}
 }
\ No newline at end of file
@@ -27,13 +27,21 @@
 
 package com.seleniumsoftware.SMPPSim.pdu;
 import com.seleniumsoftware.SMPPSim.*;
-import com.seleniumsoftware.SMPPSim.pdu.util.PduUtilities;
+import com.seleniumsoftware.SMPPSim.pdu.util.PduWriter;
 
 public class SubmitSMResp extends Response implements Marshaller {
 
 	String message_id;
 
 	public SubmitSMResp(SubmitSM requestMsg) {
+		reset(requestMsg);
+	}
+
+	/**
+	 * Reinitialises the response for a new request, exactly as constructing a
+	 * new one would. Used when SUBMIT_SM_RESP objects are pooled.
+	 */
+	public void reset(SubmitSM requestMsg) {
 		// message header fields except message length
 		setCmd_id(PduConstants.SUBMIT_SM_RESP);
 		setCmd_status(PduConstants.ESME_ROK);
@@ -46,14 +54,12 @@ public class SubmitSMResp extends Response implements Marshaller {
 		message_id = Smsc.getMessageID();		
 	}
 
-	public byte[] marshall() throws Exception {
-		out.reset();
-		super.prepareHeaderForMarshalling();
-		out.write(PduUtilities.stringToNullTerminatedByteArray(message_id));
-		byte[] response = out.toByteArray();
-		int l = response.length;
-		response = PduUtilities.setPduLength(response, l);
-		return response;
+	protected int getBodyLength() {
+		return PduWriter.sizeOf(message_id);
+	}
+
+	protected void marshallBody(PduWriter writer) {
+		writer.putCOctetString(message_id);
 	}
 	/**
 	 * @return
@@ -0,0 +1,182 @@
+/****************************************************************************
+ * PduReader.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cursor over a single SMPP PDU. Demarshallers read the header, the mandatory
+ * fields and any TLVs front to back in one pass; C-Octet strings are built
+ * straight from the underlying buffer so no intermediate arrays are created
+ * for them.
+ * 
+ * All reads are bounds checked against the end of the PDU and fail with an
+ * Exception, as the PduUtilities methods do, so existing "PDU is malformed"
+ * handling in the demarshallers carries over unchanged.
+ */
+public class PduReader {
+
+	private final ByteBuffer buffer;
+
+	private final int start;
+
+	private final int limit;
+
+	private int pos;
+
+	public PduReader(byte[] pdu) {
+		this(ByteBuffer.wrap(pdu));
+	}
+
+	/**
+	 * Reads the PDU held between the buffer's position and limit. The
+	 * buffer's own position is not modified.
+	 */
+	public PduReader(ByteBuffer pdu) {
+		buffer = pdu;
+		start = pdu.position();
+		limit = pdu.limit();
+		pos = start;
+	}
+
+	/**
+	 * @return offset of the cursor from the start of the PDU
+	 */
+	public int position() {
+		return pos - start;
+	}
+
+	public int remaining() {
+		return limit - pos;
+	}
+
+	public boolean hasRemaining() {
+		return pos < limit;
+	}
+
+	public int getInt() throws Exception {
+		require(4);
+		int i = buffer.getInt(pos);
+		pos += 4;
+		return i;
+	}
+
+	public int getUnsignedShort() throws Exception {
+		require(2);
+		int s = buffer.getShort(pos) & 0xffff;
+		pos += 2;
+		return s;
+	}
+
+	public int getUnsignedByte() throws Exception {
+		require(1);
+		return buffer.get(pos++) & 0xff;
+	}
+
+	/**
+	 * Reads a null terminated string and steps over its terminator.
+	 * 
+	 * @param maxlength
+	 *            maximum size of the field including the terminating null
+	 */
+	public String getCOctetString(int maxlength) throws Exception {
+		int end = Math.min(limit, pos + maxlength);
+		int i = pos;
+		while (i < end && buffer.get(i) != 0x00)
+			i++;
+		if (i == end) {
+			if (end == limit && i - pos < maxlength)
+				throw new Exception(" Error: string at offset " + position()
+						+ " is not null terminated");
+			throw new Exception(" Error: string size (" + (i - pos + 1)
+					+ ") exceeds maximum specified (" + maxlength + ")");
+		}
+		String s = newString(i - pos);
+		pos = i + 1;
+		return s;
+	}
+
+	public String getFixedLengthString(int length) throws Exception {
+		require(length);
+		String s = newString(length);
+		pos += length;
+		return s;
+	}
+
+	public byte[] getBytes(int length) throws Exception {
+		require(length);
+		byte[] b = new byte[length];
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + pos, b, 0,
+					length);
+		} else {
+			for (int i = 0; i < length; i++)
+				b[i] = buffer.get(pos + i);
+		}
+		pos += length;
+		return b;
+	}
+
+	/**
+	 * Copies length octets starting at offset from the start of the PDU
+	 * without moving the cursor. The range must already have been read.
+	 */
+	public byte[] getBytesAt(int offset, int length) throws Exception {
+		if (offset < 0 || length < 0 || offset + length > pos - start)
+			throw new Exception(" Error: octets " + offset + " to "
+					+ (offset + length) + " have not been read");
+		int savedPos = pos;
+		pos = start + offset;
+		byte[] b = getBytes(length);
+		pos = savedPos;
+		return b;
+	}
+
+	public void skip(int length) throws Exception {
+		require(length);
+		pos += length;
+	}
+
+	private String newString(int length) {
+		if (length == 0)
+			return "";
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + pos,
+					length);
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++)
+			b[i] = buffer.get(pos + i);
+		return new String(b);
+	}
+
+	private void require(int length) throws Exception {
+		if (length < 0 || limit - pos < length)
+			throw new Exception(" Error: " + length + " octets needed at offset "
+					+ position() + " but only " + (limit - pos)
+					+ " remain in PDU");
+	}
+}
@@ -26,6 +26,7 @@
 package com.seleniumsoftware.SMPPSim.pdu.util;
 
 import com.seleniumsoftware.SMPPSim.pdu.*;
+import com.seleniumsoftware.SMPPSim.util.SimRandom;
 
 import java.io.UnsupportedEncodingException;
 import java.util.logging.*;
@@ -64,7 +65,8 @@ public class PduUtilities {
 			.getLogger("com.seleniumsoftware.smppsim");
 
 	public static int getRandomSubmitError() {
-		return PduConstants.SUBMIT_SM_ERRORS[(int) (Math.random() * PduConstants.submitsm_error_count)];
+		return PduConstants.SUBMIT_SM_ERRORS[SimRandom
+				.nextInt(PduConstants.submitsm_error_count)];
 	}
 
 	public static String getStringValueNullTerminated(byte[] pdu, int pduIndex,
@@ -85,9 +87,7 @@ public class PduUtilities {
 				pduIndex++;
 			}
 			if (target_len < maxlength) {
-				byte[] result = new byte[target_len];
-				System.arraycopy(pdu, startPoint, result, 0, target_len);
-				return new String(result);
+				return new String(pdu, startPoint, target_len);
 			} else {
 				throw new Exception(" Error: string size (" + target_len + 1
 						+ ") exceeds maximum specified (" + maxlength + ")");
@@ -139,25 +139,10 @@ public class PduUtilities {
 			throw new Exception("Invalid length (" + len
 					+ ") for integer conversion");
 		}
-		int inx = start;
-		byte[] ba = new byte[4];
 		int newInt = 0x00000000;
-		int l = len - 1;
-		int ia = 3;
-
-		for (int i = l; i >= 0; i--) {
-			ba[ia] = msg[inx + i];
-			ia--;
+		for (int i = 0; i < len; i++) {
+			newInt = (newInt << 8) | (msg[start + i] & 0xff);
 		}
-		for (int i = ia; i >= 0; i--) {
-			ba[i] = 0x00;
-		}
-
-		newInt |= ((((int) ba[0]) << 24) & 0xff000000);
-		newInt |= ((((int) ba[1]) << 16) & 0x00ff0000);
-		newInt |= ((((int) ba[2]) << 8) & 0x0000ff00);
-		newInt |= (((int) ba[3]) & 0x000000ff);
-
 		return newInt;
 	}
 
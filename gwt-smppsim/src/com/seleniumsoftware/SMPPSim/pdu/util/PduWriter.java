@@ -0,0 +1,177 @@
+/****************************************************************************
+ * PduWriter.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a PDU directly into a single ByteBuffer. Marshallers work out the
+ * encoded length first (see the sizeOf methods), create a writer of exactly
+ * that size or hand it a buffer of their own, and then write the header,
+ * mandatory fields and TLVs in order. cmd_len is patched in by endPdu once the
+ * body has been written.
+ * 
+ * C-Octet strings are encoded one octet per char, as
+ * PduUtilities.stringToNullTerminatedByteArray has always done, so their
+ * encoded size is known without encoding them.
+ */
+public class PduWriter {
+
+	public static final int HEADER_LENGTH = 16;
+
+	private ByteBuffer buffer;
+
+	private int start;
+
+	public PduWriter(int length) {
+		this(ByteBuffer.allocate(length));
+	}
+
+	/**
+	 * Writes from the buffer's current position.
+	 */
+	public PduWriter(ByteBuffer target) {
+		reset(target);
+	}
+
+	/**
+	 * Points the writer at a new buffer so that one writer can be reused for
+	 * many PDUs.
+	 */
+	public void reset(ByteBuffer target) {
+		buffer = target;
+		start = target.position();
+	}
+
+	/**
+	 * @return encoded size of a C-Octet string including its terminator
+	 */
+	public static int sizeOf(String s) {
+		return (s == null) ? 1 : s.length() + 1;
+	}
+
+	public static int sizeOf(byte[] b) {
+		return (b == null) ? 0 : b.length;
+	}
+
+	/**
+	 * @return encoded size of a TLV carrying value as is
+	 */
+	public static int sizeOfTlv(byte[] value) {
+		return 4 + sizeOf(value);
+	}
+
+	public void startPdu(int cmd_id, int cmd_status, int seq_no) {
+		start = buffer.position();
+		buffer.putInt(0);
+		buffer.putInt(cmd_id);
+		buffer.putInt(cmd_status);
+		buffer.putInt(seq_no);
+	}
+
+	public void endPdu() {
+		buffer.putInt(start, buffer.position() - start);
+	}
+
+	public void putInt(int i) {
+		buffer.putInt(i);
+	}
+
+	public void putShort(int s) {
+		buffer.putShort((short) s);
+	}
+
+	public void putByte(int b) {
+		buffer.put((byte) b);
+	}
+
+	public void putCOctetString(String s) {
+		if (s != null) {
+			int len = s.length();
+			for (int i = 0; i < len; i++)
+				buffer.put((byte) s.charAt(i));
+		}
+		buffer.put((byte) 0x00);
+	}
+
+	public void putBytes(byte[] b) {
+		if (b != null)
+			buffer.put(b);
+	}
+
+	public void putBytes(byte[] b, int offset, int length) {
+		buffer.put(b, offset, length);
+	}
+
+	public void putTlv(short tag, byte[] value) {
+		buffer.putShort(tag);
+		buffer.putShort((short) sizeOf(value));
+		putBytes(value);
+	}
+
+	public void putShortTlv(short tag, short value) {
+		buffer.putShort(tag);
+		buffer.putShort((short) 2);
+		buffer.putShort(value);
+	}
+
+	public void putByteTlv(short tag, short value) {
+		buffer.putShort(tag);
+		buffer.putShort((short) 1);
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Writes value followed by a null terminator.
+	 */
+	public void putCOctetStringTlv(short tag, byte[] value) {
+		buffer.putShort(tag);
+		buffer.putShort((short) (value.length + 1));
+		buffer.put(value);
+		buffer.put((byte) 0x00);
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the PDU written so far. When the writer was sized exactly this
+	 *         is the backing array itself, not a copy.
+	 */
+	public byte[] toByteArray() {
+		int length = buffer.position() - start;
+		if (buffer.hasArray() && start == 0 && buffer.arrayOffset() == 0
+				&& buffer.array().length == length)
+			return buffer.array();
+		byte[] pdu = new byte[length];
+		ByteBuffer written = buffer.duplicate();
+		written.position(start);
+		written.get(pdu);
+		return pdu;
+	}
+}
@@ -0,0 +1,179 @@
+/****************************************************************************
+ * SmppTimeCodec.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Formats and parses SMPP absolute times (YYMMDDhhmmsstnnp) and the
+ * YYMMDDhhmm dates used in delivery receipts, in the default time zone, as
+ * the SimpleDateFormat based code this replaces did.
+ * 
+ * Digits are written and read by hand. The only calendar arithmetic needed is
+ * working out where each minute starts, and the last few minutes seen are
+ * cached, so formatting "now" or "now plus the default validity period"
+ * normally costs one small string and parsing a time close to now costs
+ * nothing beyond the digit scan.
+ * 
+ * Thread safe. Cache entries are immutable and a lost update only means a
+ * minute is worked out again.
+ */
+public class SmppTimeCodec {
+
+	private static final int MINUTE = 60000;
+
+	// power of two
+	private static final int CACHE_SIZE = 8;
+
+	private static final Minute[] cache = new Minute[CACHE_SIZE];
+
+	// two digit years fall in the 100 years starting 80 years ago to the
+	// millisecond, as with SimpleDateFormat
+	private static final long CENTURY_START_TIME;
+
+	private static final int CENTURY_START;
+
+	static {
+		Calendar cal = new GregorianCalendar();
+		cal.add(Calendar.YEAR, -80);
+		CENTURY_START_TIME = cal.getTimeInMillis();
+		CENTURY_START = cal.get(Calendar.YEAR);
+	}
+
+	private static final class Minute {
+
+		// time at hh:mm:00.000
+		final long start;
+
+		// YYMMDDhhmm
+		final String text;
+
+		Minute(long start, String text) {
+			this.start = start;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * @return the time as YYMMDDhhmmss000+, truncated to the second
+	 */
+	public static String format(long time) {
+		Minute m = minute(time);
+		int seconds = (int) ((time - m.start) / 1000);
+		char[] c = new char[16];
+		m.text.getChars(0, 10, c, 0);
+		c[10] = (char) ('0' + seconds / 10);
+		c[11] = (char) ('0' + seconds % 10);
+		c[12] = '0';
+		c[13] = '0';
+		c[14] = '0';
+		c[15] = '+';
+		return new String(c);
+	}
+
+	/**
+	 * @return the time as YYMMDDhhmm. Repeated calls within the same minute
+	 *         return the same String.
+	 */
+	public static String formatMinutes(long time) {
+		return minute(time).text;
+	}
+
+	/**
+	 * Parses the YYMMDDhhmmsst part of an SMPP absolute time. Out of range
+	 * fields roll over, as SimpleDateFormat's lenient parsing did. A local
+	 * time that occurs twice when the clocks go back may resolve to either
+	 * occurrence.
+	 */
+	public static long parse(String smppTime) throws ParseException {
+		if (smppTime.length() < 13)
+			throw new ParseException("Unparseable SMPP time: \"" + smppTime
+					+ "\"", smppTime.length());
+		for (int i = 0; i < 13; i++) {
+			char c = smppTime.charAt(i);
+			if (c < '0' || c > '9')
+				throw new ParseException("Unparseable SMPP time: \""
+						+ smppTime + "\"", i);
+		}
+		int millis = digits(smppTime, 10) * 1000
+				+ (smppTime.charAt(12) - '0') * 100;
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			Minute m = cache[i];
+			if (m != null && smppTime.regionMatches(0, m.text, 0, 10))
+				return m.start + millis;
+		}
+		int year = CENTURY_START - CENTURY_START % 100 + digits(smppTime, 0);
+		if (year < CENTURY_START)
+			year += 100;
+		Calendar cal = new GregorianCalendar();
+		cal.clear();
+		cal.set(year, digits(smppTime, 2) - 1, digits(smppTime, 4), digits(
+				smppTime, 6), digits(smppTime, 8));
+		long start = cal.getTimeInMillis();
+		// in the year the window starts, only times after its start belong
+		// to this century
+		if (year == CENTURY_START && start < CENTURY_START_TIME) {
+			cal.clear();
+			cal.set(year + 100, digits(smppTime, 2) - 1, digits(smppTime, 4),
+					digits(smppTime, 6), digits(smppTime, 8));
+			start = cal.getTimeInMillis();
+		}
+		// remember the minute for later parses and formats
+		minute(start);
+		return start + millis;
+	}
+
+	private static Minute minute(long time) {
+		int slot = (int) (time / MINUTE) & (CACHE_SIZE - 1);
+		Minute m = cache[slot];
+		if (m != null && time >= m.start && time < m.start + MINUTE)
+			return m;
+		Calendar cal = new GregorianCalendar();
+		cal.setTimeInMillis(time);
+		char[] c = new char[10];
+		put(c, 0, cal.get(Calendar.YEAR) % 100);
+		put(c, 2, cal.get(Calendar.MONTH) + 1);
+		put(c, 4, cal.get(Calendar.DAY_OF_MONTH));
+		put(c, 6, cal.get(Calendar.HOUR_OF_DAY));
+		put(c, 8, cal.get(Calendar.MINUTE));
+		m = new Minute(time - cal.get(Calendar.SECOND) * 1000
+				- cal.get(Calendar.MILLISECOND), new String(c));
+		cache[slot] = m;
+		return m;
+	}
+
+	private static void put(char[] c, int offset, int value) {
+		c[offset] = (char) ('0' + value / 10);
+		c[offset + 1] = (char) ('0' + value % 10);
+	}
+
+	private static int digits(String s, int offset) {
+		return (s.charAt(offset) - '0') * 10 + s.charAt(offset + 1) - '0';
+	}
+}
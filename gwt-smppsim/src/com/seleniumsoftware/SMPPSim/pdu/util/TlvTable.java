@@ -0,0 +1,362 @@
+/****************************************************************************
+ * TlvTable.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.seleniumsoftware.SMPPSim.pdu.Tlv;
+import com.seleniumsoftware.SMPPSim.pdu.TlvEmpty;
+
+/**
+ * The optional parameters of one PDU. The TLV section is kept as a single
+ * array, in the order and encoding it arrived in, with the tag, value offset
+ * and value length of each entry held in parallel arrays alongside it. No Tlv
+ * object or value array is created when a PDU is demarshalled; values are
+ * only copied out when they are asked for, and TLVs the simulator does not
+ * interpret are written back out verbatim.
+ * 
+ * Incoming frames may be pooled and reused once the PDU has been handled (see
+ * PduPool), so the TLV section is copied out of the frame once rather than
+ * referenced in place. Lookup by tag goes through a small open addressing
+ * index. Where a tag occurs more than once lookup finds the first occurrence
+ * but every occurrence is kept and re-encoded.
+ * 
+ * Not thread safe.
+ */
+public class TlvTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int TLV_HEADER_LENGTH = 4;
+
+	private static final int MAX_VALUE_LENGTH = 0xffff;
+
+	private static final byte[] NO_DATA = new byte[0];
+
+	private static final short[] NO_TAGS = new short[0];
+
+	private static final int[] NO_INTS = new int[0];
+
+	private byte[] data = NO_DATA;
+
+	private int dataLength;
+
+	private short[] tags = NO_TAGS;
+
+	private int[] offsets = NO_INTS;
+
+	private int[] lengths = NO_INTS;
+
+	private int count;
+
+	// entry number + 1 for each occupied slot, 0 for an empty one
+	private char[] index;
+
+	// true while data holds exactly the encoded entries, in order
+	private boolean verbatim = true;
+
+	public TlvTable() {
+	}
+
+	/**
+	 * Reads TLVs from the reader's position up to the given offset from the
+	 * start of the PDU, normally cmd_len.
+	 */
+	public static TlvTable read(PduReader reader, int end) throws Exception {
+		TlvTable table = new TlvTable();
+		int start = reader.position();
+		while (end > reader.position()) {
+			short tag = (short) reader.getUnsignedShort();
+			int length = reader.getUnsignedShort();
+			reader.skip(length);
+			table.addEntry(tag, reader.position() - start - length, length);
+		}
+		if (table.count > 0) {
+			table.dataLength = reader.position() - start;
+			table.data = reader.getBytesAt(start, table.dataLength);
+		}
+		return table;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public short getTag(int i) {
+		return tags[i];
+	}
+
+	public int getLength(int i) {
+		return lengths[i];
+	}
+
+	/**
+	 * @return a copy of the value of entry i
+	 */
+	public byte[] getValue(int i) {
+		byte[] value = new byte[lengths[i]];
+		System.arraycopy(data, offsets[i], value, 0, lengths[i]);
+		return value;
+	}
+
+	public Tlv get(int i) {
+		if (lengths[i] == 0)
+			return new TlvEmpty(tags[i], (short) 0);
+		return new Tlv(tags[i], (short) lengths[i], getValue(i));
+	}
+
+	/**
+	 * @return the entry number of the first occurrence of tag, or -1
+	 */
+	public int indexOf(short tag) {
+		if (index == null)
+			return -1;
+		int mask = index.length - 1;
+		for (int slot = hash(tag) & mask;; slot = (slot + 1) & mask) {
+			int entry = index[slot];
+			if (entry == 0)
+				return -1;
+			if (tags[entry - 1] == tag)
+				return entry - 1;
+		}
+	}
+
+	public boolean contains(short tag) {
+		return indexOf(tag) != -1;
+	}
+
+	/**
+	 * @return the TLV with this tag, or null if there is none
+	 */
+	public Tlv get(short tag) {
+		int i = indexOf(tag);
+		return i == -1 ? null : get(i);
+	}
+
+	/**
+	 * @return the distinct tags present, in the order they first occur
+	 */
+	public List<Short> getTags() {
+		List<Short> result = new ArrayList<Short>(count);
+		for (int i = 0; i < count; i++)
+			if (indexOf(tags[i]) == i)
+				result.add(Short.valueOf(tags[i]));
+		return result;
+	}
+
+	/**
+	 * Replaces the value of the first TLV with this tag, or adds a new TLV if
+	 * there is none.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the value is longer than a TLV length field can hold
+	 */
+	public void put(short tag, byte[] value) {
+		int length = value == null ? 0 : value.length;
+		int offset = appendValue(value, length);
+		int i = indexOf(tag);
+		if (i == -1) {
+			addEntry(tag, offset, length);
+		} else {
+			offsets[i] = offset;
+			lengths[i] = length;
+		}
+		verbatim = false;
+	}
+
+	/**
+	 * Adds a TLV after the existing ones, even if one with this tag is
+	 * already present.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the value is longer than a TLV length field can hold
+	 */
+	public void add(short tag, byte[] value) {
+		int length = value == null ? 0 : value.length;
+		addEntry(tag, appendValue(value, length), length);
+		verbatim = false;
+	}
+
+	/**
+	 * Removes every TLV with this tag.
+	 * 
+	 * @return false if there was none
+	 */
+	public boolean remove(short tag) {
+		if (indexOf(tag) == -1)
+			return false;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (tags[i] != tag) {
+				tags[n] = tags[i];
+				offsets[n] = offsets[i];
+				lengths[n] = lengths[i];
+				n++;
+			}
+		}
+		count = n;
+		rebuildIndex();
+		verbatim = false;
+		return true;
+	}
+
+	public void put(Tlv tlv) {
+		put(tlv.getTag(), tlv.getValue());
+	}
+
+	/**
+	 * @return a table holding the same entries which can be changed
+	 *         independently of this one
+	 */
+	public TlvTable copy() {
+		TlvTable copy = new TlvTable();
+		if (count > 0) {
+			copy.data = new byte[dataLength];
+			System.arraycopy(data, 0, copy.data, 0, dataLength);
+			copy.dataLength = dataLength;
+			copy.tags = new short[count];
+			System.arraycopy(tags, 0, copy.tags, 0, count);
+			copy.offsets = new int[count];
+			System.arraycopy(offsets, 0, copy.offsets, 0, count);
+			copy.lengths = new int[count];
+			System.arraycopy(lengths, 0, copy.lengths, 0, count);
+			copy.count = count;
+			copy.index = index.clone();
+			copy.verbatim = verbatim;
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the number of octets writeTo will write
+	 */
+	public int getEncodedLength() {
+		int length = count * TLV_HEADER_LENGTH;
+		for (int i = 0; i < count; i++)
+			length += lengths[i];
+		return length;
+	}
+
+	public void writeTo(PduWriter writer) {
+		if (verbatim) {
+			writer.putBytes(data, 0, dataLength);
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			writer.putShort(tags[i]);
+			writer.putShort((short) lengths[i]);
+			writer.putBytes(data, offsets[i], lengths[i]);
+		}
+	}
+
+	/**
+	 * Appends each entry to sb in the form Tlv.toString uses, each preceded
+	 * by a comma.
+	 */
+	public void appendTo(StringBuffer sb) {
+		for (int i = 0; i < count; i++) {
+			sb.append(",tag=").append(tags[i]).append(",len=").append(
+					lengths[i]);
+			if (lengths[i] > 0)
+				sb.append(",value=0x").append(
+						PduUtilities.byteArrayToHexString(getValue(i)));
+		}
+	}
+
+	/**
+	 * @return the offset at which value has been stored
+	 */
+	private int appendValue(byte[] value, int length) {
+		if (length > MAX_VALUE_LENGTH)
+			throw new IllegalArgumentException("TLV value of " + length
+					+ " octets exceeds maximum of " + MAX_VALUE_LENGTH);
+		if (dataLength + length > data.length) {
+			byte[] grown = new byte[Math.max(dataLength + length,
+					data.length * 2)];
+			System.arraycopy(data, 0, grown, 0, dataLength);
+			data = grown;
+		}
+		if (length > 0)
+			System.arraycopy(value, 0, data, dataLength, length);
+		int offset = dataLength;
+		dataLength += length;
+		return offset;
+	}
+
+	private void addEntry(short tag, int offset, int length) {
+		if (count == tags.length) {
+			int capacity = Math.max(4, count * 2);
+			short[] newTags = new short[capacity];
+			int[] newOffsets = new int[capacity];
+			int[] newLengths = new int[capacity];
+			System.arraycopy(tags, 0, newTags, 0, count);
+			System.arraycopy(offsets, 0, newOffsets, 0, count);
+			System.arraycopy(lengths, 0, newLengths, 0, count);
+			tags = newTags;
+			offsets = newOffsets;
+			lengths = newLengths;
+		}
+		tags[count] = tag;
+		offsets[count] = offset;
+		lengths[count] = length;
+		count++;
+		if (index == null || count * 2 > index.length)
+			rebuildIndex();
+		else
+			addToIndex(count - 1);
+	}
+
+	private void rebuildIndex() {
+		int size = 8;
+		while (size < count * 2)
+			size <<= 1;
+		index = new char[size];
+		for (int i = 0; i < count; i++)
+			addToIndex(i);
+	}
+
+	private void addToIndex(int i) {
+		int mask = index.length - 1;
+		for (int slot = hash(tags[i]) & mask;; slot = (slot + 1) & mask) {
+			int entry = index[slot];
+			if (entry == 0) {
+				index[slot] = (char) (i + 1);
+				return;
+			}
+			// the first occurrence of a tag keeps the slot
+			if (tags[entry - 1] == tags[i])
+				return;
+		}
+	}
+
+	private static int hash(short tag) {
+		int h = tag & 0xffff;
+		return h ^ (h >>> 7);
+	}
+}
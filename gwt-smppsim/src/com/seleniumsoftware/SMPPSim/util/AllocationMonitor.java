@@ -0,0 +1,114 @@
+/****************************************************************************
+ * AllocationMonitor.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+
+/**
+ * Heap allocation and garbage collection figures for the control panel, used
+ * to see what difference POOL_PDUS makes.
+ * <p>
+ * Allocated bytes come from the per-thread allocation counters that HotSpot
+ * JVMs provide through com.sun.management.ThreadMXBean. That interface is
+ * looked up reflectively so SMPPSim still runs on JVMs without it, in which
+ * case getAllocatedBytes() returns -1. The figure only covers threads that are
+ * still alive.
+ */
+public class AllocationMonitor {
+
+	private static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private static Method threadAllocatedBytes = null;
+
+	static {
+		try {
+			Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+			if (c.isInstance(threads)) {
+				Method enabled = c.getMethod("isThreadAllocatedMemoryEnabled");
+				if (((Boolean) enabled.invoke(threads)).booleanValue())
+					threadAllocatedBytes = c.getMethod(
+							"getThreadAllocatedBytes", long[].class);
+			}
+		} catch (Exception e) {
+			threadAllocatedBytes = null;
+		}
+	}
+
+	/**
+	 * @return total bytes allocated on the heap by live threads, or -1 if the
+	 *         JVM does not say
+	 */
+	public static long getAllocatedBytes() {
+		if (threadAllocatedBytes == null)
+			return -1;
+		try {
+			long[] bytes = (long[]) threadAllocatedBytes.invoke(threads,
+					threads.getAllThreadIds());
+			long total = 0;
+			for (int i = 0; i < bytes.length; i++)
+				if (bytes[i] > 0)
+					total = total + bytes[i];
+			return total;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return number of collections by all garbage collectors
+	 */
+	public static long getGcCount() {
+		long count = 0;
+		Iterator<GarbageCollectorMXBean> it = ManagementFactory
+				.getGarbageCollectorMXBeans().iterator();
+		while (it.hasNext()) {
+			long c = it.next().getCollectionCount();
+			if (c > 0)
+				count = count + c;
+		}
+		return count;
+	}
+
+	/**
+	 * @return milliseconds spent in all garbage collectors
+	 */
+	public static long getGcTime() {
+		long time = 0;
+		Iterator<GarbageCollectorMXBean> it = ManagementFactory
+				.getGarbageCollectorMXBeans().iterator();
+		while (it.hasNext()) {
+			long t = it.next().getCollectionTime();
+			if (t > 0)
+				time = time + t;
+		}
+		return time;
+	}
+}
@@ -26,63 +26,227 @@
  ****************************************************************************/
 package com.seleniumsoftware.SMPPSim.util;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.StringTokenizer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.seleniumsoftware.SMPPSim.pdu.Pdu;
 
+/**
+ * PDU tracing. Hex dumps and decoded PDUs are logged at INFO level and only
+ * for the binds (system_ids) and command_ids that tracing is currently
+ * switched on for. Nothing is formatted unless the PDU will be logged, so
+ * leaving the calls in place costs no more than a level check when tracing
+ * is off.
+ * <p>
+ * The filters can be changed at any time, either through the
+ * PDU_TRACE_SYSTEM_IDS and PDU_TRACE_COMMAND_IDS properties at startup or the
+ * /trace page of the web interface. An empty filter traces everything.
+ * <p>
+ * The system_id a PDU belongs to is taken from the calling thread, which must
+ * call setTraceSession() before handling PDUs on behalf of a bind.
+ */
 public class LoggingUtilities {
 
 	private static Logger logger = Logger
 			.getLogger("com.seleniumsoftware.smppsim");
 
+	private static final int BYTES_PER_LINE = 16;
+
+	private static final int LINE_LENGTH = 79;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	// null means trace every bind
+	private static volatile HashSet<String> traceSystemIds = null;
+
+	// sorted, so that it can be searched without boxing. null means trace
+	// every command_id
+	private static volatile int[] traceCommandIds = null;
+
+	private static final ThreadLocal<String> traceSession = new ThreadLocal<String>();
+
+	private static final ThreadLocal<char[]> hexLine = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			// two characters per byte and a ':' after every fourth byte
+			return new char[BYTES_PER_LINE * 2 + BYTES_PER_LINE / 4];
+		}
+	};
+
+	private static final ThreadLocal<StringBuilder> decodeLine = new ThreadLocal<StringBuilder>() {
+		protected StringBuilder initialValue() {
+			return new StringBuilder(LINE_LENGTH + 1);
+		}
+	};
+
+	/**
+	 * Records the system_id of the bind that the calling thread is about to
+	 * handle PDUs for. null if the session has not bound.
+	 */
+	public static void setTraceSession(String system_id) {
+		traceSession.set(system_id);
+	}
+
+	/**
+	 * @return true if a PDU with the given command_id, handled by the calling
+	 *         thread, would be logged
+	 */
+	public static boolean isTracing(int command_id) {
+		if (!logger.isLoggable(Level.INFO))
+			return false;
+		int[] commands = traceCommandIds;
+		if (commands != null && Arrays.binarySearch(commands, command_id) < 0)
+			return false;
+		HashSet<String> systemIds = traceSystemIds;
+		if (systemIds != null) {
+			String system_id = traceSession.get();
+			if (system_id == null || !systemIds.contains(system_id))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Restricts tracing to the binds with the given system_ids.
+	 * 
+	 * @param system_ids
+	 *            comma separated list. null or empty traces all binds.
+	 */
+	public static void setTraceSystemIds(String system_ids) {
+		HashSet<String> ids = new HashSet<String>();
+		if (system_ids != null) {
+			StringTokenizer st = new StringTokenizer(system_ids, ", ");
+			while (st.hasMoreTokens())
+				ids.add(st.nextToken());
+		}
+		traceSystemIds = ids.isEmpty() ? null : ids;
+		logger.info("PDU tracing for system_ids: " + getTraceSystemIds());
+	}
+
+	/**
+	 * Restricts tracing to the given command_ids.
+	 * 
+	 * @param command_ids
+	 *            comma separated list of command_ids, in hex if prefixed with
+	 *            0x. null or empty traces all command_ids.
+	 * @throws NumberFormatException
+	 *             if a command_id is not a number. The filter is unchanged.
+	 */
+	public static void setTraceCommandIds(String command_ids) {
+		int[] ids = new int[0];
+		if (command_ids != null) {
+			StringTokenizer st = new StringTokenizer(command_ids, ", ");
+			ids = new int[st.countTokens()];
+			for (int i = 0; i < ids.length; i++) {
+				String id = st.nextToken();
+				if (id.startsWith("0x") || id.startsWith("0X"))
+					ids[i] = (int) Long.parseLong(id.substring(2), 16);
+				else
+					ids[i] = (int) Long.parseLong(id);
+			}
+			Arrays.sort(ids);
+		}
+		traceCommandIds = ids.length == 0 ? null : ids;
+		logger.info("PDU tracing for command_ids: " + getTraceCommandIds());
+	}
+
+	/**
+	 * @return the system_ids being traced, or "*" for all
+	 */
+	public static String getTraceSystemIds() {
+		HashSet<String> ids = traceSystemIds;
+		if (ids == null)
+			return "*";
+		StringBuffer sb = new StringBuffer();
+		for (String id : ids) {
+			if (sb.length() > 0)
+				sb.append(",");
+			sb.append(id);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the command_ids being traced, in hex, or "*" for all
+	 */
+	public static String getTraceCommandIds() {
+		int[] ids = traceCommandIds;
+		if (ids == null)
+			return "*";
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0)
+				sb.append(",");
+			sb.append("0x");
+			String hex = Integer.toHexString(ids[i]);
+			for (int j = hex.length(); j < 8; j++)
+				sb.append('0');
+			sb.append(hex);
+		}
+		return sb.toString();
+	}
+
 	public static void hexDump(String title, byte[] m, int l) {
+		int command_id = 0;
+		if (l >= 8)
+			command_id = ((m[4] & 0xff) << 24) | ((m[5] & 0xff) << 16)
+					| ((m[6] & 0xff) << 8) | (m[7] & 0xff);
+		if (!isTracing(command_id))
+			return;
+		char[] line = hexLine.get();
+		int n = 0;
 		int p = 0;
-		StringBuffer line = new StringBuffer();
 		logger.info(title);
 		logger.info("Hex dump (" + l + ") bytes:");
 		for (int i = 0; i < l; i++) {
-			if ((m[i] >= 0) & (m[i] < 16))
-				line.append("0");
-			line.append(Integer.toString(m[i] & 0xff, 16).toUpperCase());
+			line[n++] = HEX[(m[i] >> 4) & 0x0f];
+			line[n++] = HEX[m[i] & 0x0f];
 			if ((++p % 4) == 0) {
-				line.append(":");
+				line[n++] = ':';
 			}
-			if (p == 16) {
+			if (p == BYTES_PER_LINE) {
+				logger.info(new String(line, 0, n));
 				p = 0;
-				logger.info(line.toString());
-				line = new StringBuffer();
+				n = 0;
 			}
 		}
-		if (p != 16) {
-			logger.info(line.toString());
+		if (n > 0) {
+			logger.info(new String(line, 0, n));
 		}
 	}
 
 	public static void logDecodedPdu(Pdu p) {
+		if (!isTracing(p.getCmd_id()))
+			return;
 		// Split into max 80 character lines around comma delimited boundaries
-		int i = 0;
 		String pdustring = p.toString();
-		StringBuffer line = new StringBuffer();
-		String token = "";
-		StringTokenizer st = new StringTokenizer(pdustring, ",");
-		while (st.hasMoreElements()) {
-			token = st.nextToken();
-			if ((line.length() + token.length()) < 79) {
-				if (i > 0) {
-					line.append(",");
+		StringBuilder line = decodeLine.get();
+		line.setLength(0);
+		int start = 0;
+		int l = pdustring.length();
+		while (start <= l) {
+			int end = pdustring.indexOf(',', start);
+			if (end < 0)
+				end = l;
+			if (end > start) {
+				if ((line.length() + end - start) < LINE_LENGTH) {
+					if (line.length() > 0) {
+						line.append(',');
+					}
+					line.append(pdustring, start, end);
+				} else {
+					if (line.length() > 0)
+						logger.info(line.toString());
+					line.setLength(0);
+					line.append(pdustring, start, end);
 				}
-				line.append(token);
-				i++;
-			} else {
-				logger.info(line.toString());
-				line = new StringBuffer();
-				line.append(token);
-				i = 1;
 			}
+			start = end + 1;
 		}
 		if (line.length() > 0)
 			logger.info(line.toString());
 	}
 
-}
\ No newline at end of file
+}
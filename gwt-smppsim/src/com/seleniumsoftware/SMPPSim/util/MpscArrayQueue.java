@@ -0,0 +1,171 @@
+/****************************************************************************
+ * MpscArrayQueue.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+
+package com.seleniumsoftware.SMPPSim.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, array backed queue for any number of producer threads and a single
+ * consumer thread. Neither end takes a lock.
+ * <p>
+ * Each slot carries a sequence number. A producer claims the next position by
+ * advancing the tail with a compare-and-set, stores its element and then
+ * publishes it by setting the slot's sequence. The consumer only takes an
+ * element once it has been published and hands the slot back to the
+ * producers by advancing its sequence a full lap. A producer that finds the
+ * slot still waiting for the consumer knows the queue is full, so the
+ * capacity check and the insert are a single atomic step.
+ * <p>
+ * poll() and drainTo() must only ever be called from one thread at a time.
+ */
+public class MpscArrayQueue<E> {
+
+	private final int capacity;
+
+	// number of slots in the ring; at least two, so that a published slot
+	// (pos + 1) can never be mistaken for a free one a lap later (pos + slots)
+	private final int slots;
+
+	private final AtomicReferenceArray<E> buffer;
+
+	private final AtomicLongArray sequence;
+
+	// next position to be claimed by a producer
+	private final AtomicLong tail = new AtomicLong();
+
+	// next position to be taken by the consumer. Only the consumer writes it.
+	private volatile long head = 0;
+
+	public MpscArrayQueue(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1: "
+					+ capacity);
+		this.capacity = capacity;
+		slots = Math.max(capacity, 2);
+		buffer = new AtomicReferenceArray<E>(slots);
+		sequence = new AtomicLongArray(slots);
+		for (int i = 0; i < slots; i++)
+			sequence.set(i, i);
+	}
+
+	/**
+	 * Adds an element at the tail of the queue.
+	 * 
+	 * @return false if the queue is full, in which case it is unchanged
+	 */
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		long pos;
+		int i;
+		while (true) {
+			pos = tail.get();
+			i = index(pos);
+			long seq = sequence.get(i);
+			if (seq == pos) {
+				if (slots > capacity && pos - head >= capacity)
+					return false;
+				if (tail.compareAndSet(pos, pos + 1))
+					break;
+			} else if (seq < pos) {
+				// the consumer has not yet taken the element a lap behind
+				return false;
+			}
+			// otherwise another producer claimed pos first; try the next one
+		}
+		buffer.set(i, e);
+		sequence.set(i, pos + 1);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the element at the head of the queue. Consumer thread
+	 * only.
+	 * 
+	 * @return the element, or null if no element has been published yet
+	 */
+	public E poll() {
+		long pos = head;
+		int i = index(pos);
+		if (sequence.get(i) != pos + 1)
+			return null;
+		E e = buffer.get(i);
+		buffer.set(i, null);
+		sequence.set(i, pos + slots);
+		head = pos + 1;
+		return e;
+	}
+
+	/**
+	 * Moves up to max published elements, in order, to the given collection.
+	 * Consumer thread only.
+	 * 
+	 * @return the number of elements moved
+	 */
+	public int drainTo(Collection<? super E> c, int max) {
+		int n = 0;
+		E e;
+		while (n < max && (e = poll()) != null) {
+			c.add(e);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return true if there is no published element for the consumer to take
+	 */
+	public boolean isEmpty() {
+		long pos = head;
+		return sequence.get(index(pos)) != pos + 1;
+	}
+
+	/**
+	 * @return the number of elements claimed by producers and not yet taken by
+	 *         the consumer. Approximate while producers are active.
+	 */
+	public int size() {
+		long s = tail.get() - head;
+		if (s < 0)
+			return 0;
+		if (s > capacity)
+			return capacity;
+		return (int) s;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	private int index(long pos) {
+		return (int) (pos % slots);
+	}
+}
@@ -0,0 +1,96 @@
+/****************************************************************************
+ * SimRandom.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+
+package com.seleniumsoftware.SMPPSim.util;
+
+import java.util.Random;
+
+/**
+ * Source of the random numbers that drive the simulation (message state
+ * transitions, SUBMIT_SM error injection, MO message selection).
+ * <p>
+ * Every thread gets its own java.util.Random so that threads never contend
+ * for a shared generator as they do with Math.random().
+ * <p>
+ * If RANDOM_SEED is set, each thread's generator is seeded from that value
+ * combined with the thread's name. SMPPSim's service threads have fixed names
+ * (LC0, CH0, IO0 and so on) so each of them sees the same sequence of numbers
+ * on every run with the same seed, which makes soak test results
+ * reproducible. Without RANDOM_SEED the generators are seeded arbitrarily.
+ */
+public class SimRandom {
+
+	private static boolean seeded = false;
+
+	private static long seed;
+
+	private static final ThreadLocal<Random> generator = new ThreadLocal<Random>() {
+		protected Random initialValue() {
+			synchronized (SimRandom.class) {
+				if (seeded)
+					return new Random(mix(seed
+							^ Thread.currentThread().getName().hashCode()));
+			}
+			return new Random();
+		}
+	};
+
+	/**
+	 * Must be called before any simulator thread draws a random number,
+	 * otherwise that thread keeps its unseeded generator.
+	 */
+	public static synchronized void setSeed(long s) {
+		seed = s;
+		seeded = true;
+	}
+
+	public static synchronized boolean isSeeded() {
+		return seeded;
+	}
+
+	/**
+	 * @return a random number between 0.0 (inclusive) and 1.0 (exclusive)
+	 */
+	public static double nextDouble() {
+		return generator.get().nextDouble();
+	}
+
+	/**
+	 * @return a random number between 0 (inclusive) and n (exclusive)
+	 */
+	public static int nextInt(int n) {
+		return generator.get().nextInt(n);
+	}
+
+	// spreads similar inputs (e.g. thread names "LC0", "LC1") across the
+	// whole seed space
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -0,0 +1,79 @@
+/****************************************************************************
+ * TokenBucket.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a stream of events shared by any number of threads.
+ * <p>
+ * Each event is given a slot on an absolute nanosecond schedule: the next
+ * slot is the previous one plus the interval the caller asks for, so the rate
+ * does not drift however long each event takes to produce, and the interval
+ * may change from one event to the next. A thread that falls behind may use
+ * up to burstSize slots back to back to catch up; anything further behind is
+ * written off rather than sent all at once.
+ */
+public class TokenBucket {
+
+	private final int burstSize;
+
+	// nanoTime of the next free slot
+	private long next;
+
+	public TokenBucket(int burstSize) {
+		this.burstSize = Math.max(1, burstSize);
+		next = System.nanoTime();
+	}
+
+	/**
+	 * Claims the next slot and waits until it is due.
+	 * 
+	 * @param intervalNanos
+	 *            time until the slot after this one
+	 */
+	public void acquire(long intervalNanos) {
+		long due = reserve(intervalNanos);
+		long wait;
+		while ((wait = due - System.nanoTime()) > 0)
+			LockSupport.parkNanos(wait);
+	}
+
+	/**
+	 * Claims the next slot without waiting for it.
+	 * 
+	 * @return the nanoTime at which the slot is due
+	 */
+	public synchronized long reserve(long intervalNanos) {
+		long earliest = System.nanoTime() - (burstSize - 1) * intervalNanos;
+		if (next < earliest)
+			next = earliest;
+		long due = next;
+		next += intervalNanos;
+		return due;
+	}
+}
@@ -1,13 +1,13 @@
 package com.seleniumsoftware.examples;
 
-import java.io.EOFException;
-import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.logging.Logger;
 
+import com.seleniumsoftware.SMPPSim.PduFrameReader;
+
 public class CallbackHandler implements Runnable {
 
 	private static Logger logger = Logger
@@ -17,8 +17,6 @@ public class CallbackHandler implements Runnable {
 
 	CallbackReceivable receiver;
 
-	byte[] messageLen = new byte[4];
-
 	byte[] message;
 
 	boolean start_of_message = true;
@@ -33,12 +31,16 @@ public class CallbackHandler implements Runnable {
 		this.receiver = receiver;
 	}
 
+	// callback records are LENGTH(4) TYPE(1) ID(4) followed by the SMPP PDU
+	private static final int CALLBACK_HEADER_LENGTH = 9;
+
 	public void run() {
 		running = true;
 		Socket socket = null;
 		boolean isConnected = false;
 
 		InputStream is = null;
+		PduFrameReader reader = null;
 		do // process connections forever
 		{
 			do // {accept connection, create protocol handler, {read PDU,handle
@@ -48,6 +50,9 @@ public class CallbackHandler implements Runnable {
 					socket = ss.accept();
 					isConnected = true;
 					is = socket.getInputStream();
+					reader = new PduFrameReader(is, CALLBACK_HEADER_LENGTH
+							+ PduFrameReader.MIN_PDU_LENGTH, CALLBACK_HEADER_LENGTH
+							+ PduFrameReader.MAX_PDU_LENGTH);
 					logger.info("CallbackHandler has accepted a connection");
 				} catch (Exception exception) {
 					logger.warning("Exception processing connection: "
@@ -68,7 +73,7 @@ public class CallbackHandler implements Runnable {
 			do // until the end of time
 			{
 				try {
-					readPacketInto(is);
+					message = reader.readFrame();
 					if (isReceived(message))
 						receiver.received(message);
 					else
@@ -95,45 +100,6 @@ public class CallbackHandler implements Runnable {
 		} while (running);
 	}
 
-	private int readPacketInto(InputStream is) throws IOException {
-		logger.finest("starting readPacketInto");
-		// Read the length of the incoming message...
-		int len;
-
-		logger.finest("reading message length");
-		messageLen[0] = (byte) is.read();
-		messageLen[1] = (byte) is.read();
-		messageLen[2] = (byte) is.read();
-		messageLen[3] = (byte) is.read();
-
-		// put that into the message header
-		len = (getBytesAsInt(messageLen[0]) << 24)
-				| (getBytesAsInt(messageLen[1]) << 16)
-				| (getBytesAsInt(messageLen[2]) << 8)
-				| (getBytesAsInt(messageLen[3]));
-
-		if (messageLen[3] == -1) {
-			logger.warning("messageLen[3] == -1, throwing EOFException");
-			throw new EOFException();
-		}
-
-		logger.finest("Reading " + len + " bytes");
-
-		message = new byte[len];
-		message[0] = messageLen[0];
-		message[1] = messageLen[1];
-		message[2] = messageLen[2];
-		message[3] = messageLen[3];
-		for (int i = 4; i < len; i++)
-			message[i] = (byte) is.read();
-		logger.finest("exiting readPacketInto");
-		return len;
-	}
-
-	private static final int getBytesAsInt(byte i_byte) {
-		return i_byte & 0xff;
-	}
-
 	private boolean isReceived(byte[] message) {
 		return (message[4] == 0x01);
 	}
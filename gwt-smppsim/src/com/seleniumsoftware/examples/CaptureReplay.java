@@ -0,0 +1,191 @@
+package com.seleniumsoftware.examples;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.seleniumsoftware.SMPPSim.CaptureSegment;
+import com.seleniumsoftware.SMPPSim.PduCaptureWriter;
+import com.seleniumsoftware.SMPPSim.PduFrameReader;
+
+/**
+ * Replays an indexed SME binary capture (CAPTURE_FORMAT=INDEXED) against a
+ * running SMPPSim.
+ * <p>
+ * Each session in the capture gets its own connection, and its PDUs are sent
+ * in the order they were captured. With speed 1 the original gaps between PDUs
+ * are kept, with speed n they are n times shorter and with speed 0 PDUs are
+ * sent as fast as the connections will take them. PDUs are written to the
+ * socket straight from the mapped segment files.
+ * <p>
+ * Captured DELIVER_SM_RESP and DATA_SM_RESP PDUs are not replayed, because
+ * their sequence numbers belong to the original run. Instead, each DELIVER_SM
+ * and DATA_SM that SMPPSim sends during the replay is answered.
+ * 
+ * Usage: CaptureReplay host port speed segment-file...
+ */
+public class CaptureReplay {
+
+	private static Logger logger = Logger
+			.getLogger("com.seleniumsoftware.examples");
+
+	private static final int DELIVER_SM = 0x00000005;
+
+	private static final int DELIVER_SM_RESP = 0x80000005;
+
+	private static final int DATA_SM = 0x00000103;
+
+	private static final int DATA_SM_RESP = 0x80000103;
+
+	// how long SMPPSim must be silent after the last PDU before we disconnect
+	private static final long QUIET_PERIOD = 2000;
+
+	private String host;
+
+	private int port;
+
+	private double speed;
+
+	private HashMap<Integer, Connection> connections = new HashMap<Integer, Connection>();
+
+	private AtomicLong received = new AtomicLong();
+
+	private volatile long lastReceivedAt;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out
+					.println("Usage: CaptureReplay host port speed segment-file...");
+			System.exit(1);
+		}
+		CaptureReplay replay = new CaptureReplay(args[0], Integer
+				.parseInt(args[1]), Double.parseDouble(args[2]));
+		File[] segments = new File[args.length - 3];
+		for (int i = 3; i < args.length; i++)
+			segments[i - 3] = new File(args[i]);
+		replay.replay(segments);
+	}
+
+	public CaptureReplay(String host, int port, double speed) {
+		this.host = host;
+		this.port = port;
+		this.speed = speed;
+	}
+
+	public void replay(File[] segments) throws IOException,
+			InterruptedException {
+		long sent = 0;
+		long firstTime = -1;
+		long start = System.currentTimeMillis();
+		lastReceivedAt = start;
+		for (int s = 0; s < segments.length; s++) {
+			CaptureSegment segment = CaptureSegment.open(segments[s]);
+			int count = segment.getRecordCount();
+			logger.info("Replaying " + count + " records from " + segments[s]);
+			for (int i = 0; i < count; i++) {
+				if (segment.getDirection(i) != PduCaptureWriter.RECEIVED)
+					continue;
+				int command_id = segment.getCommandId(i);
+				if (command_id == DELIVER_SM_RESP || command_id == DATA_SM_RESP)
+					continue;
+				long time = segment.getTime(i);
+				if (firstTime < 0)
+					firstTime = time;
+				if (speed > 0) {
+					long due = start + (long) ((time - firstTime) / speed);
+					long wait = due - System.currentTimeMillis();
+					if (wait > 0)
+						Thread.sleep(wait);
+				}
+				getConnection(segment.getSession(i)).send(segment.getPdu(i));
+				sent++;
+			}
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		logger.info("Sent " + sent + " PDUs in " + elapsed + "ms ("
+				+ (sent * 1000 / elapsed) + " per second) over "
+				+ connections.size() + " connections");
+
+		while (System.currentTimeMillis() - lastReceivedAt < QUIET_PERIOD)
+			Thread.sleep(100);
+		for (Iterator<Connection> i = connections.values().iterator(); i
+				.hasNext();)
+			i.next().close();
+		logger.info("Received " + received.get() + " PDUs from SMPPSim");
+	}
+
+	private Connection getConnection(int session) throws IOException {
+		Connection c = connections.get(Integer.valueOf(session));
+		if (c == null) {
+			c = new Connection(session);
+			connections.put(Integer.valueOf(session), c);
+		}
+		return c;
+	}
+
+	private class Connection implements Runnable {
+
+		private SocketChannel channel;
+
+		private volatile boolean open = true;
+
+		Connection(int session) throws IOException {
+			channel = SocketChannel.open(new InetSocketAddress(host, port));
+			logger.info("Connected to " + host + ":" + port
+					+ " for captured session " + session);
+			new Thread(this, "REPLAY" + session).start();
+		}
+
+		synchronized void send(ByteBuffer pdu) throws IOException {
+			while (pdu.hasRemaining())
+				channel.write(pdu);
+		}
+
+		public void run() {
+			try {
+				PduFrameReader reader = new PduFrameReader(channel.socket()
+						.getInputStream());
+				while (open) {
+					byte[] pdu = reader.readFrame();
+					received.incrementAndGet();
+					lastReceivedAt = System.currentTimeMillis();
+					int command_id = ByteBuffer.wrap(pdu).getInt(4);
+					if (command_id == DELIVER_SM)
+						respond(DELIVER_SM_RESP, pdu);
+					else if (command_id == DATA_SM)
+						respond(DATA_SM_RESP, pdu);
+				}
+			} catch (IOException e) {
+				if (open)
+					logger.info("Connection closed by SMPPSim: "
+							+ e.getMessage());
+			}
+		}
+
+		private void respond(int command_id, byte[] request) throws IOException {
+			// header and an empty message_id
+			ByteBuffer resp = ByteBuffer.allocate(17);
+			resp.putInt(17);
+			resp.putInt(command_id);
+			resp.putInt(0);
+			resp.putInt(ByteBuffer.wrap(request).getInt(12));
+			resp.put((byte) 0);
+			resp.flip();
+			send(resp);
+		}
+
+		void close() {
+			open = false;
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/****************************************************************************
+ * AddressRangeTest.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import junit.framework.TestCase;
+
+public class AddressRangeTest extends TestCase {
+
+	private static void assertKind(int kind, String range) {
+		assertEquals(range, kind, AddressRange.compile(range).getKind());
+	}
+
+	public void testKinds() {
+		assertKind(AddressRange.ALL, null);
+		assertKind(AddressRange.ALL, "");
+		assertKind(AddressRange.ALL, "*");
+		assertKind(AddressRange.ALL, ".*");
+		assertKind(AddressRange.ALL, "[:alnum:]*");
+		assertKind(AddressRange.EXACT, "^447700900123$");
+		assertKind(AddressRange.PREFIX, "^4477");
+		assertKind(AddressRange.PREFIX, "^4477.*");
+		assertKind(AddressRange.PREFIX, "^");
+		assertKind(AddressRange.SUBSTRING, "7700");
+		assertKind(AddressRange.PATTERN, "123$");
+		assertKind(AddressRange.PATTERN, "^44(77|78)");
+		assertKind(AddressRange.PATTERN, "^447.00$");
+		assertKind(AddressRange.PATTERN, "^[0-9]+$");
+		assertEquals("4477", AddressRange.compile("^4477.*").getLiteral());
+		assertEquals("447700900123", AddressRange.compile("^447700900123$")
+				.getLiteral());
+	}
+
+	public void testAll() {
+		AddressRange r = AddressRange.compile(".*");
+		assertTrue(r.matches(""));
+		assertTrue(r.matches("447700900123"));
+		assertTrue(r.matches("abc"));
+	}
+
+	public void testExact() {
+		AddressRange r = AddressRange.compile("^447700900123$");
+		assertTrue(r.matches("447700900123"));
+		assertFalse(r.matches("4477009001234"));
+		assertFalse(r.matches("44770090012"));
+		assertFalse(r.matches("1447700900123"));
+	}
+
+	public void testPrefix() {
+		AddressRange r = AddressRange.compile("^4477");
+		assertTrue(r.matches("4477"));
+		assertTrue(r.matches("447700900123"));
+		assertFalse(r.matches("447"));
+		assertFalse(r.matches("144770"));
+		assertTrue(AddressRange.compile("^").matches(""));
+	}
+
+	public void testSubstring() {
+		AddressRange r = AddressRange.compile("7700");
+		assertTrue(r.matches("7700"));
+		assertTrue(r.matches("447700900123"));
+		assertFalse(r.matches("770"));
+	}
+
+	public void testPatternMatchesAnywhere() {
+		AddressRange r = AddressRange.compile("12[34]$");
+		assertTrue(r.matches("447700900123"));
+		assertTrue(r.matches("124"));
+		assertFalse(r.matches("1235"));
+		AddressRange any = AddressRange.compile("9.1");
+		assertTrue(any.matches("447700901"));
+		assertFalse(any.matches("4477009"));
+	}
+
+	public void testPosixClasses() {
+		AddressRange digits = AddressRange.compile("^[[:digit:]]+$");
+		assertTrue(digits.matches("447700900123"));
+		assertFalse(digits.matches("+447700900123"));
+		AddressRange hex = AddressRange.compile("^[[:xdigit:]]{4}$");
+		assertTrue(hex.matches("BEEF"));
+		assertFalse(hex.matches("BEEG"));
+		AddressRange bare = AddressRange.compile("^[:alpha:]+");
+		assertTrue(bare.matches("Info"));
+		assertFalse(bare.matches("1nfo"));
+	}
+
+	public void testBadPatternRejected() {
+		try {
+			AddressRange.compile("^44(77");
+			fail("unbalanced group accepted");
+		} catch (PatternSyntaxException e) {
+			// expected
+		}
+	}
+
+	public void testKindsAgreeWithRegularExpression() {
+		// the shortcuts must give the same answers as the regex they stand for
+		String[] ranges = { "^447700900123$", "^4477", "^4477.*", "7700",
+				".*", "^" };
+		String[] addresses = { "", "4477", "447700900123", "4477009001234",
+				"144770", "7700", "770" };
+		for (int i = 0; i < ranges.length; i++) {
+			AddressRange r = AddressRange.compile(ranges[i]);
+			Pattern p = Pattern.compile(ranges[i]);
+			for (int j = 0; j < addresses.length; j++)
+				assertEquals(ranges[i] + " ~ " + addresses[j], p.matcher(
+						addresses[j]).find(), r.matches(addresses[j]));
+		}
+	}
+}
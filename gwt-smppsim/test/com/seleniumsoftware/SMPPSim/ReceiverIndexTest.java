@@ -0,0 +1,156 @@
+/****************************************************************************
+ * ReceiverIndexTest.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+public class ReceiverIndexTest extends TestCase {
+
+	private ReceiverIndex index;
+
+	private StandardConnectionHandler all;
+
+	private StandardConnectionHandler prefix44;
+
+	private StandardConnectionHandler prefix4477;
+
+	private StandardConnectionHandler exact;
+
+	private StandardConnectionHandler substring;
+
+	private StandardConnectionHandler pattern;
+
+	protected void setUp() {
+		index = new ReceiverIndex();
+		all = add(".*");
+		prefix44 = add("^44");
+		prefix4477 = add("^4477.*");
+		exact = add("^447700900123$");
+		substring = add("900");
+		pattern = add("[13]$");
+	}
+
+	private StandardConnectionHandler add(String range) {
+		StandardConnectionHandler receiver = new StandardConnectionHandler();
+		index.add(receiver, AddressRange.compile(range));
+		return receiver;
+	}
+
+	private void assertReceivers(String address,
+			StandardConnectionHandler[] expected) {
+		StandardConnectionHandler[] found = index.lookup(address);
+		assertEquals(address, new HashSet<StandardConnectionHandler>(Arrays
+				.asList(expected)), new HashSet<StandardConnectionHandler>(
+				Arrays.asList(found)));
+		assertEquals(address, expected.length, found.length);
+	}
+
+	public void testOverlappingRanges() {
+		assertReceivers("447700900123", new StandardConnectionHandler[] {
+				all, prefix44, prefix4477, exact, substring, pattern });
+		assertReceivers("447700900124", new StandardConnectionHandler[] {
+				all, prefix44, prefix4477, substring });
+		assertReceivers("4477", new StandardConnectionHandler[] { all,
+				prefix44, prefix4477 });
+		assertReceivers("447", new StandardConnectionHandler[] { all,
+				prefix44 });
+		assertReceivers("4", new StandardConnectionHandler[] { all });
+		assertReceivers("331", new StandardConnectionHandler[] { all,
+				pattern });
+		// an address that is longer than the exact range but shares it
+		assertReceivers("4477009001230", new StandardConnectionHandler[] {
+				all, prefix44, prefix4477, substring });
+	}
+
+	public void testEmptyAddressGoesToEveryReceiver() {
+		StandardConnectionHandler[] everyone = { all, prefix44, prefix4477,
+				exact, substring, pattern };
+		assertReceivers("", everyone);
+		assertReceivers(" ", everyone);
+	}
+
+	public void testNoMatch() {
+		index.remove(all);
+		assertEquals(0, index.lookup("55").length);
+	}
+
+	public void testSharedRangesAndRemoval() {
+		StandardConnectionHandler second = add("^4477");
+		assertReceivers("4477", new StandardConnectionHandler[] { all,
+				prefix44, prefix4477, second });
+		assertTrue(index.remove(prefix4477));
+		assertFalse(index.remove(prefix4477));
+		assertReceivers("4477", new StandardConnectionHandler[] { all,
+				prefix44, second });
+		assertEquals(6, index.size());
+	}
+
+	public void testRemovePrunesTrie() {
+		// the root, 4, 44, 447 and 4477, then eight more for the exact range
+		assertEquals(13, index.trieSize());
+		StandardConnectionHandler other = add("^4478$");
+		assertEquals(14, index.trieSize());
+		index.remove(other);
+		assertEquals(13, index.trieSize());
+
+		index.remove(exact);
+		assertEquals(5, index.trieSize());
+		// still needed by ^44
+		index.remove(prefix4477);
+		assertEquals(3, index.trieSize());
+		index.remove(prefix44);
+		assertEquals(1, index.trieSize());
+		assertReceivers("447700900123", new StandardConnectionHandler[] {
+				all, substring, pattern });
+
+		add("^4477");
+		assertEquals(5, index.trieSize());
+	}
+
+	public void testCacheClearedOnChange() {
+		assertReceivers("447700900123", new StandardConnectionHandler[] {
+				all, prefix44, prefix4477, exact, substring, pattern });
+		index.remove(exact);
+		index.remove(pattern);
+		assertReceivers("447700900123", new StandardConnectionHandler[] {
+				all, prefix44, prefix4477, substring });
+		StandardConnectionHandler late = add("^447700900123$");
+		assertReceivers("447700900123", new StandardConnectionHandler[] {
+				all, prefix44, prefix4477, substring, late });
+	}
+
+	public void testRebindReplacesRange() {
+		index.add(prefix44, AddressRange.compile("^33"));
+		assertReceivers("447", new StandardConnectionHandler[] { all });
+		assertReceivers("331", new StandardConnectionHandler[] { all,
+				prefix44, pattern });
+		assertEquals(6, index.size());
+	}
+}
@@ -0,0 +1,176 @@
+/****************************************************************************
+ * PduReaderTest.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PduReaderTest extends TestCase {
+
+	private static final byte[] PDU = { 0x00, 0x00, 0x00, 0x1a, // length
+			(byte) 0x80, 0x00, 0x00, 0x04, // command id
+			(byte) 0xff, (byte) 0xfe, // short
+			(byte) 0xf0, // byte
+			'a', 'b', 'c', 0x00, // C-Octet string
+			0x00, // empty C-Octet string
+			'x', 'y', 'z', // fixed length string
+			0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07 };
+
+	public void testReadsFieldsInOrder() throws Exception {
+		checkFields(new PduReader(PDU));
+	}
+
+	public void testReadsBetweenBufferPositionAndLimit() throws Exception {
+		byte[] padded = new byte[PDU.length + 8];
+		System.arraycopy(PDU, 0, padded, 3, PDU.length);
+		ByteBuffer b = ByteBuffer.wrap(padded);
+		b.position(3);
+		b.limit(3 + PDU.length);
+		checkFields(new PduReader(b));
+		assertEquals(3, b.position());
+
+		// a sliced buffer has a non zero array offset
+		checkFields(new PduReader(b.slice()));
+	}
+
+	public void testReadsDirectBuffer() throws Exception {
+		ByteBuffer b = ByteBuffer.allocateDirect(PDU.length);
+		b.put(PDU);
+		b.flip();
+		checkFields(new PduReader(b));
+	}
+
+	private void checkFields(PduReader r) throws Exception {
+		assertEquals(0, r.position());
+		assertEquals(PDU.length, r.remaining());
+		assertEquals(0x1a, r.getInt());
+		assertEquals(0x80000004, r.getInt());
+		assertEquals(0xfffe, r.getUnsignedShort());
+		assertEquals(0xf0, r.getUnsignedByte());
+		assertEquals("abc", r.getCOctetString(4));
+		assertEquals("", r.getCOctetString(1));
+		assertEquals("xyz", r.getFixedLengthString(3));
+		assertEquals(19, r.position());
+		r.skip(2);
+		assertTrue(Arrays.equals(new byte[] { 0x03, 0x04 }, r.getBytes(2)));
+		assertTrue(Arrays.equals(new byte[] { 'b', 'c' }, r.getBytesAt(12, 2)));
+		assertEquals(23, r.position());
+		assertEquals(3, r.remaining());
+		assertTrue(Arrays.equals(new byte[] { 0x05, 0x06, 0x07 }, r
+				.getBytes(3)));
+		assertFalse(r.hasRemaining());
+	}
+
+	public void testReadPastEndFails() throws Exception {
+		PduReader r = new PduReader(new byte[] { 0x00, 0x01, 0x02 });
+		try {
+			r.getInt();
+			fail("read past end");
+		} catch (Exception e) {
+			// expected
+		}
+		// a failed read leaves the cursor where it was
+		assertEquals(0, r.position());
+		assertEquals(1, r.getUnsignedShort());
+		assertEquals(2, r.getUnsignedByte());
+		try {
+			r.getUnsignedByte();
+			fail("read past end");
+		} catch (Exception e) {
+			// expected
+		}
+		try {
+			r.skip(1);
+			fail("skip past end");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testNegativeLengthFails() throws Exception {
+		PduReader r = new PduReader(PDU);
+		try {
+			r.getBytes(-1);
+			fail("negative length accepted");
+		} catch (Exception e) {
+			// expected
+		}
+		try {
+			r.skip(-1);
+			fail("negative skip accepted");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testCOctetStringTooLong() throws Exception {
+		PduReader r = new PduReader(new byte[] { 'a', 'b', 'c', 0x00 });
+		try {
+			// three characters and the null need four octets
+			r.getCOctetString(3);
+			fail("string longer than maximum accepted");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("exceeds") >= 0);
+		}
+		assertEquals(0, r.position());
+		assertEquals("abc", r.getCOctetString(4));
+	}
+
+	public void testCOctetStringNotTerminated() throws Exception {
+		PduReader r = new PduReader(new byte[] { 'a', 'b', 'c' });
+		try {
+			r.getCOctetString(10);
+			fail("unterminated string accepted");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf(
+					"not null terminated") >= 0);
+		}
+		assertEquals(0, r.position());
+	}
+
+	public void testGetBytesAtUnreadRangeFails() throws Exception {
+		PduReader r = new PduReader(PDU);
+		r.getInt();
+		assertTrue(Arrays.equals(new byte[] { 0x00, 0x00, 0x00, 0x1a }, r
+				.getBytesAt(0, 4)));
+		try {
+			r.getBytesAt(2, 3);
+			fail("unread octets returned");
+		} catch (Exception e) {
+			// expected
+		}
+		try {
+			r.getBytesAt(-1, 1);
+			fail("negative offset accepted");
+		} catch (Exception e) {
+			// expected
+		}
+		assertEquals(4, r.position());
+	}
+}
@@ -0,0 +1,172 @@
+/****************************************************************************
+ * SmppTimeCodecTest.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SmppTimeCodecTest extends TestCase {
+
+	private static long time(int year, int month, int day, int hour,
+			int minute, int second, int millis) {
+		Calendar cal = new GregorianCalendar();
+		cal.clear();
+		cal.set(year, month - 1, day, hour, minute, second);
+		return cal.getTimeInMillis() + millis;
+	}
+
+	public void testFormatAcrossMinuteBoundary() throws Exception {
+		long before = time(2026, 6, 15, 12, 34, 59, 999);
+		assertEquals("260615123459000+", SmppTimeCodec.format(before));
+		assertEquals("2606151234", SmppTimeCodec.formatMinutes(before));
+		assertEquals("260615123500000+", SmppTimeCodec.format(before + 1));
+		assertEquals("2606151235", SmppTimeCodec.formatMinutes(before + 1));
+		// and back again, which must not be answered from the newer minute
+		assertEquals("260615123459000+", SmppTimeCodec.format(before));
+	}
+
+	public void testRoundTripAcrossMinuteBoundary() throws Exception {
+		long before = time(2026, 6, 15, 12, 34, 59, 900);
+		assertEquals(before, SmppTimeCodec.parse("2606151234599000+"));
+		assertEquals(before + 100, SmppTimeCodec.parse("260615123500000+"));
+		assertEquals("260615123459000+", SmppTimeCodec.format(SmppTimeCodec
+				.parse("260615123459000+")));
+		assertEquals("260615123500000+", SmppTimeCodec.format(SmppTimeCodec
+				.parse("260615123500000+")));
+	}
+
+	public void testRoundTripAcrossYearBoundary() throws Exception {
+		long before = time(2026, 12, 31, 23, 59, 59, 0);
+		assertEquals("261231235959000+", SmppTimeCodec.format(before));
+		assertEquals("270101000000000+", SmppTimeCodec.format(before + 1000));
+		assertEquals("2612312359", SmppTimeCodec.formatMinutes(before));
+		assertEquals("2701010000", SmppTimeCodec.formatMinutes(before + 1000));
+		assertEquals(before, SmppTimeCodec.parse("261231235959000+"));
+		assertEquals(before + 1000, SmppTimeCodec.parse("270101000000000+"));
+	}
+
+	public void testFormatMinutesReusesString() {
+		long t = time(2026, 3, 1, 8, 0, 5, 0);
+		assertSame(SmppTimeCodec.formatMinutes(t), SmppTimeCodec
+				.formatMinutes(t + 50000));
+	}
+
+	public void testParseKeepsTenths() throws Exception {
+		long t = time(2026, 3, 1, 8, 0, 5, 0);
+		assertEquals(t + 700, SmppTimeCodec.parse("2603010800057000+"));
+		// the 13 digits are all that is read
+		assertEquals(t, SmppTimeCodec.parse("2603010800050"));
+	}
+
+	public void testTwoDigitYearPivot() throws Exception {
+		// the same 100 year window as SimpleDateFormat
+		SimpleDateFormat sdf = new SimpleDateFormat("yyMMddHHmmss");
+		for (int yy = 0; yy < 100; yy++) {
+			String s = (yy < 10 ? "0" : "") + yy + "0701120000";
+			assertEquals(s, sdf.parse(s).getTime(), SmppTimeCodec.parse(s
+					+ "0000+"));
+		}
+
+		// the window starts 80 years ago today, not at the start of that year
+		Calendar cal = new GregorianCalendar();
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		cal.add(Calendar.YEAR, -80);
+		cal.add(Calendar.DAY_OF_MONTH, 2);
+		long oldest = cal.getTimeInMillis();
+		cal.add(Calendar.DAY_OF_MONTH, -4);
+		long beforeOldest = cal.getTimeInMillis();
+		cal.add(Calendar.YEAR, 100);
+		long newest = cal.getTimeInMillis();
+		SimpleDateFormat smpp = new SimpleDateFormat("yyMMddHHmmss'000+'");
+		assertEquals(oldest, SmppTimeCodec.parse(smpp.format(new Date(oldest))));
+		assertEquals(newest, SmppTimeCodec.parse(smpp.format(new Date(
+				beforeOldest))));
+	}
+
+	public void testLenientRollover() throws Exception {
+		assertEquals(time(2027, 1, 1, 0, 0, 0, 0), SmppTimeCodec
+				.parse("261232000000000+"));
+		assertEquals(time(2027, 1, 5, 0, 0, 0, 0), SmppTimeCodec
+				.parse("261305000000000+"));
+		assertEquals(time(2026, 3, 1, 0, 0, 0, 0), SmppTimeCodec
+				.parse("260229000000000+"));
+		assertEquals(time(2027, 1, 1, 0, 0, 0, 0), SmppTimeCodec
+				.parse("261231240000000+"));
+		assertEquals(time(2027, 1, 1, 0, 0, 0, 0), SmppTimeCodec
+				.parse("261231236000000+"));
+		assertEquals(time(2027, 1, 1, 0, 0, 0, 0), SmppTimeCodec
+				.parse("261231235960000+"));
+		assertEquals(time(2026, 11, 30, 0, 0, 0, 0), SmppTimeCodec
+				.parse("261200000000000+"));
+
+		SimpleDateFormat sdf = new SimpleDateFormat("yyMMddHHmmss");
+		String[] odd = { "269999999999", "260000000000", "261231235999" };
+		for (int i = 0; i < odd.length; i++)
+			assertEquals(odd[i], sdf.parse(odd[i]).getTime(), SmppTimeCodec
+					.parse(odd[i] + "0000+"));
+	}
+
+	public void testMalformedTimeRejected() {
+		String[] bad = { "", "260615123459", "26061512345a000+",
+				"-60615123459000+", "2606 5123459000+" };
+		for (int i = 0; i < bad.length; i++) {
+			try {
+				SmppTimeCodec.parse(bad[i]);
+				fail("\"" + bad[i] + "\" accepted");
+			} catch (ParseException e) {
+				// expected
+			}
+		}
+	}
+
+	public void testAgreesWithSimpleDateFormat() throws Exception {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyMMddHHmmss'000+'");
+		SimpleDateFormat minutes = new SimpleDateFormat("yyMMddHHmm");
+		Random random = new Random(42);
+		long base = time(2000, 1, 1, 0, 0, 0, 0);
+		long span = time(2040, 1, 1, 0, 0, 0, 0) - base;
+		for (int i = 0; i < 10000; i++) {
+			long t = base + (long) (random.nextDouble() * span);
+			String s = SmppTimeCodec.format(t);
+			assertEquals(sdf.format(new Date(t)), s);
+			assertEquals(minutes.format(new Date(t)), SmppTimeCodec
+					.formatMinutes(t));
+			// parse may pick either occurrence of a repeated local time, but
+			// that still formats the same
+			long parsed = SmppTimeCodec.parse(s);
+			assertEquals(s, SmppTimeCodec.format(parsed));
+			assertEquals(0, parsed % 1000);
+		}
+	}
+}
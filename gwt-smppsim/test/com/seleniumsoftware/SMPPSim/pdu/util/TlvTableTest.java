@@ -0,0 +1,217 @@
+/****************************************************************************
+ * TlvTableTest.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.pdu.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.seleniumsoftware.SMPPSim.pdu.Tlv;
+
+public class TlvTableTest extends TestCase {
+
+	private static final short TAG_A = 0x0204;
+
+	private static final short TAG_B = 0x0424;
+
+	private static final short TAG_C = (short) 0x1403;
+
+	// TAG_A=0x0001, TAG_B (empty), TAG_A=0x0203, TAG_C=0xffff00
+	private static final byte[] ENCODED = { 0x02, 0x04, 0x00, 0x02, 0x00,
+			0x01, 0x04, 0x24, 0x00, 0x00, 0x02, 0x04, 0x00, 0x02, 0x02, 0x03,
+			0x14, 0x03, 0x00, 0x03, (byte) 0xff, (byte) 0xff, 0x00 };
+
+	private static TlvTable read(byte[] encoded) throws Exception {
+		PduReader reader = new PduReader(encoded);
+		return TlvTable.read(reader, encoded.length);
+	}
+
+	private static byte[] write(TlvTable table) {
+		PduWriter writer = new PduWriter(table.getEncodedLength());
+		table.writeTo(writer);
+		return writer.toByteArray();
+	}
+
+	public void testReadKeepsEveryEntryInOrder() throws Exception {
+		TlvTable t = read(ENCODED);
+		assertEquals(4, t.size());
+		assertEquals(TAG_A, t.getTag(0));
+		assertEquals(TAG_B, t.getTag(1));
+		assertEquals(TAG_A, t.getTag(2));
+		assertEquals(TAG_C, t.getTag(3));
+		assertEquals(0, t.getLength(1));
+		assertTrue(Arrays.equals(new byte[] { 0x02, 0x03 }, t.getValue(2)));
+		assertEquals(3, t.getTags().size());
+		assertEquals(Short.valueOf(TAG_B), t.getTags().get(1));
+		assertEquals(ENCODED.length, t.getEncodedLength());
+		assertTrue(Arrays.equals(ENCODED, write(t)));
+	}
+
+	public void testLookupFindsFirstOccurrence() throws Exception {
+		TlvTable t = read(ENCODED);
+		assertEquals(0, t.indexOf(TAG_A));
+		assertEquals(1, t.indexOf(TAG_B));
+		assertEquals(3, t.indexOf(TAG_C));
+		assertEquals(-1, t.indexOf((short) 0x0005));
+		assertFalse(t.contains((short) 0x0005));
+		assertNull(t.get((short) 0x0005));
+		Tlv a = t.get(TAG_A);
+		assertEquals(2, a.getLen());
+		assertTrue(Arrays.equals(new byte[] { 0x00, 0x01 }, a.getValue()));
+		assertEquals(0, t.get(TAG_B).getLen());
+	}
+
+	public void testEmptySection() throws Exception {
+		TlvTable t = read(new byte[0]);
+		assertEquals(0, t.size());
+		assertEquals(0, t.getEncodedLength());
+		assertEquals(-1, t.indexOf(TAG_A));
+		assertEquals(0, write(t).length);
+	}
+
+	public void testReadStopsAtEnd() throws Exception {
+		// only the first TLV lies before the end offset
+		PduReader reader = new PduReader(ENCODED);
+		TlvTable t = TlvTable.read(reader, 6);
+		assertEquals(1, t.size());
+		assertEquals(6, reader.position());
+	}
+
+	public void testValueLengthPastEndFails() throws Exception {
+		// declared length of 3 but only 2 octets follow
+		byte[] truncated = { 0x02, 0x04, 0x00, 0x03, 0x00, 0x01 };
+		try {
+			read(truncated);
+			fail("TLV running past the end of the PDU accepted");
+		} catch (Exception e) {
+			// expected
+		}
+		// a header cut short
+		try {
+			read(new byte[] { 0x02, 0x04, 0x00 });
+			fail("truncated TLV header accepted");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testMaximumValueLength() throws Exception {
+		byte[] value = new byte[0xffff];
+		value[0xfffe] = 0x7f;
+		TlvTable t = new TlvTable();
+		t.put(TAG_A, value);
+		assertEquals(4 + 0xffff, t.getEncodedLength());
+
+		TlvTable back = read(write(t));
+		assertEquals(1, back.size());
+		assertEquals(0xffff, back.getLength(0));
+		assertTrue(Arrays.equals(value, back.getValue(0)));
+	}
+
+	public void testValueTooLongRejected() {
+		TlvTable t = new TlvTable();
+		try {
+			t.put(TAG_A, new byte[0x10000]);
+			fail("value too long for TLV length field accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(0, t.size());
+	}
+
+	public void testPutReplacesFirstOccurrence() throws Exception {
+		TlvTable t = read(ENCODED);
+		t.put(TAG_A, new byte[] { 0x09 });
+		t.put(TAG_B, new byte[] { 0x01, 0x02, 0x03 });
+		t.put((short) 0x0005, null);
+		assertEquals(5, t.size());
+		assertEquals(ENCODED.length + 2 + 4, t.getEncodedLength());
+
+		TlvTable back = read(write(t));
+		assertEquals(5, back.size());
+		assertTrue(Arrays.equals(new byte[] { 0x09 }, back.getValue(0)));
+		assertTrue(Arrays.equals(new byte[] { 0x01, 0x02, 0x03 }, back
+				.getValue(1)));
+		assertTrue(Arrays.equals(new byte[] { 0x02, 0x03 }, back.getValue(2)));
+		assertEquals((short) 0x0005, back.getTag(4));
+		assertEquals(0, back.getLength(4));
+	}
+
+	public void testAddKeepsRepeatedTags() throws Exception {
+		TlvTable t = new TlvTable();
+		t.add(TAG_C, new byte[] { 0x01 });
+		t.add(TAG_C, new byte[] { 0x02, 0x03 });
+		t.put(TAG_C, new byte[] { 0x04 });
+		assertEquals(2, t.size());
+
+		TlvTable back = read(write(t));
+		assertEquals(2, back.size());
+		assertTrue(Arrays.equals(new byte[] { 0x04 }, back.getValue(0)));
+		assertTrue(Arrays.equals(new byte[] { 0x02, 0x03 }, back.getValue(1)));
+	}
+
+	public void testRemoveDropsEveryOccurrence() throws Exception {
+		TlvTable t = read(ENCODED);
+		assertTrue(t.remove(TAG_A));
+		assertFalse(t.remove(TAG_A));
+		assertEquals(2, t.size());
+		assertEquals(-1, t.indexOf(TAG_A));
+		assertEquals(0, t.indexOf(TAG_B));
+		assertEquals(1, t.indexOf(TAG_C));
+		assertEquals(ENCODED.length - 12, t.getEncodedLength());
+
+		TlvTable back = read(write(t));
+		assertEquals(TAG_B, back.getTag(0));
+		assertEquals(TAG_C, back.getTag(1));
+		assertTrue(Arrays.equals(new byte[] { (byte) 0xff, (byte) 0xff, 0x00 },
+				back.getValue(1)));
+
+		assertTrue(t.remove(TAG_B));
+		assertTrue(t.remove(TAG_C));
+		assertEquals(0, write(t).length);
+		t.put(TAG_A, new byte[] { 0x05 });
+		assertEquals(0, t.indexOf(TAG_A));
+	}
+
+	public void testManyTagsGrowIndex() throws Exception {
+		TlvTable t = new TlvTable();
+		for (int i = 0; i < 100; i++)
+			t.put((short) (0x1400 + i), new byte[] { (byte) i });
+		assertEquals(100, t.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals(i, t.indexOf((short) (0x1400 + i)));
+		assertEquals(-1, t.indexOf((short) 0x1500));
+	}
+
+	public void testCopyIsIndependent() throws Exception {
+		TlvTable t = read(ENCODED);
+		TlvTable copy = t.copy();
+		copy.put(TAG_C, new byte[] { 0x01 });
+		assertTrue(Arrays.equals(ENCODED, write(t)));
+		assertTrue(Arrays.equals(new byte[] { 0x01 }, copy.getValue(3)));
+	}
+}
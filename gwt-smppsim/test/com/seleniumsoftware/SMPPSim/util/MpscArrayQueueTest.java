@@ -0,0 +1,162 @@
+/****************************************************************************
+ * MpscArrayQueueTest.java
+ *
+ * Copyright (C) Selenium Software Ltd 2006
+ *
+ * This file is part of SMPPSim.
+ *
+ * SMPPSim is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * SMPPSim is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SMPPSim; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * @author martin@seleniumsoftware.com
+ * http://www.woolleynet.com
+ * http://www.seleniumsoftware.com
+ ****************************************************************************/
+
+package com.seleniumsoftware.SMPPSim.util;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+public class MpscArrayQueueTest extends TestCase {
+
+	public void testRejectsZeroCapacity() {
+		try {
+			new MpscArrayQueue<Integer>(0);
+			fail("capacity 0 accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testRejectsNull() {
+		MpscArrayQueue<Integer> q = new MpscArrayQueue<Integer>(2);
+		try {
+			q.offer(null);
+			fail("null accepted");
+		} catch (NullPointerException e) {
+			// expected
+		}
+		assertTrue(q.isEmpty());
+	}
+
+	public void testEmpty() {
+		MpscArrayQueue<Integer> q = new MpscArrayQueue<Integer>(4);
+		assertTrue(q.isEmpty());
+		assertEquals(0, q.size());
+		assertNull(q.poll());
+		assertEquals(0, q.drainTo(new ArrayList<Integer>(), 10));
+	}
+
+	public void testFull() {
+		MpscArrayQueue<Integer> q = new MpscArrayQueue<Integer>(3);
+		assertTrue(q.offer(1));
+		assertTrue(q.offer(2));
+		assertTrue(q.offer(3));
+		assertFalse(q.offer(4));
+		assertEquals(3, q.size());
+		assertEquals(Integer.valueOf(1), q.poll());
+		assertTrue(q.offer(4));
+		assertFalse(q.offer(5));
+		assertEquals(Integer.valueOf(2), q.poll());
+		assertEquals(Integer.valueOf(3), q.poll());
+		assertEquals(Integer.valueOf(4), q.poll());
+		assertNull(q.poll());
+		assertTrue(q.isEmpty());
+	}
+
+	public void testCapacityOne() {
+		MpscArrayQueue<Integer> q = new MpscArrayQueue<Integer>(1);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(q.offer(i));
+			assertFalse(q.offer(-1));
+			assertFalse(q.isEmpty());
+			assertEquals(Integer.valueOf(i), q.poll());
+			assertTrue(q.isEmpty());
+		}
+	}
+
+	public void testWrapsAroundInOrder() {
+		MpscArrayQueue<Integer> q = new MpscArrayQueue<Integer>(3);
+		int next = 0;
+		int expected = 0;
+		// offer two, take one, so the positions go round the ring many times
+		for (int lap = 0; lap < 20; lap++) {
+			while (q.offer(next))
+				next++;
+			assertEquals(3, q.size());
+			assertEquals(Integer.valueOf(expected++), q.poll());
+			assertEquals(Integer.valueOf(expected++), q.poll());
+			assertEquals(1, q.size());
+		}
+		while (!q.isEmpty())
+			assertEquals(Integer.valueOf(expected++), q.poll());
+		assertEquals(next, expected);
+	}
+
+	public void testDrainToHonoursMax() {
+		MpscArrayQueue<Integer> q = new MpscArrayQueue<Integer>(8);
+		for (int i = 0; i < 8; i++)
+			q.offer(i);
+		ArrayList<Integer> out = new ArrayList<Integer>();
+		assertEquals(5, q.drainTo(out, 5));
+		assertEquals(3, q.size());
+		assertEquals(3, q.drainTo(out, 5));
+		assertEquals(0, q.drainTo(out, 5));
+		for (int i = 0; i < 8; i++)
+			assertEquals(Integer.valueOf(i), out.get(i));
+	}
+
+	public void testManyProducersOneConsumer() throws Exception {
+		final int producers = 4;
+		final int perProducer = 100000;
+		final MpscArrayQueue<Long> q = new MpscArrayQueue<Long>(64);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final long id = p;
+			threads[p] = new Thread() {
+				public void run() {
+					for (int i = 0; i < perProducer; i++) {
+						Long e = Long.valueOf(id << 32 | i);
+						while (!q.offer(e))
+							Thread.yield();
+					}
+				}
+			};
+			threads[p].start();
+		}
+		// each producer's elements must arrive exactly once and in order
+		int[] next = new int[producers];
+		int received = 0;
+		long deadline = System.currentTimeMillis() + 60000;
+		while (received < producers * perProducer) {
+			Long e = q.poll();
+			if (e == null) {
+				assertTrue("timed out", System.currentTimeMillis() < deadline);
+				Thread.yield();
+				continue;
+			}
+			int p = (int) (e.longValue() >>> 32);
+			int i = (int) e.longValue();
+			assertEquals(next[p], i);
+			next[p]++;
+			received++;
+		}
+		for (int p = 0; p < producers; p++)
+			threads[p].join();
+		assertTrue(q.isEmpty());
+		assertNull(q.poll());
+	}
+}